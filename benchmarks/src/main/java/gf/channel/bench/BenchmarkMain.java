@@ -0,0 +1,69 @@
+package gf.channel.bench;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs benchmarks twice (ops/s and ns/op) with the GC profiler and prints allocated bytes per message.
+ * Accepts the usual JMH command line, e.g. a benchmark regexp: SocketServiceBenchmark
+ */
+public class BenchmarkMain {
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cmd = new CommandLineOptions(args);
+
+        Options throughput = new OptionsBuilder().parent(cmd)
+                .mode(Mode.Throughput)
+                .timeUnit(TimeUnit.SECONDS)
+                .build();
+        Collection<RunResult> opsResults = new Runner(throughput).run();
+
+        Options avgTime = new OptionsBuilder().parent(cmd)
+                .mode(Mode.AverageTime)
+                .timeUnit(TimeUnit.NANOSECONDS)
+                .addProfiler(GCProfiler.class)
+                .build();
+        Collection<RunResult> timeResults = new Runner(avgTime).run();
+
+        System.out.println();
+        System.out.printf("%-60s %14s %12s %12s%n", "Benchmark", "ops/s", "ns/op", "B/msg");
+        for (RunResult time : timeResults) {
+            String label = label(time);
+            double ops = Double.NaN;
+            for (RunResult r : opsResults)
+                if (label(r).equals(label))
+                    ops = r.getPrimaryResult().getScore();
+
+            double bytesPerMessage = Double.NaN;
+            Result alloc = time.getSecondaryResults().get("gc.alloc.rate.norm");
+            if (alloc != null)
+                bytesPerMessage = alloc.getScore() / messagesPerOperation(time);
+
+            System.out.printf("%-60s %14.1f %12.1f %12.1f%n",
+                    label, ops, time.getPrimaryResult().getScore(), bytesPerMessage);
+        }
+    }
+
+    private static String label(RunResult r) {
+        StringBuilder sb = new StringBuilder(r.getParams().getBenchmark());
+        for (String key : r.getParams().getParamsKeys())
+            sb.append(' ').append(key).append('=').append(r.getParams().getParam(key));
+        return sb.toString();
+    }
+
+    /** Benchmarks with a 'messages' parameter process that many messages per operation, others one */
+    private static int messagesPerOperation(RunResult r) {
+        if (r.getParams().getBenchmark().endsWith(".heartbeat"))
+            return 1;
+        String messages = r.getParams().getParam("messages");
+        return messages != null ? Math.max(1, Integer.parseInt(messages)) : 1;
+    }
+}
@@ -0,0 +1,25 @@
+package gf.channel.bench;
+
+import gf.channel.server.ServerConnector;
+import gf.channel.server.ServerConnectorHandler;
+
+/**
+ * Handler that only keeps the last received message reachable, so deserialization
+ * can not be eliminated by the JIT.
+ */
+public class BlackholeHandler implements ServerConnectorHandler {
+    public Object lastMessage;
+
+    @Override
+    public void onConnected(ServerConnector connector, String connectionId) {
+    }
+
+    @Override
+    public void onDisconnected(ServerConnector connector, String connectionId) {
+    }
+
+    @Override
+    public void onMessage(ServerConnector connector, String connectionId, Object message) {
+        lastMessage = message;
+    }
+}
@@ -0,0 +1,69 @@
+package gf.channel.bench;
+
+import gf.channel.server.Dispatcher;
+import gf.channel.server.VirtualThreads;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Handler callbacks dispatched to a fixed pool of platform threads vs virtual threads.
+ * Every operation dispatches one message to each of 'messages' connections and waits until handlers
+ * finish. A handler blocking for blockMicros (a database lookup) occupies a platform thread,
+ * while a virtual thread unmounts from its carrier.
+ *
+ * Virtual threads require Java 21+, on older runtimes 'virtual' falls back to a fork-join pool.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DispatchBenchmark {
+    /** Platform threads of the fixed pool, a typical container pool */
+    private final static int POOL_THREADS = 64;
+
+    @Param({"fixed", "virtual"})
+    public String dispatcher;
+
+    @Param({"0", "1000"})
+    public int blockMicros;
+
+    @Param({"1000"})
+    public int messages;
+
+    private Dispatcher pool;
+    private String[] connIds;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        if ("virtual".equals(dispatcher) && !VirtualThreads.isSupported())
+            System.out.println("Virtual threads are not supported by this runtime, measuring fork-join pool");
+        pool = Dispatcher.create(dispatcher, POOL_THREADS, Integer.MAX_VALUE);
+        connIds = new String[messages];
+        for (int i = 0; i < messages; i++)
+            connIds[i] = "conn" + i;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public void dispatch() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(messages);
+        final long blockNanos = blockMicros * 1000L;
+        for (String connId : connIds) {
+            pool.offer(connId, () -> {
+                if (blockNanos > 0)
+                    LockSupport.parkNanos(blockNanos);
+                done.countDown();
+            });
+        }
+        done.await();
+    }
+}
@@ -0,0 +1,81 @@
+package gf.channel.bench;
+
+import gf.channel.shared.GwtStreamerSerializer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The same message delivered to every connection of a connector: one post() per connection
+ * (serialized for every recipient) compared to post(Collection), broadcast() and publish() to a topic
+ * all connections are subscribed to, that serialize once.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FanOutBenchmark {
+    /** Clients confirm received messages every ACK_INTERVAL deliveries */
+    private final static int ACK_INTERVAL = 64;
+    private final static String TOPIC = "updates";
+
+    @Param({"10000"})
+    public int connections;
+
+    private NoopSocketServerConnector connector;
+    private final List<String> connIds = new ArrayList<>();
+    private final List<Object> sockets = new ArrayList<>();
+    private String message;
+    private long posted;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        connector = new NoopSocketServerConnector();
+        connector.setMessageSerializer(new GwtStreamerSerializer());
+        connector.setHandler(new BlackholeHandler());
+        for (int i = 0; i < connections; i++) {
+            Object socket = new Object();
+            sockets.add(socket);
+            String connId = connector.connect(socket);
+            connIds.add(connId);
+            connector.subscribe(connId, TOPIC);
+        }
+        message = Frames.payload(1);
+    }
+
+    private void acknowledge() {
+        if (++posted % ACK_INTERVAL == 0) {
+            for (int i = 0; i < connections; i++)
+                connector.service(sockets.get(i), Frames.socketFrame("S", connIds.get(i), posted, 0, ""));
+        }
+    }
+
+    @Benchmark
+    public void postEach() {
+        for (String connId : connIds)
+            connector.post(connId, message);
+        acknowledge();
+    }
+
+    @Benchmark
+    public void postCollection() {
+        connector.post(connIds, message);
+        acknowledge();
+    }
+
+    @Benchmark
+    public void broadcast() {
+        connector.broadcast(message);
+        acknowledge();
+    }
+
+    @Benchmark
+    public void publish() {
+        connector.publish(TOPIC, message);
+        acknowledge();
+    }
+}
@@ -0,0 +1,68 @@
+package gf.channel.bench;
+
+import gf.channel.shared.BinaryFrameWriter;
+import gf.channel.shared.MessageSerializer;
+
+/**
+ * Helpers to build protocol frames for benchmarks
+ */
+public final class Frames {
+    private Frames() {}
+
+    /**
+     * Serialized message list separated by \n, as sent after frame counters
+     */
+    public static String messageBody(MessageSerializer serializer, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++)
+            sb.append(serializer.toString(payload(i))).append('\n');
+        return sb.toString();
+    }
+
+    /** Typical small event payload */
+    public static String payload(int i) {
+        return "event #" + i + " {\"id\":" + i + ",\"state\":\"updated\",\"value\":" + (i * 31) + "}";
+    }
+
+    /** Client socket frame: S, R or H */
+    public static String socketFrame(String cmd, String connId, long receivedFromServer,
+                                     long firstMessageNumber, String body) {
+        return new StringBuilder(body.length() + 64)
+                .append(cmd).append('\n')
+                .append(connId).append('\n')
+                .append(receivedFromServer).append('\n')
+                .append(firstMessageNumber).append('\n')
+                .append(body)
+                .toString();
+    }
+
+    /** Serialized messages for binary frames */
+    public static String[] messages(MessageSerializer serializer, int count) {
+        String[] messages = new String[count];
+        for (int i = 0; i < count; i++)
+            messages[i] = serializer.toString(payload(i));
+        return messages;
+    }
+
+    /** Client binary socket frame: S, R or H */
+    public static byte[] binarySocketFrame(String cmd, String connId, long receivedFromServer,
+                                           long firstMessageNumber, String[] messages) {
+        BinaryFrameWriter frame = new BinaryFrameWriter()
+                .writeString(cmd)
+                .writeString(connId)
+                .writeLong(receivedFromServer)
+                .writeLong(firstMessageNumber);
+        for (String message : messages)
+            frame.writeString(message);
+        return frame.toByteArray();
+    }
+
+    /** Client polling request body */
+    public static String pollingBody(long receivedFromServer, long firstMessageNumber, String body) {
+        return new StringBuilder(body.length() + 32)
+                .append(receivedFromServer).append('\n')
+                .append(firstMessageNumber).append('\n')
+                .append(body)
+                .toString();
+    }
+}
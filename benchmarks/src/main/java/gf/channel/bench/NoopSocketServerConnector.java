@@ -0,0 +1,44 @@
+package gf.channel.bench;
+
+import gf.channel.server.AbstractSocketServerConnector;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Socket connector that discards everything it writes.
+ * Connection ids are predictable so benchmarks can build client frames without parsing responses.
+ */
+public class NoopSocketServerConnector extends AbstractSocketServerConnector {
+    private int connectionCount;
+
+    /** Physical connection object used by benchmarks */
+    public final Object socket = new Object();
+
+    @Override
+    protected String createConnectionId() {
+        return "bench-" + (connectionCount++);
+    }
+
+    @Override
+    protected void socketSend(@Nullable Object connection, @Nonnull String text) {
+    }
+
+    @Override
+    protected void socketSend(@Nullable Object connection, @Nonnull byte[] data, int offset, int length) {
+    }
+
+    @Override
+    protected void socketClose(@Nullable Object connection) {
+    }
+
+    /**
+     * Open a new connection using the 'N' command
+     * @return connection id
+     */
+    public String connect(@Nonnull Object physicalConnection) {
+        String connId = "bench-" + connectionCount;
+        service(physicalConnection, "N");
+        return connId;
+    }
+}
@@ -0,0 +1,92 @@
+package gf.channel.bench;
+
+import gf.channel.server.servlet.AsyncPollingConnectionServlet;
+import org.openjdk.jmh.annotations.*;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AsyncPollingConnectionServlet.service() and post() against mock request/response objects.
+ *
+ * {@link #send} posts {@link #messages} client messages in one request and receives the same
+ * number of pending server messages in the response, {@link #postAndAck}
+ * posts one server message and confirms the oldest pending one with the next request, keeping
+ * the same number of messages unacknowledged.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PollingServletBenchmark {
+    @SuppressWarnings("serial")
+    public static class BenchServlet extends AsyncPollingConnectionServlet {
+        private int connectionCount;
+
+        public BenchServlet() {
+            maxQueueLength = Integer.MAX_VALUE;
+        }
+
+        @Override
+        protected String createConnectionId() {
+            return "bench-" + (connectionCount++);
+        }
+
+        public void serve(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+            service(req, resp);
+        }
+    }
+
+    @Param({"1", "10", "1000"})
+    public int messages;
+
+    private BenchServlet servlet;
+    private final ServletMocks.Request request = new ServletMocks.Request();
+    private final ServletMocks.Response response = new ServletMocks.Response();
+    private String body;
+    private String message;
+    private long sentToServer;
+    private long acked;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        servlet = new BenchServlet();
+        servlet.init(ServletMocks.servletConfig());
+        servlet.setHandler(new BlackholeHandler());
+
+        // new connection
+        request.method = "GET";
+        request.connId = null;
+        servlet.serve(request.proxy, response.proxy);
+
+        request.method = "POST";
+        request.connId = "bench-0";
+        body = Frames.messageBody(servlet.getMessageSerializer(), messages);
+        message = Frames.payload(1);
+
+        for (int i = 0; i < messages; i++)
+            servlet.post(request.connId, Frames.payload(i));
+    }
+
+    @Benchmark
+    public long send() throws Exception {
+        request.body = Frames.pollingBody(acked, sentToServer, body);
+        sentToServer += messages;
+        servlet.serve(request.proxy, response.proxy);
+        return response.bytesWritten;
+    }
+
+    @Benchmark
+    public long postAndAck() throws Exception {
+        servlet.post(request.connId, message);
+        acked++;
+        request.body = Frames.pollingBody(acked, sentToServer, "");
+        servlet.serve(request.proxy, response.proxy);
+        return response.bytesWritten;
+    }
+}
@@ -0,0 +1,79 @@
+package gf.channel.bench;
+
+import gf.channel.shared.GwtStreamerSerializer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Multi-threaded AbstractSocketServerConnector.post(): every thread posts to its own connection
+ * of a shared connector. Without contention between connections the aggregate throughput grows
+ * with the number of threads up to the number of cores.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PostScalingBenchmark {
+    /** Client confirms received messages every ACK_INTERVAL posts */
+    private final static int ACK_INTERVAL = 64;
+
+    @State(Scope.Benchmark)
+    public static class SharedConnector {
+        public NoopSocketServerConnector connector;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            connector = new NoopSocketServerConnector();
+            connector.setMessageSerializer(new GwtStreamerSerializer());
+            connector.setHandler(new BlackholeHandler());
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ClientConnection {
+        public final Object socket = new Object();
+        public String connId;
+        public String message;
+        public long posted;
+
+        @Setup(Level.Trial)
+        public void setUp(SharedConnector shared) {
+            synchronized (shared) {
+                connId = shared.connector.connect(socket);
+            }
+            message = Frames.payload(1);
+        }
+    }
+
+    private static void postAndAck(SharedConnector shared, ClientConnection client) {
+        shared.connector.post(client.connId, client.message);
+        if (++client.posted % ACK_INTERVAL == 0)
+            shared.connector.service(client.socket, Frames.socketFrame("S", client.connId, client.posted, 0, ""));
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void threads1(SharedConnector shared, ClientConnection client) {
+        postAndAck(shared, client);
+    }
+
+    @Benchmark
+    @Threads(2)
+    public void threads2(SharedConnector shared, ClientConnection client) {
+        postAndAck(shared, client);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void threads4(SharedConnector shared, ClientConnection client) {
+        postAndAck(shared, client);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void threads8(SharedConnector shared, ClientConnection client) {
+        postAndAck(shared, client);
+    }
+}
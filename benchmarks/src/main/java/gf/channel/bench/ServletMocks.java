@@ -0,0 +1,118 @@
+package gf.channel.bench;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * Minimal request/response objects for driving servlets outside of a container.
+ * Unknown methods return null, zero or false.
+ */
+public final class ServletMocks {
+    private ServletMocks() {}
+
+    /** Mutable request: method, connection id and body may be changed between invocations */
+    public static class Request implements InvocationHandler {
+        public String method = "GET";
+        public String connId;
+        public String body = "";
+        public final HttpServletRequest proxy = (HttpServletRequest) Proxy.newProxyInstance(
+                ServletMocks.class.getClassLoader(), new Class<?>[]{HttpServletRequest.class}, this);
+
+        @Override
+        public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+            switch (m.getName()) {
+                case "getMethod":
+                    return method;
+                case "getParameter":
+                    return "cid".equals(args[0]) ? connId : null;
+                case "getReader":
+                    return new BufferedReader(new StringReader(body));
+                case "startAsync":
+                    throw new UnsupportedOperationException("Long polling is not supported by mock request");
+                default:
+                    return defaultValue(m.getReturnType());
+            }
+        }
+    }
+
+    /** Response that counts written bytes and remembers the last status */
+    public static class Response implements InvocationHandler {
+        public int status = 200;
+        public long bytesWritten;
+        public final ServletOutputStream out = new ServletOutputStream() {
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+            }
+
+            @Override
+            public void write(int b) {
+                bytesWritten++;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                bytesWritten += len;
+            }
+        };
+        public final HttpServletResponse proxy = (HttpServletResponse) Proxy.newProxyInstance(
+                ServletMocks.class.getClassLoader(), new Class<?>[]{HttpServletResponse.class}, this);
+
+        @Override
+        public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+            switch (m.getName()) {
+                case "getOutputStream":
+                    return out;
+                case "setStatus":
+                    status = (Integer) args[0];
+                    return null;
+                default:
+                    return defaultValue(m.getReturnType());
+            }
+        }
+    }
+
+    public static ServletConfig servletConfig() {
+        return (ServletConfig) Proxy.newProxyInstance(ServletMocks.class.getClassLoader(),
+                new Class<?>[]{ServletConfig.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+                        if ("getServletName".equals(m.getName()))
+                            return "bench";
+                        return defaultValue(m.getReturnType());
+                    }
+                });
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (!type.isPrimitive() || type == void.class)
+            return null;
+        if (type == boolean.class)
+            return false;
+        if (type == long.class)
+            return 0L;
+        if (type == char.class)
+            return '\0';
+        if (type == byte.class)
+            return (byte) 0;
+        if (type == short.class)
+            return (short) 0;
+        if (type == float.class)
+            return 0f;
+        if (type == double.class)
+            return 0d;
+        return 0;
+    }
+}
@@ -0,0 +1,55 @@
+package gf.channel.bench;
+
+import gf.channel.shared.GwtStreamerSerializer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outbound path of AbstractSocketServerConnector.post().
+ *
+ * The connection keeps {@link #queueDepth} unacknowledged messages: every post is followed
+ * by an empty S frame from the client that confirms the oldest one, so {@link #postAndAck}
+ * covers queue append, frame write and acknowledgement trimming.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SocketPostBenchmark {
+    @Param({"0", "100", "1000"})
+    public int queueDepth;
+
+    private NoopSocketServerConnector connector;
+    private String connId;
+    private String message;
+    private long acked;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        connector = new NoopSocketServerConnector();
+        connector.setMessageSerializer(new GwtStreamerSerializer());
+        connector.setMaxQueueLength(Integer.MAX_VALUE);
+        connector.setHandler(new BlackholeHandler());
+        connId = connector.connect(connector.socket);
+        message = Frames.payload(1);
+
+        for (int i = 0; i < queueDepth; i++)
+            connector.post(connId, Frames.payload(i));
+    }
+
+    @Benchmark
+    public void postAndAck() {
+        connector.post(connId, message);
+        acked++;
+        connector.service(connector.socket, Frames.socketFrame("S", connId, acked, 0, ""));
+    }
+
+    @Benchmark
+    public void ackOnly() {
+        // the same empty frame without a queue change, to subtract from postAndAck
+        connector.service(connector.socket, Frames.socketFrame("S", connId, acked, 0, ""));
+    }
+}
@@ -0,0 +1,89 @@
+package gf.channel.bench;
+
+import gf.channel.shared.GwtStreamerSerializer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Inbound path of AbstractSocketServerConnector.service(): S, R and H frames.
+ *
+ * Message counters must grow with every invocation, otherwise the connector discards
+ * messages as duplicates, so each invocation builds a frame header in front of a prepared
+ * message body. {@link #frameOnly} measures this overhead alone.
+ *
+ * With binary=true the client sends binary frames and the connector replies with binary frames.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SocketServiceBenchmark {
+    @Param({"1", "10", "1000"})
+    public int messages;
+
+    @Param({"false", "true"})
+    public boolean binary;
+
+    private NoopSocketServerConnector connector;
+    private String connId;
+    private String body;
+    private String[] bodyMessages;
+    private long sentToServer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        connector = new NoopSocketServerConnector();
+        connector.setMessageSerializer(new GwtStreamerSerializer());
+        connector.setMaxQueueLength(Integer.MAX_VALUE);
+        connector.setHandler(new BlackholeHandler());
+        connId = connector.connect(connector.socket);
+        body = Frames.messageBody(connector.getMessageSerializer(), messages);
+        bodyMessages = Frames.messages(connector.getMessageSerializer(), messages);
+        if (binary)
+            // switch connection to binary replies
+            service("H", 0);
+
+        // messages pending on server side, retransmitted on every R
+        for (int i = 0; i < messages; i++)
+            connector.post(connId, Frames.payload(i));
+    }
+
+    private void service(String cmd, long firstMessageNumber) {
+        if (binary) {
+            byte[] frame = Frames.binarySocketFrame(cmd, connId, 0, firstMessageNumber,
+                    "H".equals(cmd) ? new String[0] : bodyMessages);
+            connector.service(connector.socket, frame, 0, frame.length);
+        } else {
+            connector.service(connector.socket, "H".equals(cmd) ? "H\n" + connId + "\n0\n"
+                    : Frames.socketFrame(cmd, connId, 0, firstMessageNumber, body));
+        }
+    }
+
+    @Benchmark
+    public Object frameOnly() {
+        Object frame = binary ? Frames.binarySocketFrame("S", connId, 0, sentToServer, bodyMessages)
+                : Frames.socketFrame("S", connId, 0, sentToServer, body);
+        sentToServer += messages;
+        return frame;
+    }
+
+    @Benchmark
+    public void send() {
+        service("S", sentToServer);
+        sentToServer += messages;
+    }
+
+    @Benchmark
+    public void reconnect() {
+        service("R", sentToServer);
+        sentToServer += messages;
+    }
+
+    @Benchmark
+    public void heartbeat() {
+        service("H", 0);
+    }
+}
@@ -6,9 +6,11 @@ import com.google.gwt.event.shared.EventBus;
 import com.google.gwt.event.shared.EventHandler;
 import com.google.gwt.event.shared.GwtEvent;
 import com.google.gwt.event.shared.SimpleEventBus;
+import gf.channel.shared.ByteMessageSerializer;
 import gf.channel.shared.DefaultStringSerializer;
 import gf.channel.shared.GwtStreamerSerializer;
 import gf.channel.shared.MessageSerializer;
+import gf.channel.shared.Utf8MessageSerializer;
 
 /**
  * Connection state flow:
@@ -104,6 +106,8 @@ public abstract class ClientConnector
     
 	
 	protected MessageSerializer messageSerializer = new GwtStreamerSerializer();
+    /** Serializer of binary frame messages, UTF-8 of messageSerializer by default */
+    protected ByteMessageSerializer byteMessageSerializer = new Utf8MessageSerializer(messageSerializer);
     protected EventBus listeners = new SimpleEventBus();
     
     /** Current state */
@@ -163,5 +167,16 @@ public abstract class ClientConnector
 
     public void setMessageSerializer(MessageSerializer messageSerializer) {
         this.messageSerializer = messageSerializer;
+        if (byteMessageSerializer instanceof Utf8MessageSerializer)
+            byteMessageSerializer = new Utf8MessageSerializer(messageSerializer);
+    }
+
+    public ByteMessageSerializer getByteMessageSerializer() {
+        return byteMessageSerializer;
+    }
+
+    /** Serializer of binary frame messages, used by transports that support binary frames */
+    public void setByteMessageSerializer(ByteMessageSerializer byteMessageSerializer) {
+        this.byteMessageSerializer = byteMessageSerializer;
     }
 }
@@ -2,6 +2,7 @@ package gf.channel.client;
 
 import com.google.gwt.core.client.GWT;
 import com.google.gwt.core.client.JavaScriptObject;
+import com.google.gwt.core.client.JsArrayInteger;
 import com.google.gwt.user.client.Timer;
 
 import javax.annotation.Nonnull;
@@ -21,6 +22,7 @@ public class GwtJsWebSocketClientConnector extends SocketClientConnector {
 		if ("WebSocket" in $wnd) {
 			var ws = new WebSocket(this.@gf.channel.client.SocketClientConnector::url);
 			//this.@gf.channel.client.GwtJsWebSocketClientConnector::websocket = ws;
+			ws.binaryType = "arraybuffer";
 			var x = this;
 			ws.onopen = $entry(function() {
 				x.@gf.channel.client.GwtJsWebSocketClientConnector::onOpenCallback()();
@@ -28,7 +30,10 @@ public class GwtJsWebSocketClientConnector extends SocketClientConnector {
 			});
 			ws.onmessage = $entry(function(evt) {
 			    alert('Received: '+evt.data);
-				x.@gf.channel.client.GwtJsWebSocketClientConnector::onMessageCallback(Ljava/lang/String;)(""+evt.data);
+			    if (evt.data instanceof ArrayBuffer)
+				    x.@gf.channel.client.GwtJsWebSocketClientConnector::onBinaryMessageCallback(Lcom/google/gwt/core/client/JsArrayInteger;)(new Uint8Array(evt.data));
+			    else
+				    x.@gf.channel.client.GwtJsWebSocketClientConnector::onMessageCallback(Ljava/lang/String;)(""+evt.data);
 			});
 			ws.onclose = $entry(function() {
 			    alert("closed");
@@ -79,6 +84,14 @@ public class GwtJsWebSocketClientConnector extends SocketClientConnector {
         onMessage(text);
     }
 
+    /** @param data Uint8Array of the binary frame */
+    private void onBinaryMessageCallback(JsArrayInteger data) {
+        byte[] bytes = new byte[data.length()];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = (byte) data.get(i);
+        onMessage(bytes, 0, bytes.length);
+    }
+
     private void onOpenCallback() {
         onConnectionOpen();
     }
@@ -109,6 +122,15 @@ public class GwtJsWebSocketClientConnector extends SocketClientConnector {
 		//ws.send(text);
 	}-*/;
 
+    @Override
+    protected native void socketSend(byte[] data, int offset, int length) /*-{
+		var ws = this.@gf.channel.client.GwtJsWebSocketClientConnector::websocket;
+		var array = new Uint8Array(length);
+		for (var i = 0; i < length; i++)
+			array[i] = data[offset + i];
+		ws.send(array.buffer);
+	}-*/;
+
     private Timer delayedTask;
 
     @Override
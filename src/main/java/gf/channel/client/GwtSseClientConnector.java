@@ -0,0 +1,72 @@
+package gf.channel.client;
+
+import elemental.client.Browser;
+import elemental.events.Event;
+import elemental.events.EventListener;
+import elemental.html.EventSource;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Server-Sent Events connector using browser EventSource, requests are sent as in {@link GwtPollingClientConnector}
+ */
+public class GwtSseClientConnector extends SseClientConnector {
+    private final GwtPollingClientConnector http;
+
+    public GwtSseClientConnector(String path) {
+        super(path);
+        http = new GwtPollingClientConnector(path) {
+            @Override
+            protected void onReadyStateChange(Object httpRequest, int status, String text) {
+                GwtSseClientConnector.this.onReadyStateChange(httpRequest, status, text);
+            }
+        };
+    }
+
+    @Override
+    protected Object streamOpen(String paramLine) {
+        final EventSource eventSource = Browser.getWindow().newEventSource(url + "?" + paramLine);
+        eventSource.setOnmessage(new EventListener() {
+            @Override
+            public void handleEvent(Event evt) {
+                onStreamMessage(eventSource, (String) ((elemental.events.MessageEvent) evt).getData());
+            }
+        });
+        eventSource.addEventListener("close", new EventListener() {
+            @Override
+            public void handleEvent(Event evt) {
+                eventSource.close();
+                onStreamClose(eventSource);
+            }
+        });
+        eventSource.setOnerror(new EventListener() {
+            @Override
+            public void handleEvent(Event evt) {
+                // do not let the browser reconnect, the connection is checked first
+                eventSource.close();
+                onStreamError(eventSource);
+            }
+        });
+        return eventSource;
+    }
+
+    @Override
+    protected void streamAbort(@Nonnull Object stream) {
+        ((EventSource) stream).close();
+    }
+
+    @Override
+    protected Object httpSend(String method, String paramLine, String text, int timeout) {
+        return http.httpSend(method, paramLine, text, timeout);
+    }
+
+    @Override
+    protected void httpAbort(@Nonnull Object httpRequest) {
+        http.httpAbort(httpRequest);
+    }
+
+    @Override
+    protected void schedule(int delay, @Nonnull Runnable task) {
+        http.schedule(delay, task);
+    }
+}
@@ -5,6 +5,8 @@ import elemental.client.Browser;
 import elemental.events.Event;
 import elemental.events.EventListener;
 import elemental.events.MessageEvent;
+import elemental.html.ArrayBuffer;
+import elemental.html.Uint8Array;
 import elemental.html.WebSocket;
 
 import javax.annotation.Nonnull;
@@ -22,6 +24,7 @@ public class GwtWebSocketClientConnector extends SocketClientConnector {
     @Override
     protected void socketConnect() {
         webSocket = Browser.getWindow().newWebSocket(url);
+        webSocket.setBinaryType("arraybuffer");
         webSocket.setOnopen(new EventListener() {
             @Override
             public void handleEvent(Event evt) {
@@ -37,7 +40,13 @@ public class GwtWebSocketClientConnector extends SocketClientConnector {
         webSocket.setOnmessage(new EventListener() {
             @Override
             public void handleEvent(Event evt) {
-                onMessage(((elemental.events.MessageEvent) evt).getData().toString());
+                Object data = ((elemental.events.MessageEvent) evt).getData();
+                if (data instanceof String) {
+                    onMessage((String) data);
+                } else {
+                    byte[] bytes = toBytes((ArrayBuffer) data);
+                    onMessage(bytes, 0, bytes.length);
+                }
             }
         });
         webSocket.setOnclose(new EventListener() {
@@ -58,6 +67,27 @@ public class GwtWebSocketClientConnector extends SocketClientConnector {
         webSocket.send(text);
     }
 
+    @Override
+    protected void socketSend(byte[] data, int offset, int length) {
+        send(webSocket, data, offset, length);
+    }
+
+    private static byte[] toBytes(ArrayBuffer buffer) {
+        Uint8Array view = Browser.getWindow().newUint8Array(buffer, 0, buffer.getByteLength());
+        byte[] bytes = new byte[view.length()];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = (byte) view.intAt(i);
+        return bytes;
+    }
+
+    /** elemental WebSocket.send() accepts only strings */
+    private static native void send(WebSocket webSocket, byte[] data, int offset, int length) /*-{
+        var array = new Uint8Array(length);
+        for (var i = 0; i < length; i++)
+            array[i] = data[offset + i];
+        webSocket.send(array.buffer);
+    }-*/;
+
     private Timer delayedTask;
 
     @Override
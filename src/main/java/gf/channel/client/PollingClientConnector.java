@@ -100,44 +100,8 @@ public abstract class PollingClientConnector extends ClientConnector {
                     if (this.state == State.connecting)
                         changeState(State.ready);
 
-                    long msgCountReceivedFromClient = Long.parseLong(lit.next());
-                    long readMsgNumber = Long.parseLong(lit.next());
-                    List<Object> msgs = new ArrayList<>();
-
-                    // read and process messages
-                    while (lit.hasNext()) {
-                        // discard duplicates
-                        if (readMsgNumber < receivedCounter) {
-                            readMsgNumber++;
-                            continue;
-                        }
-                        readMsgNumber++;
-
-                        String messageString = lit.next();
-                        Object  message = messageSerializer.fromString(messageString);
-                        msgs.add(message);
-                        receivedCounter++;
-                    }
-
-                    // we use synchronization here to send synchronous responses in the same HttpResponse
-                    // protocol mismatch - older events were removed
-                    if (msgCountReceivedFromClient < sentCounter) {
-                        log.severe("Protocol mismatch, connection: " + connId);
-                        changeState(State.closed);
+                    if (!receive(lit, text))
                         return;
-                    }
-
-                    // removing messages from queue confirmed by client
-                    while (sentCounter < msgCountReceivedFromClient) {
-                        queue.remove(0);
-                        sentCounter++;
-                    }
-
-                    if (log.isLoggable(Level.FINEST))
-                        log.finest("PCONN: received " + msgs.size() + " message(s)\n" + text);
-
-                    for (Object message : msgs)
-                        listeners.fireEvent(new MessageEvent(message));
                 }
 
                 reconnectionAttempts = 0;
@@ -189,6 +153,54 @@ public abstract class PollingClientConnector extends ClientConnector {
     }
 
 
+    /**
+     * Read counters and messages sent by server
+     * @return false if connection was closed because of protocol mismatch
+     */
+    protected boolean receive(LineIterator lit, String text) {
+        long msgCountReceivedFromClient = Long.parseLong(lit.next());
+        long readMsgNumber = Long.parseLong(lit.next());
+        List<Object> msgs = new ArrayList<>();
+
+        // read and process messages
+        while (lit.hasNext()) {
+            // discard duplicates
+            if (readMsgNumber < receivedCounter) {
+                readMsgNumber++;
+                lit.next();
+                continue;
+            }
+            readMsgNumber++;
+
+            String messageString = lit.next();
+            Object  message = messageSerializer.fromString(messageString);
+            msgs.add(message);
+            receivedCounter++;
+        }
+
+        // we use synchronization here to send synchronous responses in the same HttpResponse
+        // protocol mismatch - older events were removed
+        if (msgCountReceivedFromClient < sentCounter) {
+            log.severe("Protocol mismatch, connection: " + connId);
+            changeState(State.closed);
+            return false;
+        }
+
+        // removing messages from queue confirmed by client
+        while (sentCounter < msgCountReceivedFromClient) {
+            queue.remove(0);
+            sentCounter++;
+        }
+
+        if (log.isLoggable(Level.FINEST))
+            log.finest("PCONN: received " + msgs.size() + " message(s)\n" + text);
+
+        for (Object message : msgs)
+            listeners.fireEvent(new MessageEvent(message));
+        return true;
+    }
+
+
     protected void exchange() {
         if (scheduled)
             return;
@@ -209,30 +221,37 @@ public abstract class PollingClientConnector extends ClientConnector {
             log.finest("HTTP GET");
         }
         else {
-            StringBuilder sb = new StringBuilder()
-                .append(receivedCounter).append('\n')
-                .append(sentCounter).append('\n');
-
-            for (Object message : queue) {
-                sb.append(message).append('\n');
-            }
+            String text = requestText();
 
             if (!queue.isEmpty()) {
                 // Post with return
-                httpRequest = httpSend("POST", "cid=" + connId, sb.toString(), requestTimeout);
+                httpRequest = httpSend("POST", "cid=" + connId, text, requestTimeout);
                 log.finest("HTTP POST");
             } else {
                 // Close o long-poll
                 longPollInProgress = true;
                 httpRequest = httpSend(
                         this.state == State.closing ? "DELETE":"PUT",
-                        "cid=" + connId, sb.toString(), longPollingTimeout + 5000);
+                        "cid=" + connId, text, longPollingTimeout + 5000);
                 log.finest("HTTP "+(this.state == State.closing ? "DELETE":"PUT"));
             }
         }
     }
 
 
+    /** Counters and queued messages separated by \n */
+    protected String requestText() {
+        StringBuilder sb = new StringBuilder()
+            .append(receivedCounter).append('\n')
+            .append(sentCounter).append('\n');
+
+        for (Object message : queue) {
+            sb.append(message).append('\n');
+        }
+        return sb.toString();
+    }
+
+
     protected abstract Object httpSend(String method, @Nullable String paramLine, @Nullable String text, int timeout);
 
     protected abstract void httpAbort(@Nonnull Object httpRequest);
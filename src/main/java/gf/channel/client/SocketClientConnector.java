@@ -1,9 +1,15 @@
 package gf.channel.client;
 
 import com.google.gwt.core.client.GWT;
+import gf.channel.shared.BinaryFrameReader;
+import gf.channel.shared.BinaryFrameWriter;
+import gf.channel.shared.FrameReader;
+import gf.channel.shared.FrameWriter;
 import gf.channel.shared.LineIterator;
+import gf.channel.shared.TextFrameWriter;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Level;
@@ -20,7 +26,8 @@ public abstract class SocketClientConnector extends ClientConnector
 
     protected String connId;
     /** serialized messages */
-    protected List<String> queue = new ArrayList<String>();
+    /** Serialized messages: strings for text frames, bytes for binary frames */
+    protected List<Object> queue = new ArrayList<Object>();
     protected long receivedCounter;
     protected long sentCounter;
 
@@ -53,6 +60,9 @@ public abstract class SocketClientConnector extends ClientConnector
     protected int connectionTimeout;
     protected long lastConnectionLostTimestamp;
 
+    /** Send binary frames, server replies in the same mode */
+    protected boolean binary;
+
     /** must not throw any exception if socket is open */
     protected abstract void socketConnect();
 
@@ -62,6 +72,9 @@ public abstract class SocketClientConnector extends ClientConnector
     /** must not throw any exception if socket is not open */
     protected abstract void socketSend(String text);
 
+    /** must not throw any exception if socket is not open, called in binary mode only */
+    protected abstract void socketSend(byte[] data, int offset, int length);
+
     protected abstract void schedule(int delay, @Nonnull Runnable task);
 
     protected abstract void startScheduledTask(int delay, @Nonnull Runnable task);
@@ -109,27 +122,27 @@ public abstract class SocketClientConnector extends ClientConnector
     protected void onConnectionOpen() {
         if (connId == null) {
             // connect
-            socketSend("N");
+            send(newFrame().writeString("N"));
             log.finest("SCONN: creating connection...");
         }
         else {
             log.finest("SCONN: re-creating connection...");
             // re-connect
-            StringBuilder sb = new StringBuilder()
-                    .append("R").append('\n')
-                    .append(connId).append('\n')
-                    .append(receivedCounter).append('\n')
-                    .append(sentCounter).append('\n');
+            FrameWriter frame = newFrame()
+                    .writeString("R")
+                    .writeString(connId)
+                    .writeLong(receivedCounter)
+                    .writeLong(sentCounter);
 
             for (Object message : queue) {
-                sb.append(message).append('\n');
+                frame.writeMessage(message);
             }
-            socketSend(sb.toString());
+            send(frame);
 
             if (state == State.closing) {
                 // reconnected but closing
                 log.finest("SCONN: closing...");
-                socketSend("C"+"\n"+connId);
+                send(newFrame().writeString("C").writeString(connId));
             }
         }
     }
@@ -186,8 +199,24 @@ public abstract class SocketClientConnector extends ClientConnector
     {
         /*String[] ss = text != null ?
                 text.split("\\r?\\n") : new String[0];*/
-        LineIterator lit = new LineIterator(text);
-        String cmd = lit.next();
+        onFrame(new LineIterator(text), text);
+    }
+
+    /** receive binary message callback */
+    protected void onMessage(byte[] data, int offset, int length)
+    {
+        try {
+            onFrame(new BinaryFrameReader(data, offset, length), null);
+        } catch (RuntimeException ex) {
+            log.severe("SCONN: protocol mismatch (malformed frame): " + ex);
+            changeState(State.closed);
+            socketClose();
+        }
+    }
+
+    private void onFrame(FrameReader lit, @Nullable String text)
+    {
+        String cmd = lit.hasNext() ? lit.nextString() : null;
 
         if (connId == null) {
             // not connected
@@ -198,9 +227,9 @@ public abstract class SocketClientConnector extends ClientConnector
                 return;
             }
             reconnectionAttempts = 0;
-            connId = lit.next();
-            heartbeatInterval = Integer.parseInt(lit.next());
-            connectionTimeout = Integer.parseInt(lit.next());
+            connId = lit.nextString();
+            heartbeatInterval = (int) lit.nextLong();
+            connectionTimeout = (int) lit.nextLong();
 
             if (log.isLoggable(Level.FINEST))
                 log.finest("SCONN: connection created: id=" + connId);
@@ -211,21 +240,21 @@ public abstract class SocketClientConnector extends ClientConnector
             if (!queue.isEmpty()) {
                 if (log.isLoggable(Level.FINEST))
                     log.finest("SCONN: sending queued messages: size=" + queue.size());
-                StringBuilder sb = new StringBuilder()
-                        .append("S").append('\n')
-                        .append(connId).append('\n')
-                        .append(receivedCounter).append('\n')
-                        .append(sentCounter).append('\n');
+                FrameWriter frame = newFrame()
+                        .writeString("S")
+                        .writeString(connId)
+                        .writeLong(receivedCounter)
+                        .writeLong(sentCounter);
 
                 for (Object message : queue) {
-                    sb.append(message).append('\n');
+                    frame.writeMessage(message);
                 }
-                socketSend(sb.toString());
+                send(frame);
 
                 if (state == State.closing) {
                     // reconnected but closing
                     log.finest("SCONN: requesting server close...");
-                    socketSend("C"+"\n"+connId);
+                    send(newFrame().writeString("C").writeString(connId));
                 }
             }
 
@@ -234,12 +263,11 @@ public abstract class SocketClientConnector extends ClientConnector
                 @Override
                 public void run() {
                     if (state == State.ready) {
-                        StringBuilder sb = new StringBuilder()
-                                .append("H").append('\n')
-                                .append(connId).append('\n')
-                                .append(receivedCounter).append('\n')
-                                .append(sentCounter).append('\n');
-                        socketSend(sb.toString());
+                        send(newFrame()
+                                .writeString("H")
+                                .writeString(connId)
+                                .writeLong(receivedCounter)
+                                .writeLong(sentCounter));
                         log.finest("SCONN: sending heartbeat...");
                     }
                 }
@@ -256,12 +284,11 @@ public abstract class SocketClientConnector extends ClientConnector
                     @Override
                     public void run() {
                         if (state == State.ready) {
-                            StringBuilder sb = new StringBuilder()
-                                    .append("H").append('\n')
-                                    .append(connId).append('\n')
-                                    .append(receivedCounter).append('\n')
-                                    .append(sentCounter).append('\n');
-                            socketSend(sb.toString());
+                            send(newFrame()
+                                    .writeString("H")
+                                    .writeString(connId)
+                                    .writeLong(receivedCounter)
+                                    .writeLong(sentCounter));
                             log.finest("SCONN: sending heartbeat...");
                         }
                     }
@@ -271,7 +298,7 @@ public abstract class SocketClientConnector extends ClientConnector
             if (reconnectionAttempts > 0)
                 reconnectionAttempts = 0;
 
-            long msgCountReceivedFromClient = Long.parseLong(lit.next());
+            long msgCountReceivedFromClient = lit.nextLong();
 
             // we use synchronization here to send synchronous responses in the same HttpResponse
             // protocol mismatch - older events were removed
@@ -292,7 +319,7 @@ public abstract class SocketClientConnector extends ClientConnector
                 return;
 
             if ("S".equals(cmd)) {
-                long readMsgNumber = Long.parseLong(lit.next());
+                long readMsgNumber = lit.nextLong();
                 List<Object> msgs = new ArrayList<>();
 
                 // read and process messages
@@ -300,18 +327,20 @@ public abstract class SocketClientConnector extends ClientConnector
                     // discard duplicates
                     if (readMsgNumber < receivedCounter) {
                         readMsgNumber++;
+                        lit.skip();
                         continue;
                     }
                     readMsgNumber++;
 
-                    String messageString = lit.next();
-                    Object  message = messageSerializer.fromString(messageString);
+                    Object  message = lit instanceof BinaryFrameReader
+                            ? ((BinaryFrameReader) lit).nextMessage(byteMessageSerializer)
+                            : messageSerializer.fromString(lit.nextSlice());
                     msgs.add(message);
                     receivedCounter++;
                 }
 
                 if (log.isLoggable(Level.FINEST))
-                    log.finest("SCONN: received "+msgs.size()+" message(s)\n"+text);
+                    log.finest("SCONN: received "+msgs.size()+" message(s)" + (text != null ? "\n"+text : ""));
 
                 for (Object message : msgs)
                     listeners.fireEvent(new MessageEvent(message));
@@ -323,7 +352,7 @@ public abstract class SocketClientConnector extends ClientConnector
         else if ("CR".equals(cmd)) {
             // server connection close request
             log.finest("SCONN: connection closed by server close request");
-            socketSend("CA" + "\n" + connId);
+            send(newFrame().writeString("CA").writeString(connId));
             changeState(State.closed);
         }
         else if ("C".equals(cmd)) {
@@ -366,7 +395,7 @@ public abstract class SocketClientConnector extends ClientConnector
 
         // server connection close request
         if (state == State.ready)
-            socketSend("C"+"\n"+connId);
+            send(newFrame().writeString("C").writeString(connId));
         changeState(State.closing);
     }
 
@@ -376,25 +405,61 @@ public abstract class SocketClientConnector extends ClientConnector
         if ( !isStarted() )
             throw new IllegalStateException("Connection is not started");
 
-        String msg = messageSerializer.toString(payload);
+        // encoded once in the form written to frames
+        Object msg;
+        int size;
+        if (binary) {
+            byte[] data = byteMessageSerializer.toBytes(payload);
+            msg = data;
+            size = data.length;
+        } else {
+            String text = messageSerializer.toString(payload);
+            msg = text;
+            size = text.length();
+        }
         queue.add(msg);
 
         if (state == State.ready) {
-            StringBuilder sb = new StringBuilder()
-                    .append("S").append('\n')
-                    .append(connId).append('\n')
-                    .append(receivedCounter).append('\n')
-                    .append(sentCounter + queue.size()-1).append('\n')
-                    .append(msg).append('\n');
-            socketSend(sb.toString());
+            send(newFrame(size + 64)
+                    .writeString("S")
+                    .writeString(connId)
+                    .writeLong(receivedCounter)
+                    .writeLong(sentCounter + queue.size()-1)
+                    .writeMessage(msg));
             if (log.isLoggable(Level.FINEST))
-                log.finest("SCONN: sending message: " + msg);
+                log.finest("SCONN: sending message: " + payload);
         } else {
             if (log.isLoggable(Level.FINEST))
-                log.finest("SCONN: queueing message: " + msg);
+                log.finest("SCONN: queueing message: " + payload);
         }
     }
 
+    protected FrameWriter newFrame() {
+        return newFrame(64);
+    }
+
+    protected FrameWriter newFrame(int capacity) {
+        return binary ? new BinaryFrameWriter(capacity) : new TextFrameWriter(capacity);
+    }
+
+    protected void send(FrameWriter frame) {
+        if (frame.isBinary()) {
+            BinaryFrameWriter binaryFrame = (BinaryFrameWriter) frame;
+            socketSend(binaryFrame.getBuffer(), 0, binaryFrame.size());
+        } else {
+            socketSend(frame.toString());
+        }
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /** Must be set before connect() */
+    public void setBinary(boolean binary) {
+        this.binary = binary;
+    }
+
     public int getMaxReconnectionAttempts() {
         return maxReconnectionAttempts;
     }
@@ -0,0 +1,131 @@
+package gf.channel.client;
+
+import com.google.gwt.core.client.GWT;
+import gf.channel.shared.LineIterator;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Server-Sent Events client connector: messages from server arrive as events of one open stream,
+ * messages to server and confirmations are posted as in long polling.
+ * May be used as polling transport of {@link FallbackClientConnector}.
+ */
+public abstract class SseClientConnector extends PollingClientConnector {
+    private final static Logger log = Logger.getLogger(SseClientConnector.class.getName());
+
+    /** Open event stream or null */
+    @Nullable
+    protected Object stream;
+
+    /** Number of received messages reported to server, -1 if connection must be checked before opening stream */
+    protected long confirmedCounter;
+
+
+    public SseClientConnector(String path) {
+        super(path);
+    }
+
+
+    /** Process event of the stream: counters and messages separated by \n */
+    protected void onStreamMessage(Object stream, String data) {
+        if (this.stream != stream)
+            // old stream
+            return;
+
+        try {
+            if (!receive(new LineIterator(data), data)) {
+                streamClose();
+                return;
+            }
+            reconnectionAttempts = 0;
+            // confirm received messages
+            exchange();
+        } catch (Exception ex) {
+            log.log(Level.SEVERE, "SSECONN: error processing messages: " + data, ex);
+            GWT.reportUncaughtException(ex);
+            changeState(State.closed);
+        }
+    }
+
+    /** Server closed the connection */
+    protected void onStreamClose(Object stream) {
+        if (this.stream != stream)
+            return;
+        log.finest("SSECONN: connection closed");
+        if (httpRequest != null) {
+            Object httpOld = httpRequest;
+            httpRequest = null;
+            httpAbort(httpOld);
+        }
+        changeState(State.closed);
+    }
+
+    /** Stream was completed by server or failed, post checks the connection before opening a new one */
+    protected void onStreamError(Object stream) {
+        if (this.stream != stream)
+            return;
+        log.finest("SSECONN: stream interrupted");
+        streamClose();
+        confirmedCounter = -1;
+        exchange();
+    }
+
+
+    @Override
+    protected void exchange() {
+        if (connId == null || state == State.closing) {
+            // connection and close requests are the same as in long polling
+            streamClose();
+            super.exchange();
+            return;
+        }
+
+        if (httpRequest != null)
+            // next exchange follows the response
+            return;
+
+        if (stream == null && state == State.ready && confirmedCounter >= 0) {
+            confirmedCounter = receivedCounter;
+            stream = streamOpen("cid=" + connId + "&rc=" + receivedCounter);
+            log.finest("SSECONN: stream opened");
+        }
+
+        // reconnecting connection is checked by a post even if it has nothing to send
+        if (state == State.ready && queue.isEmpty() && confirmedCounter == receivedCounter)
+            return;
+
+        confirmedCounter = receivedCounter;
+        httpRequest = httpSend("POST", "cid=" + connId, requestText(), requestTimeout);
+        log.finest("HTTP POST");
+    }
+
+    @Override
+    public void connect() {
+        super.connect();
+        confirmedCounter = 0;
+    }
+
+    @Override
+    protected void changeState(State newState) {
+        if (newState == State.closed)
+            streamClose();
+        super.changeState(newState);
+    }
+
+    protected void streamClose() {
+        if (stream != null) {
+            Object old = stream;
+            stream = null;
+            streamAbort(old);
+        }
+    }
+
+
+    /** Open event stream of the connection */
+    protected abstract Object streamOpen(String paramLine);
+
+    protected abstract void streamAbort(@Nonnull Object stream);
+}
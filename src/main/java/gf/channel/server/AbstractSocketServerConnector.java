@@ -1,12 +1,22 @@
 package gf.channel.server;
 
+import gf.channel.shared.BinaryFrameReader;
+import gf.channel.shared.BinaryFrameWriter;
+import gf.channel.shared.ByteMessageSerializer;
+import gf.channel.shared.FrameReader;
+import gf.channel.shared.FrameWriter;
 import gf.channel.shared.MessageSerializer;
+import gf.channel.shared.TextFrameReader;
+import gf.channel.shared.TextFrameWriter;
+import gf.channel.shared.Utf8;
+import gf.channel.shared.Utf8MessageSerializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.servlet.http.HttpSession;
+import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
@@ -93,12 +103,41 @@ public abstract class AbstractSocketServerConnector implements ServerConnector
     /** Terminate connection if during this period was not received any packet */
     protected int connectionTimeout = 120000;
 
-	/** Terminate connection if queue size exceeds max length */
-	protected int maxQueueLength = 300;
+    /** Persistent connection state, lets clients resume connections after restart. Null disables persistence. */
+    @Nullable
+    protected ConnectionStore connectionStore;
+
+    /** Delay sending of posted messages to accumulate several messages in one frame. 0 sends immediately. */
+    protected int lingerMillis = 0;
+
+    /** Send accumulated messages before linger period if their number reaches this limit */
+    protected int maxBatchMessages = 100;
+
+    /** Send accumulated messages before linger period if their size reaches this limit */
+    protected int maxBatchBytes = 64 * 1024;
+
+    /** Prepended to generated connection ids, e.g. to identify the owning cluster node */
+    protected String connectionIdPrefix = "";
 
     protected MessageSerializer messageSerializer;
 
-    protected Timer timer = new Timer("polling-cleaner", true);
+    /** Serializer of binary frame messages, UTF-8 of messageSerializer by default */
+    protected ByteMessageSerializer byteMessageSerializer;
+
+    /** Connection expiry and delayed flushes */
+    protected HashedWheelTimer timer = HashedWheelTimer.getShared();
+
+    /** Runs handler callbacks with per-connection order, in the transport thread by default */
+    protected Dispatcher dispatcher = Dispatcher.direct();
+
+    /** Counters of connector internals */
+    protected ConnectorMetrics metrics = new DefaultConnectorMetrics();
+
+    /** Message lifecycle hooks, see {@link #addListener(ConnectorListener)} */
+    protected final ConnectorListenerChain listeners = new ConnectorListenerChain();
+
+    /** Transport name of flight recorder events */
+    private final static String TRANSPORT = "websocket";
 
     private final static String SERVER_HEARTBEAT_ACK = "HA";
     private final static String SERVER_NEW_CONN = "N";
@@ -115,11 +154,16 @@ public abstract class AbstractSocketServerConnector implements ServerConnector
 
 
 	/** ConnectionId -> Connection */
-	private ConcurrentHashMap<String,Connection> connections = new ConcurrentHashMap<String, Connection>();
+	private final ConcurrentHashMap<String,Connection> connections = new ConcurrentHashMap<String, Connection>();
+	/** Queue limits, outbound budget and writability watermarks */
+	protected final QueueAccounting<Connection> queueAccounting = new QueueAccounting<>(connections.values(), this::evict);
+	/** Topic subscriptions of open connections */
+	private final SubscriptionRegistry<Connection> subscriptions = new SubscriptionRegistry<>();
+	/** Serializes restoring of connections from the store */
+	private final Object restoreLock = new Object();
 
 
-	protected static class Connection {
-		public String connId;
+	protected static class Connection extends QueuedConnection {
         public int receivedCounter;
         public volatile long lastUsedTimestamp = System.nanoTime();
         public boolean closing;
@@ -127,59 +171,41 @@ public abstract class AbstractSocketServerConnector implements ServerConnector
         @Nullable
         public HttpSession session;
 
-		/** Serialized messages pending to send */
-		public List<String> queue = new ArrayList<>(20);
-        public long sentCounter;
+        /** Pending write of accumulated messages */
+        @Nullable
+        public HashedWheelTimer.Timeout flushTask;
+        /** Next check of connection inactivity */
+        @Nullable
+        public HashedWheelTimer.Timeout expiryTask;
         /** Represents physical connection */
         public WeakReference<Object> connection;
-    }
-	
+        /** Client sends binary frames, reply in the same mode */
+        public boolean binary;
 
-    public AbstractSocketServerConnector() {
-        timer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                try {
-                    long timestamp = System.nanoTime();
-                    List<Connection> connectionsCloned = new ArrayList<Connection>(connections.values());
-                    for (Connection conn : connectionsCloned) {
-                        if (TimeUnit.MILLISECONDS.convert(
-                                timestamp - conn.lastUsedTimestamp,
-                                TimeUnit.NANOSECONDS) > connectionTimeout) {
-                            synchronized (conn) {
-                                closeConnection(conn);
-                            }
-                        }
-                        else if (TimeUnit.MILLISECONDS.convert(
-                                timestamp - conn.lastUsedTimestamp,
-                                TimeUnit.NANOSECONDS) > heartbeatInterval + 10000) {
-                            // close underlying connection for connections that exceeds their
-                            // heartbeat interval
-                            synchronized (conn) {
-                                if (conn.connection != null)
-                                    socketClose(conn.connection.get());
-                            }
-                        }
-                    }
-                } catch (Exception e) {
-                    log.error("WTF!", e);
-                }
-            }
-        }, 30000, 10000);
+        public Connection() {
+            super(32);
+        }
     }
-
+	
 
 	protected String createConnectionId() {
 		//return Long.toString(connIdCount.incrementAndGet());
         String uuid;
         do {
-            uuid = UUID.randomUUID().toString();
+            uuid = connectionIdPrefix + UUID.randomUUID().toString();
         } while (connections.containsKey(uuid));
         return uuid;
     }
 
 
     protected abstract void socketSend(@Nullable Object connection, @Nonnull String text);
+
+    /**
+     * Send binary frame. Called only for connections created or served by
+     * {@link #service(Object, byte[], int, int)}.
+     */
+    protected abstract void socketSend(@Nullable Object connection, @Nonnull byte[] data, int offset, int length);
+
     protected abstract void socketClose(@Nullable Object connection);
 
 
@@ -190,164 +216,245 @@ public abstract class AbstractSocketServerConnector implements ServerConnector
      */
 	public void service(@Nonnull Object connection, @Nonnull String messageText)
     {
-        String[] lines = messageText.split("\\r?\\n");
-        if (lines.length == 0) {
+        service(connection, new TextFrameReader(messageText), false, messageText.length());
+    }
+
+
+    /**
+     * Called by subsystem to serve binary frame. Connection replies with binary frames
+     * while client sends them.
+     * @param connection underlying physical connection object
+     */
+    public void service(@Nonnull Object connection, @Nonnull byte[] data, int offset, int length)
+    {
+        service(connection, new BinaryFrameReader(data, offset, length), true, length);
+    }
+
+
+    private void service(@Nonnull Object connection, @Nonnull FrameReader frame, boolean binary, int frameSize)
+    {
+        metrics.received(0, frameSize);
+        @Nullable Object readEvent = ChannelEvents.beginFrameRead();
+        if (!frame.hasNext()) {
             log.warn("Protocol mismatch (empty message)");
+            ChannelEvents.protocolMismatch(TRANSPORT, null, "empty frame");
+            socketClose(connection);
+            return;
+        }
+        String cmd;
+        String connId;
+        try {
+            cmd = frame.nextString();
+            connId = CLIENT_NEW_CONN.equals(cmd) || !frame.hasNext() ? null : frame.nextString();
+        } catch (Exception ex) {
+            log.warn("Protocol mismatch (malformed frame)", ex);
+            ChannelEvents.protocolMismatch(TRANSPORT, null, "malformed frame");
+            socketClose(connection);
+            return;
+        }
+
+        if (binary ? byteMessageSerializer == null : messageSerializer == null) {
+            log.warn("No serializer for {} frames", binary ? "binary" : "text");
             socketClose(connection);
             return;
         }
-        int iLine = 0;
-        String cmd = lines[iLine++];
 
         if (CLIENT_NEW_CONN.equals(cmd)) {
-            createConnection(connection);
+            createConnection(connection, binary);
         }
         else {
 			/*
 			 * poll request
 			 */
-            if (lines.length == 1) {
+            if (connId == null) {
                 log.warn("Protocol mismatch (no connId), cmd={}", cmd);
+                ChannelEvents.protocolMismatch(TRANSPORT, null, "no connection id");
                 socketClose(connection);
                 return;
             }
-            final String connId = lines[iLine++];
 			Connection conn = connections.get(connId);
+			// connection created before restart
+			if (conn == null && connectionStore != null)
+			    conn = restoreConnection(connId, connection, binary);
 
 			// expired connection - disconnect
 			if (conn == null) {
-                socketSend(connection, SERVER_CLOSED+ "\n" + "Expired");
+                sendFrame(connection, newFrame(binary).writeString(SERVER_CLOSED).writeString("Expired"));
                 socketClose(connection);
                 return;
 			}
 
             List<Object> msgs = new ArrayList<>();
+            boolean writableChanged = false;
+            // closed while holding the monitor, reported after releasing it
+            boolean disconnected = false;
+
+            try {
+                synchronized (conn) {
+                    // double check if was removed by other thread
+                    if (!connections.containsKey(connId)) {
+                        // connection was already removed in other thread
+                        sendFrame(connection, newFrame(binary).writeString(SERVER_CLOSED).writeString("Expired"));
+                        socketClose(connection);
+                        return;
+                    }
 
-            synchronized (conn) {
-                // double check if was removed by other thread
-                if (!connections.containsKey(connId)) {
-                    // connection was already removed in other thread
-                    socketSend(connection, SERVER_CLOSED+ "\n" + "Expired");
-                    socketClose(connection);
-                    return;
-                }
-
-                @Nullable Object physicalConnection = conn.connection != null ? conn.connection.get() : null;
+                    @Nullable Object physicalConnection = conn.connection != null ? conn.connection.get() : null;
 
-                // a new connection was requested (reconnect)... terminate an old one
-                if (physicalConnection != connection) {
-                    if (physicalConnection != null) {
-                        //socketSend(physicalConnection, SERVER_CLOSED + "\n" + "Reconnected");
-                        socketClose(physicalConnection);
+                    // a new connection was requested (reconnect)... terminate an old one
+                    if (physicalConnection != connection) {
+                        if (physicalConnection != null) {
+                            //socketSend(physicalConnection, SERVER_CLOSED + "\n" + "Reconnected");
+                            socketClose(physicalConnection);
+                        }
+                        conn.connection = new WeakReference<>(connection);
+                        physicalConnection = connection;
                     }
-                    conn.connection = new WeakReference<>(connection);
-                    physicalConnection = connection;
-                }
+                    conn.binary = binary;
 
-                // session expired - disconnect
-                /*if (createSession && req.getSession(false) == null) {
-                    log.warn("Session expired for connection: {}", connId);
-                    closeConnection(conn, req, resp);
-                    onDisconnected(this, connId);
-                    return;
-                }
-                */
-
-                if (CLIENT_CLOSE.equals(cmd)) {
-                    // close request from client
-                    socketSend(physicalConnection, SERVER_CLOSED + "\n" + "Closed");
-                    closeConnection(conn);
-                    return;
-                } else if (CLIENT_CLOSING_ACK.equals(cmd)) {
-                    // closing ACK from client
-                    if (conn.closing) {
-                        closeConnection(conn);
-                    } else {
-                        log.warn("Protocol mismatch (closing state required)");
-                        closeConnection(conn);
+                    // session expired - disconnect
+                    /*if (createSession && req.getSession(false) == null) {
+                        log.warn("Session expired for connection: {}", connId);
+                        closeConnection(conn, req, resp);
+                        onDisconnected(this, connId);
+                        return;
                     }
-                    return;
-                }
-
-                conn.lastUsedTimestamp = System.nanoTime();
-
-                try {
-                    long msgNumberReceivedFromServer = Long.parseLong(lines[iLine++]);
+                    */
 
-                    if (CLIENT_HEARTBEAT.equals(cmd)) {
-                        // client heartbeat
-                        if (!conn.closing) {
-                            StringBuilder out = new StringBuilder()
-                                    .append(SERVER_HEARTBEAT_ACK).append('\n')
-                                    .append(conn.receivedCounter).append('\n');
-                            socketSend(physicalConnection, out.toString());
+                    if (CLIENT_CLOSE.equals(cmd)) {
+                        // close request from client
+                        sendFrame(physicalConnection, newFrame(binary).writeString(SERVER_CLOSED).writeString("Closed"));
+                        closeConnection(conn, ConnectorMetrics.DisconnectCause.CLIENT_CLOSE);
+                        disconnected = true;
+                        return;
+                    } else if (CLIENT_CLOSING_ACK.equals(cmd)) {
+                        // closing ACK from client
+                        if (conn.closing) {
+                            closeConnection(conn, ConnectorMetrics.DisconnectCause.SERVER_CLOSE);
+                        } else {
+                            log.warn("Protocol mismatch (closing state required)");
+                            ChannelEvents.protocolMismatch(TRANSPORT, connId, "closing state required");
+                            closeConnection(conn, ConnectorMetrics.DisconnectCause.PROTOCOL_MISMATCH);
                         }
+                        disconnected = true;
                         return;
                     }
 
-                    long firstMessageNumberOffset = Long.parseLong(lines[iLine++]);
+                    conn.lastUsedTimestamp = System.nanoTime();
 
-                    // read and process messages
-                    for (long readMsgNumber = firstMessageNumberOffset; iLine < lines.length; readMsgNumber++) {
-                        String msg = lines[iLine++];
+                    try {
+                        long msgNumberReceivedFromServer = frame.nextLong();
 
-                        // discard duplicates
-                        if (readMsgNumber < conn.receivedCounter)
-                            continue;
-
-                        Object  message = messageSerializer.fromString(msg);
-                        msgs.add(message);
-                        conn.receivedCounter++;
-                    }
+                        if (CLIENT_HEARTBEAT.equals(cmd)) {
+                            // client heartbeat
+                            if (!conn.closing) {
+                                sendFrame(physicalConnection, newFrame(binary)
+                                        .writeString(SERVER_HEARTBEAT_ACK)
+                                        .writeLong(conn.receivedCounter));
+                            }
+                            return;
+                        }
 
-                    // we use synchronization here to send synchronous responses in the same HttpResponse
-                    // protocol mismatch - older events were removed
-                    if (msgNumberReceivedFromServer < conn.sentCounter) {
-                        log.warn("Protocol mismatch, connection: {}", connId);
-                        closeConnection(conn);
-                        return;
-                    }
+                        long firstMessageNumberOffset = frame.nextLong();
+                        int receivedCounter = conn.receivedCounter;
+                        long firstSequence = conn.queue.getFirstSequence();
 
-                    // removing messages from queue confirmed by client
-                    while (conn.sentCounter < msgNumberReceivedFromServer) {
-                        conn.queue.remove(0);
-                        conn.sentCounter++;
-                    }
+                        // read and process messages
+                        for (long readMsgNumber = firstMessageNumberOffset; frame.hasNext(); readMsgNumber++) {
+                            // discard duplicates
+                            if (readMsgNumber < conn.receivedCounter) {
+                                frame.skip();
+                                continue;
+                            }
 
-                    if (CLIENT_SEND.equals(cmd)) {
-                        // simple send
-                    } else if (CLIENT_RETRY_CONN.equals(cmd)) {
-                        // reconnect-retry
-                        StringBuilder out = new StringBuilder()
-                                .append(SERVER_SEND).append('\n')
-                                .append(conn.receivedCounter).append('\n')
-                                .append(conn.sentCounter).append('\n');
-
-                        for (String msg : conn.queue) {
-                            out.append(msg).append('\n');
+                            Object  message = binary
+                                    ? ((BinaryFrameReader) frame).nextMessage(byteMessageSerializer)
+                                    : messageSerializer.fromString(frame.nextSlice());
+                            msgs.add(message);
+                            if (!listeners.isEmpty())
+                                listeners.received(this, connId, message);
+                            conn.receivedCounter++;
+                        }
+                        if (!msgs.isEmpty())
+                            metrics.received(msgs.size(), 0);
+                        ChannelEvents.endFrameRead(readEvent, TRANSPORT, connId, frameSize, msgs.size());
+
+                        // we use synchronization here to send synchronous responses in the same HttpResponse
+                        // protocol mismatch - older events were removed or confirmed events were never sent
+                        if (msgNumberReceivedFromServer < conn.queue.getFirstSequence()
+                                || msgNumberReceivedFromServer > conn.queue.getNextSequence()) {
+                            log.warn("Protocol mismatch, connection: {}", connId);
+                            ChannelEvents.protocolMismatch(TRANSPORT, connId, "counters");
+                            closeConnection(conn, ConnectorMetrics.DisconnectCause.PROTOCOL_MISMATCH);
+                            disconnected = true;
+                            return;
                         }
-                        socketSend(physicalConnection, out.toString());
 
-                        if (conn.closing) {
-                            socketSend(physicalConnection, SERVER_CLOSING + "\n" + "Close");
+                        // removing messages from queue confirmed by client
+                        acknowledge(conn, msgNumberReceivedFromServer);
+                        writableChanged = queueAccounting.updateWritable(conn);
+                        if (connectionStore != null
+                                && (receivedCounter != conn.receivedCounter || firstSequence != conn.queue.getFirstSequence()))
+                            connectionStore.acknowledged(connId, conn.queue.getFirstSequence(), conn.receivedCounter);
+
+                        if (CLIENT_SEND.equals(cmd)) {
+                            // simple send
+                        } else if (CLIENT_RETRY_CONN.equals(cmd)) {
+                            // reconnect-retry: resend the whole queue, including accumulated messages
+                            cancelFlush(conn);
+                            long resent = Math.min(conn.flushedSequence, conn.queue.getNextSequence()) - conn.queue.getFirstSequence();
+                            if (resent > 0)
+                                metrics.retransmitted((int) resent);
+                            long unwritten = Math.max(conn.flushedSequence, conn.queue.getFirstSequence());
+                            conn.flushedSequence = conn.queue.getNextSequence();
+                            conn.unflushedBytes = 0;
+                            FrameWriter out = newFrame(binary)
+                                    .writeString(SERVER_SEND)
+                                    .writeLong(conn.receivedCounter)
+                                    .writeLong(conn.queue.getFirstSequence());
+
+                            for (Object msg : conn.queue) {
+                                out.writeMessage(queueAccounting.load(msg));
+                            }
+                            int bytes = sendFrame(physicalConnection, connId, out, conn.queue.size());
+                            if (!listeners.isEmpty()) {
+                                if (resent > 0)
+                                    listeners.retransmitted(this, connId, conn.queue.getFirstSequence(), unwritten);
+                                if (unwritten < conn.queue.getNextSequence())
+                                    listeners.written(this, connId, unwritten, conn.queue.getNextSequence(), bytes);
+                            }
+
+                            if (conn.closing) {
+                                sendFrame(physicalConnection, newFrame(binary).writeString(SERVER_CLOSING).writeString("Close"));
+                                return;
+                            }
+                        } else {
+                            log.warn("Protocol mismatch (invalid command): {}", cmd);
+                            ChannelEvents.protocolMismatch(TRANSPORT, connId, "invalid command");
+                            closeConnection(conn, ConnectorMetrics.DisconnectCause.PROTOCOL_MISMATCH);
+                            disconnected = true;
                             return;
                         }
-                    } else {
-                        log.warn("Protocol mismatch (invalid command): {}", cmd);
-                        closeConnection(conn);
+                    } catch (Exception ex) {
+                        log.warn("Protocol mismatch", ex);
+                        ChannelEvents.protocolMismatch(TRANSPORT, connId, "malformed messages");
+                        closeConnection(conn, ConnectorMetrics.DisconnectCause.PROTOCOL_MISMATCH);
+                        disconnected = true;
                         return;
                     }
-                } catch (Exception ex) {
-                    log.warn("Protocol mismatch", ex);
-                    closeConnection(conn);
-                    return;
-                }
 
-                if (conn.closing)
-                    // do not process messages when closing connection
-                    return;
+                    if (conn.closing)
+                        // do not process messages when closing connection
+                        return;
+                }
+            } finally {
+                if (disconnected)
+                    onDisconnected(this, connId);
             }
 
+            if (writableChanged)
+                onWritabilityChanged(this, connId, true);
+
             // process messages
             for (Object msg : msgs) {
                 onMessage(this, connId, msg);
@@ -360,39 +467,175 @@ public abstract class AbstractSocketServerConnector implements ServerConnector
      * New connection request
      */
     protected void createConnection(@Nonnull Object connection) {
+        createConnection(connection, false);
+    }
+
+
+    /**
+     * @param binary reply with binary frames
+     */
+    protected void createConnection(@Nonnull Object connection, boolean binary) {
         Connection conn = new Connection();
         String connId = createConnectionId();
         conn.connId = connId;
         conn.connection = new WeakReference<Object>(connection);
+        conn.binary = binary;
 
+        if (connectionStore != null)
+            connectionStore.created(connId);
         connections.put(connId, conn);
 
         try {
-            StringBuilder out = new StringBuilder()
-                    .append(SERVER_NEW_CONN).append('\n')
-                    .append(connId).append('\n')
-                    .append(heartbeatInterval).append('\n')
-                    .append(connectionTimeout);
-            socketSend(connection, out.toString());
+            sendFrame(connection, newFrame(binary)
+                    .writeString(SERVER_NEW_CONN)
+                    .writeString(connId)
+                    .writeLong(heartbeatInterval)
+                    .writeLong(connectionTimeout));
         } catch (Exception ex) {
             log.error("Connection error while creating connection: {}", connId, ex);
             connections.remove(connId);
+            if (connectionStore != null)
+                connectionStore.removed(connId);
             return;
         }
 
+        metrics.connected();
+        ChannelEvents.connected(TRANSPORT, connId);
+        scheduleExpiry(conn, Math.min(heartbeatInterval + 10000, connectionTimeout));
+        onConnected(this, connId);
+    }
+
+
+    /**
+     * Recreate connection from the connection store, client resumes it with reconnect-retry
+     * @return null if the store does not have the connection
+     */
+    private @Nullable Connection restoreConnection(@Nonnull String connId, @Nonnull Object connection, boolean binary) {
+        Connection conn;
+        synchronized (restoreLock) {
+            conn = connections.get(connId);
+            if (conn != null)
+                return conn;
+            @Nullable StoredConnection stored = connectionStore.restore(connId);
+            if (stored == null)
+                return null;
+
+            conn = new Connection();
+            conn.connId = connId;
+            conn.connection = new WeakReference<Object>(connection);
+            conn.binary = binary;
+            conn.receivedCounter = (int) stored.getReceivedCounter();
+            conn.queue.setFirstSequence(stored.getFirstSequence());
+            for (Object msg : stored.getMessages())
+                conn.queue.add(msg);
+            // everything is resent by reconnect-retry
+            conn.flushedSequence = conn.queue.getNextSequence();
+            queueAccounting.restored(conn);
+            connections.put(connId, conn);
+        }
+
+        log.info("Connection restored: {}, {} message(s) pending", connId, conn.queue.size());
+        metrics.connected();
+        ChannelEvents.connected(TRANSPORT, connId);
+        scheduleExpiry(conn, Math.min(heartbeatInterval + 10000, connectionTimeout));
         onConnected(this, connId);
+        return conn;
+    }
+
+
+    /**
+     * Check connection inactivity after the delay. Activity does not reschedule the check:
+     * when it runs it only reschedules itself for the new deadline.
+     */
+    private void scheduleExpiry(@Nonnull final Connection conn, long delayMillis) {
+        conn.expiryTask = timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                checkExpiry(conn);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+
+    private void checkExpiry(@Nonnull Connection conn) {
+        synchronized (conn) {
+            if (connections.get(conn.connId) != conn)
+                return;
+
+            long idle = TimeUnit.MILLISECONDS.convert(
+                    System.nanoTime() - conn.lastUsedTimestamp,
+                    TimeUnit.NANOSECONDS);
+            long heartbeatTimeout = heartbeatInterval + 10000;
+            if (idle <= connectionTimeout) {
+                if (idle > heartbeatTimeout) {
+                    // close underlying connection for connections that exceeds their
+                    // heartbeat interval
+                    if (conn.connection != null)
+                        socketClose(conn.connection.get());
+                    scheduleExpiry(conn, connectionTimeout - idle + 1);
+                } else {
+                    scheduleExpiry(conn, Math.min(heartbeatTimeout, connectionTimeout) - idle + 1);
+                }
+                return;
+            }
+            closeConnection(conn, ConnectorMetrics.DisconnectCause.TIMEOUT);
+        }
+        onDisconnected(this, conn.connId);
     }
 
 
+    /**
+     * Close connection on behalf of the server, reported as {@link ConnectorMetrics.DisconnectCause#SERVER_CLOSE}.
+     * Must be called without holding connection monitor: the handler is notified in the calling thread by default.
+     */
     protected void closeConnection(@Nonnull Connection conn)
     {
-        connections.remove(conn.connId);
+        synchronized (conn) {
+            if (conn.closed)
+                return;
+            closeConnection(conn, ConnectorMetrics.DisconnectCause.SERVER_CLOSE);
+        }
         onDisconnected(this, conn.connId);
+    }
+
+    /**
+     * Remove connection and release its messages. Must be called holding connection monitor,
+     * the caller reports {@link #onDisconnected} after releasing it.
+     */
+    protected void closeConnection(@Nonnull Connection conn, @Nonnull ConnectorMetrics.DisconnectCause cause)
+    {
+        connections.remove(conn.connId);
+        conn.closed = true;
+        metrics.disconnected(cause);
+        ChannelEvents.disconnected(TRANSPORT, conn.connId, cause, conn.queue.size());
+        if (!listeners.isEmpty() && !conn.queue.isEmpty())
+            listeners.dropped(this, conn.connId, conn.queue.getFirstSequence(), conn.queue.getNextSequence());
+        if (connectionStore != null)
+            connectionStore.removed(conn.connId);
+        queueAccounting.release(conn);
+        cancelFlush(conn);
+        if (conn.expiryTask != null)
+            conn.expiryTask.cancel();
+        subscriptions.unsubscribeAll(conn);
         @Nullable Object physicalConnection = conn.connection != null ? conn.connection.get() : null;
         socketClose(physicalConnection);
     }
 
 
+    /** Close connection whose client sends faster than the handler processes */
+    private void closeOverflowed(@Nonnull String connectionId) {
+        Connection conn = connections.get(connectionId);
+        if (conn == null)
+            return;
+        synchronized (conn) {
+            if (conn.closed)
+                return;
+            closeConnection(conn, ConnectorMetrics.DisconnectCause.MAILBOX_FULL);
+        }
+        onDisconnected(this, connectionId);
+    }
+
+
     @Override
 	public void terminate( String connectionId )
 	{
@@ -401,44 +644,288 @@ public abstract class AbstractSocketServerConnector implements ServerConnector
 		if ( conn != null ) {
             synchronized (conn) {
                 @Nullable Object physicalConnection = conn.connection != null ? conn.connection.get() : null;
+                // send accumulated messages before closing request
+                flush(conn);
                 conn.closing = true;
-                socketSend(physicalConnection, SERVER_CLOSING + '\n');
+                sendFrame(physicalConnection, newFrame(conn.binary).writeString(SERVER_CLOSING));
             }
         }
 	}
 
 	
 	@Override
-	public synchronized void post(String connectionId, Object message) {
+	public void post(String connectionId, Object message) {
         Connection conn = connections.get(connectionId);
 		
 		if ( conn != null ) {
-            // TODO: implement here a delay before sending message to accumulate several
-            // messages in one response
-			synchronized (conn) {
-                if (conn.closing)
-                    return;
-
-                if (conn.queue.size() >= maxQueueLength) {
-                    log.warn("Queue is full, connId={}", conn.connId);
-                    closeConnection(conn);
-                    onDisconnected(this, conn.connId);
-                    return;
-                }
+            // serialize outside of any lock: posts to different connections do not contend
+            enqueue(conn, encode(message, conn.binary));
+		}
+	}
 
-                String messageText = messageSerializer.toString(message);
-                conn.queue.add(messageText);
 
-                @Nullable Object physicalConnection = conn.connection != null ? conn.connection.get() : null;
-                StringBuilder out = new StringBuilder()
-                        .append(SERVER_SEND).append('\n')
-                        .append(conn.receivedCounter).append('\n')
-                        .append(conn.sentCounter + conn.queue.size()-1).append('\n');
-                out.append(messageText).append('\n');
-                socketSend(physicalConnection, out.toString());
+    @Override
+    public void post(Collection<String> connectionIds, Object message) {
+        // serialized once per frame type, the same encoded message is queued for every connection
+        EncodedMessage encoded = new EncodedMessage(message);
+        for (String connectionId : connectionIds) {
+            Connection conn = connections.get(connectionId);
+            if (conn != null)
+                enqueue(conn, encoded.get(conn.binary));
+        }
+    }
+
+
+    @Override
+    public void broadcast(Object message) {
+        if (connections.isEmpty())
+            return;
+        EncodedMessage encoded = new EncodedMessage(message);
+        for (Connection conn : connections.values())
+            enqueue(conn, encoded.get(conn.binary));
+    }
+
+
+    @Override
+    public void subscribe(String connectionId, String topic) {
+        Connection conn = connections.get(connectionId);
+        if (conn != null) {
+            subscriptions.subscribe(conn, topic);
+            // connection was closed concurrently and its subscriptions may be already removed
+            if (connections.get(connectionId) != conn)
+                subscriptions.unsubscribeAll(conn);
+        }
+    }
+
+
+    @Override
+    public void unsubscribe(String connectionId, String topic) {
+        Connection conn = connections.get(connectionId);
+        if (conn != null)
+            subscriptions.unsubscribe(conn, topic);
+    }
+
+
+    @Override
+    public void publish(String topic, Object message) {
+        Set<Connection> subscribers = subscriptions.getSubscribers(topic);
+        if (subscribers.isEmpty())
+            return;
+        EncodedMessage encoded = new EncodedMessage(message);
+        for (Connection conn : subscribers)
+            enqueue(conn, encoded.get(conn.binary));
+    }
+
+
+    /** Serialize message for text or binary frames */
+    private @Nonnull Object encode(@Nullable Object message, boolean binary) {
+        return binary ? byteMessageSerializer.toBytes(message) : messageSerializer.toString(message);
+    }
+
+    /**
+     * Message serialized on demand, at most once for text and once for binary frames
+     */
+    private final class EncodedMessage {
+        private final Object message;
+        @Nullable private Object text;
+        @Nullable private Object bytes;
+
+        EncodedMessage(@Nullable Object message) {
+            this.message = message;
+        }
+
+        @Nonnull Object get(boolean binary) {
+            if (binary)
+                return bytes != null ? bytes : (bytes = encode(message, true));
+            return text != null ? text : (text = encode(message, false));
+        }
+    }
+
+    /**
+     * Append serialized message to connection queue and send it immediately or schedule sending.
+     * A message encoded as bytes may be written to a text frame if the client reconnected
+     * in text mode, so the byte serializer must produce UTF-8 text for such clients.
+     */
+    private void enqueue(@Nonnull Connection conn, @Nonnull Object encoded) {
+        int size = QueueAccounting.encodedSize(encoded);
+        if (!queueAccounting.reserve(conn, size))
+            return;
+
+        boolean writableChanged = false;
+        // closed while holding the monitor, reported after releasing it
+        boolean disconnected = false;
+        // connection monitor keeps frames of the same connection ordered
+        synchronized (conn) {
+            if (conn.closing || conn.closed) {
+                queueAccounting.unreserve(size);
+                return;
             }
-		}
-	}
+
+            if (queueAccounting.isFull(conn, size)) {
+                queueAccounting.unreserve(size);
+                log.warn("Queue is full, connId={}", conn.connId);
+                ChannelEvents.queueFull(TRANSPORT, conn.connId, conn.queue.size(), conn.queuedBytes);
+                closeConnection(conn, ConnectorMetrics.DisconnectCause.QUEUE_FULL);
+                disconnected = true;
+            } else {
+                writableChanged = append(conn, encoded, size);
+                if (!queueAccounting.spill(conn)) {
+                    log.warn("Spilled queue is full, connId={}", conn.connId);
+                    ChannelEvents.queueFull(TRANSPORT, conn.connId, conn.queue.size(), conn.queuedBytes + conn.spilledBytes);
+                    closeConnection(conn, ConnectorMetrics.DisconnectCause.QUEUE_FULL);
+                    disconnected = true;
+                }
+            }
+        }
+
+        // outside of the monitor: handler may post or check other connections
+        if (disconnected)
+            onDisconnected(this, conn.connId);
+        else if (writableChanged)
+            onWritabilityChanged(this, conn.connId, false);
+    }
+
+    /**
+     * Queue message whose budget was acquired, write it or schedule writing.
+     * Must be called holding connection monitor.
+     * @return true if writability changed
+     */
+    private boolean append(@Nonnull Connection conn, @Nonnull Object encoded, int size) {
+        long sequence = conn.queue.add(encoded, System.nanoTime());
+        metrics.queueDepth(conn.queue.size());
+        if (!listeners.isEmpty())
+            listeners.queued(this, conn.connId, sequence);
+        if (connectionStore != null) {
+            if (encoded instanceof byte[])
+                connectionStore.enqueued(conn.connId, sequence, (byte[]) encoded, false);
+            else
+                connectionStore.enqueued(conn.connId, sequence, Utf8.encode((String) encoded), true);
+        }
+        queueAccounting.queued(conn, size);
+        boolean writableChanged = queueAccounting.updateWritable(conn);
+
+        if (lingerMillis <= 0
+                || conn.queue.getNextSequence() - conn.flushedSequence >= maxBatchMessages
+                || conn.unflushedBytes >= maxBatchBytes) {
+            flush(conn);
+        } else if (conn.flushTask == null) {
+            final Connection c = conn;
+            conn.flushTask = timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        synchronized (c) {
+                            // skip if flushed and rescheduled meanwhile
+                            if (c.flushTask != null && c.flushTask.isExpired()) {
+                                c.flushTask = null;
+                                flush(c);
+                            }
+                        }
+                    } catch (Exception ex) {
+                        log.error("Error sending accumulated messages, connId={}", c.connId, ex);
+                    }
+                }
+            }, lingerMillis, TimeUnit.MILLISECONDS);
+        }
+        return writableChanged;
+    }
+
+    /** Close connection evicted from the outbound budget */
+    private void evict(@Nonnull Connection victim) {
+        synchronized (victim) {
+            if (victim.closed)
+                return;
+            closeConnection(victim, ConnectorMetrics.DisconnectCause.BUDGET_EVICTED);
+        }
+        onDisconnected(this, victim.connId);
+    }
+
+    /**
+     * Remove messages confirmed by client and release their memory.
+     * Must be called holding connection monitor.
+     */
+    private void acknowledge(@Nonnull Connection conn, long receivedCount) {
+        if (!listeners.isEmpty() && receivedCount > conn.queue.getFirstSequence())
+            listeners.acknowledged(this, conn.connId, conn.queue.getFirstSequence(), receivedCount);
+        queueAccounting.acknowledge(conn, receivedCount, metrics);
+    }
+
+
+
+    @Override
+    public boolean isWritable(String connectionId) {
+        Connection conn = connections.get(connectionId);
+        return conn != null && conn.writable;
+    }
+
+
+    /**
+     * Write queued messages that were not written yet in one frame.
+     * Must be called holding connection monitor.
+     */
+    protected void flush(@Nonnull Connection conn) {
+        cancelFlush(conn);
+        long from = Math.max(conn.flushedSequence, conn.queue.getFirstSequence());
+        if (from >= conn.queue.getNextSequence() || conn.closing)
+            return;
+
+        @Nullable Object physicalConnection = conn.connection != null ? conn.connection.get() : null;
+        FrameWriter out = newFrame(conn.binary, conn.unflushedBytes + 32)
+                .writeString(SERVER_SEND)
+                .writeLong(conn.receivedCounter)
+                .writeLong(from);
+        for (Iterator<Object> it = conn.queue.iterator(from); it.hasNext(); )
+            out.writeMessage(it.next());
+        int count = (int) (conn.queue.getNextSequence() - from);
+        conn.flushedSequence = conn.queue.getNextSequence();
+        conn.unflushedBytes = 0;
+        int bytes = sendFrame(physicalConnection, conn.connId, out, count);
+        if (!listeners.isEmpty())
+            listeners.written(this, conn.connId, from, conn.flushedSequence, bytes);
+    }
+
+
+    private static @Nonnull FrameWriter newFrame(boolean binary) {
+        return newFrame(binary, 64);
+    }
+
+    private static @Nonnull FrameWriter newFrame(boolean binary, int capacity) {
+        return binary ? new BinaryFrameWriter(capacity) : new TextFrameWriter(capacity);
+    }
+
+    private void sendFrame(@Nullable Object connection, @Nonnull FrameWriter frame) {
+        sendFrame(connection, null, frame, 0);
+    }
+
+    /**
+     * @param connId null for frames not related to a connection
+     * @param messages number of messages in the frame
+     * @return frame size
+     */
+    private int sendFrame(@Nullable Object connection, @Nullable String connId, @Nonnull FrameWriter frame, int messages) {
+        @Nullable Object writeEvent = ChannelEvents.beginFrameWrite();
+        int size;
+        if (frame.isBinary()) {
+            BinaryFrameWriter binaryFrame = (BinaryFrameWriter) frame;
+            size = binaryFrame.size();
+            socketSend(connection, binaryFrame.getBuffer(), 0, size);
+        } else {
+            String text = frame.toString();
+            size = text.length();
+            socketSend(connection, text);
+        }
+        metrics.sent(messages, size);
+        ChannelEvents.endFrameWrite(writeEvent, TRANSPORT, connId, size, messages);
+        return size;
+    }
+
+
+    private void cancelFlush(@Nonnull Connection conn) {
+        if (conn.flushTask != null) {
+            conn.flushTask.cancel();
+            conn.flushTask = null;
+        }
+    }
 
 
 	protected ServerConnectorHandler handler;
@@ -453,23 +940,29 @@ public abstract class AbstractSocketServerConnector implements ServerConnector
 
 	@Override
 	public void onConnected(ServerConnector connector, String connectionId) {
-		if ( handler != null )
-			try {
-				handler.onConnected(connector, connectionId);
-			} catch ( Exception ex ) {
-				log.error("onConnected() error", ex);
-			}
+		final ServerConnectorHandler h = handler;
+		if ( h != null )
+			dispatcher.execute(connectionId, () -> {
+				try {
+					h.onConnected(connector, connectionId);
+				} catch ( Exception ex ) {
+					log.error("onConnected() error", ex);
+				}
+			});
 	}
 
 
 	@Override
 	public void onDisconnected(ServerConnector connector, String connectionId) {
-		if ( handler != null )
-			try {
-				handler.onDisconnected(connector, connectionId);
-			} catch ( Exception ex ) {
-				log.error("onDisconnected() error", ex);
-			}
+		final ServerConnectorHandler h = handler;
+		if ( h != null )
+			dispatcher.execute(connectionId, () -> {
+				try {
+					h.onDisconnected(connector, connectionId);
+				} catch ( Exception ex ) {
+					log.error("onDisconnected() error", ex);
+				}
+			});
 	}
 
 
@@ -477,14 +970,64 @@ public abstract class AbstractSocketServerConnector implements ServerConnector
 	public void onMessage(ServerConnector connector, String connectionId,
 			Object message)
 	{
-		if ( handler != null )
+		final ServerConnectorHandler h = handler;
+		if ( h == null )
+			return;
+		boolean accepted = dispatcher.offer(connectionId, () -> {
 			try {
-				handler.onMessage(connector, connectionId, message);
+				if ( !listeners.isEmpty() )
+					listeners.dispatched(connector, connectionId, message);
+				h.onMessage(connector, connectionId, message);
 			} catch ( Exception ex ) {
 				log.error("onMessage() error", ex);
 			}
+		});
+		if ( !accepted ) {
+			log.warn("Mailbox is full, connId={}", connectionId);
+			closeOverflowed(connectionId);
+		}
+	}
+
+
+	@Override
+	public void onWritabilityChanged(ServerConnector connector, String connectionId, boolean writable) {
+		final ServerConnectorHandler h = handler;
+		if ( h != null )
+			dispatcher.execute(connectionId, () -> {
+				try {
+					h.onWritabilityChanged(connector, connectionId, writable);
+				} catch ( Exception ex ) {
+					log.error("onWritabilityChanged() error", ex);
+				}
+			});
 	}
 
+    /** Add message lifecycle hook, listeners are called in the order they were added */
+    public void addListener(@Nonnull ConnectorListener listener) {
+        listeners.add(listener);
+    }
+
+    public boolean removeListener(@Nonnull ConnectorListener listener) {
+        return listeners.remove(listener);
+    }
+
+    public ConnectorMetrics getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(ConnectorMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public Dispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    /** Must be set before any connection is created */
+    public void setDispatcher(Dispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
     public int getHeartbeatInterval() {
         return heartbeatInterval;
     }
@@ -501,12 +1044,126 @@ public abstract class AbstractSocketServerConnector implements ServerConnector
         this.connectionTimeout = connectionTimeout;
     }
 
+    public QueueAccounting<?> getQueueAccounting() {
+        return queueAccounting;
+    }
+
     public int getMaxQueueLength() {
-        return maxQueueLength;
+        return queueAccounting.getMaxQueueLength();
     }
 
     public void setMaxQueueLength(int maxQueueLength) {
-        this.maxQueueLength = maxQueueLength;
+        queueAccounting.setMaxQueueLength(maxQueueLength);
+    }
+
+    public long getMaxQueueBytes() {
+        return queueAccounting.getMaxQueueBytes();
+    }
+
+    public void setMaxQueueBytes(long maxQueueBytes) {
+        queueAccounting.setMaxQueueBytes(maxQueueBytes);
+    }
+
+    public OutboundBudget getOutboundBudget() {
+        return queueAccounting.getOutboundBudget();
+    }
+
+    /** Must be set before any connection is created */
+    public void setOutboundBudget(OutboundBudget outboundBudget) {
+        queueAccounting.setOutboundBudget(outboundBudget);
+    }
+
+    public SpillStore getSpillStore() {
+        return queueAccounting.getSpillStore();
+    }
+
+    /** Enable spilling of queued messages to disk, must be set before any connection is created */
+    public void setSpillStore(SpillStore spillStore) {
+        queueAccounting.setSpillStore(spillStore);
+    }
+
+    public long getSpillThresholdBytes() {
+        return queueAccounting.getSpillThresholdBytes();
+    }
+
+    public void setSpillThresholdBytes(long spillThresholdBytes) {
+        queueAccounting.setSpillThresholdBytes(spillThresholdBytes);
+    }
+
+    public long getMaxSpilledBytes() {
+        return queueAccounting.getMaxSpilledBytes();
+    }
+
+    public void setMaxSpilledBytes(long maxSpilledBytes) {
+        queueAccounting.setMaxSpilledBytes(maxSpilledBytes);
+    }
+
+    public ConnectionStore getConnectionStore() {
+        return connectionStore;
+    }
+
+    /** Persist connection state, must be set before any connection is created */
+    public void setConnectionStore(ConnectionStore connectionStore) {
+        this.connectionStore = connectionStore;
+    }
+
+    /** Encoded size of messages queued by all connections of the budget */
+    public long getQueuedBytes() {
+        return queueAccounting.getOutboundBudget().getUsed();
+    }
+
+    /** Encoded size of messages queued for the connection, 0 if session does not exist */
+    public long getQueuedBytes(String connectionId) {
+        Connection conn = connections.get(connectionId);
+        return conn != null ? conn.queuedBytes : 0;
+    }
+
+    public int getHighWatermark() {
+        return queueAccounting.getHighWatermark();
+    }
+
+    public void setHighWatermark(int highWatermark) {
+        queueAccounting.setHighWatermark(highWatermark);
+    }
+
+    public int getLowWatermark() {
+        return queueAccounting.getLowWatermark();
+    }
+
+    public void setLowWatermark(int lowWatermark) {
+        queueAccounting.setLowWatermark(lowWatermark);
+    }
+
+    public int getLingerMillis() {
+        return lingerMillis;
+    }
+
+    public void setLingerMillis(int lingerMillis) {
+        this.lingerMillis = lingerMillis;
+    }
+
+    public int getMaxBatchMessages() {
+        return maxBatchMessages;
+    }
+
+    public void setMaxBatchMessages(int maxBatchMessages) {
+        this.maxBatchMessages = maxBatchMessages;
+    }
+
+    public int getMaxBatchBytes() {
+        return maxBatchBytes;
+    }
+
+    public void setMaxBatchBytes(int maxBatchBytes) {
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    public String getConnectionIdPrefix() {
+        return connectionIdPrefix;
+    }
+
+    public void setConnectionIdPrefix(String connectionIdPrefix) {
+        this.connectionIdPrefix = connectionIdPrefix;
     }
 
     public MessageSerializer getMessageSerializer() {
@@ -515,5 +1172,16 @@ public abstract class AbstractSocketServerConnector implements ServerConnector
 
     public void setMessageSerializer(MessageSerializer messageSerializer) {
         this.messageSerializer = messageSerializer;
+        if (byteMessageSerializer == null || byteMessageSerializer instanceof Utf8MessageSerializer)
+            byteMessageSerializer = messageSerializer != null ? new Utf8MessageSerializer(messageSerializer) : null;
+    }
+
+    public ByteMessageSerializer getByteMessageSerializer() {
+        return byteMessageSerializer;
+    }
+
+    /** Serializer of binary frame messages, replaces UTF-8 adapter of the message serializer */
+    public void setByteMessageSerializer(ByteMessageSerializer byteMessageSerializer) {
+        this.byteMessageSerializer = byteMessageSerializer;
     }
 }
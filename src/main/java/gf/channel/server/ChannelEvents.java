@@ -0,0 +1,83 @@
+package gf.channel.server;
+
+import gf.channel.server.jfr.JfrEvents;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Java Flight Recorder events of channel activity: connect, disconnect, frame read and write,
+ * queue-full closes and protocol mismatches. Recorded when the runtime has jdk.jfr (8u262+, 11+)
+ * and the events are enabled in a recording, e.g. -XX:StartFlightRecording; otherwise every call
+ * is a check of a constant. Set system property gf.channel.jfr=false to turn events off.
+ */
+public final class ChannelEvents {
+    /** JFR is available and events are not turned off */
+    public final static boolean ENABLED = isAvailable();
+
+    private ChannelEvents() {
+    }
+
+    private static boolean isAvailable() {
+        if ("false".equalsIgnoreCase(System.getProperty("gf.channel.jfr")))
+            return false;
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (Throwable ex) {
+            return false;
+        }
+    }
+
+    /** @param connectionId null for a client socket connected before the server assigned the id */
+    public static void connected(@Nonnull String transport, @Nullable String connectionId) {
+        if (ENABLED)
+            JfrEvents.connected(transport, connectionId);
+    }
+
+    /** @param queueLength messages not confirmed by client */
+    public static void disconnected(@Nonnull String transport, @Nonnull String connectionId,
+                                    @Nonnull ConnectorMetrics.DisconnectCause cause, int queueLength) {
+        if (ENABLED)
+            JfrEvents.disconnected(transport, connectionId, cause.name(), queueLength);
+    }
+
+    /** Disconnect seen by a client, connection id is null if it was not assigned yet */
+    public static void disconnected(@Nonnull String transport, @Nullable String connectionId,
+                                    @Nonnull String cause, int queueLength) {
+        if (ENABLED)
+            JfrEvents.disconnected(transport, connectionId, cause, queueLength);
+    }
+
+    /** @return token for {@link #endFrameRead}, null if not recorded */
+    public static @Nullable Object beginFrameRead() {
+        return ENABLED ? JfrEvents.beginFrameRead() : null;
+    }
+
+    public static void endFrameRead(@Nullable Object token, @Nonnull String transport, @Nullable String connectionId,
+                                    long bytes, int messages) {
+        if (token != null)
+            JfrEvents.endFrameRead(token, transport, connectionId, bytes, messages);
+    }
+
+    /** @return token for {@link #endFrameWrite}, null if not recorded */
+    public static @Nullable Object beginFrameWrite() {
+        return ENABLED ? JfrEvents.beginFrameWrite() : null;
+    }
+
+    public static void endFrameWrite(@Nullable Object token, @Nonnull String transport, @Nullable String connectionId,
+                                     long bytes, int messages) {
+        if (token != null)
+            JfrEvents.endFrameWrite(token, transport, connectionId, bytes, messages);
+    }
+
+    public static void queueFull(@Nonnull String transport, @Nonnull String connectionId, int queueLength, long queuedBytes) {
+        if (ENABLED)
+            JfrEvents.queueFull(transport, connectionId, queueLength, queuedBytes);
+    }
+
+    public static void protocolMismatch(@Nonnull String transport, @Nullable String connectionId, @Nonnull String reason) {
+        if (ENABLED)
+            JfrEvents.protocolMismatch(transport, connectionId, reason);
+    }
+}
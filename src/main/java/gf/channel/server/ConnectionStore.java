@@ -0,0 +1,39 @@
+package gf.channel.server;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.Closeable;
+
+/**
+ * Persistent state of connections: counters and messages not confirmed by client.
+ * Lets clients resume their connections after server restart instead of opening new ones.
+ *
+ * Connectors report every state change holding the connection monitor,
+ * so implementations must be thread safe and must not block for long.
+ */
+public interface ConnectionStore extends Closeable {
+    void created(@Nonnull String connId);
+
+    /**
+     * Message appended to connection queue
+     * @param text message was encoded by MessageSerializer, data is its UTF-8 form
+     */
+    void enqueued(@Nonnull String connId, long sequence, @Nonnull byte[] data, boolean text);
+
+    /**
+     * Client confirmed messages before firstSequence, server received receivedCounter messages from client
+     */
+    void acknowledged(@Nonnull String connId, long firstSequence, long receivedCounter);
+
+    void removed(@Nonnull String connId);
+
+    /**
+     * State of a connection unknown to this process (created before restart).
+     * The connection stays in the store, connector continues reporting its changes.
+     * @return null if connection does not exist
+     */
+    @Nullable StoredConnection restore(@Nonnull String connId);
+
+    @Override
+    void close();
+}
@@ -0,0 +1,38 @@
+package gf.channel.server;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Hooks called by server connectors at stages of message lifecycle, e.g. to attribute latency to stages
+ * or to plug in a tracer. Sequence ranges are [from, to) of outbound message sequence numbers.
+ *
+ * Called in transport threads holding the connection monitor (except {@link #dispatched}),
+ * implementations must be fast and must not call the connector back.
+ * @see ConnectorListenerChain
+ */
+public interface ConnectorListener {
+    /** Inbound message deserialized */
+    default void received(@Nonnull ServerConnector connector, @Nonnull String connectionId, Object message) {}
+
+    /** Inbound message is about to be passed to the handler, called in the dispatcher thread */
+    default void dispatched(@Nonnull ServerConnector connector, @Nonnull String connectionId, Object message) {}
+
+    /** Outbound message added to the connection queue */
+    default void queued(@Nonnull ServerConnector connector, @Nonnull String connectionId, long sequence) {}
+
+    /** Messages written to the client for the first time, in a frame or response of the given size */
+    default void written(@Nonnull ServerConnector connector, @Nonnull String connectionId,
+                         long fromSequence, long toSequence, int bytes) {}
+
+    /** Messages confirmed by client and removed from the queue */
+    default void acknowledged(@Nonnull ServerConnector connector, @Nonnull String connectionId,
+                              long fromSequence, long toSequence) {}
+
+    /** Messages written again because client did not confirm them */
+    default void retransmitted(@Nonnull ServerConnector connector, @Nonnull String connectionId,
+                               long fromSequence, long toSequence) {}
+
+    /** Messages not confirmed when the connection was closed */
+    default void dropped(@Nonnull ServerConnector connector, @Nonnull String connectionId,
+                         long fromSequence, long toSequence) {}
+}
@@ -0,0 +1,85 @@
+package gf.channel.server;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+
+/**
+ * Copy-on-write list of listeners called in the order they were added.
+ * Connectors check {@link #isEmpty()} before building arguments, so an empty chain costs a field read.
+ */
+public class ConnectorListenerChain implements ConnectorListener {
+    private final static ConnectorListener[] EMPTY = new ConnectorListener[0];
+
+    private volatile ConnectorListener[] listeners = EMPTY;
+
+    public synchronized void add(@Nonnull ConnectorListener listener) {
+        ConnectorListener[] grown = Arrays.copyOf(listeners, listeners.length + 1);
+        grown[listeners.length] = listener;
+        listeners = grown;
+    }
+
+    /** @return false if the listener was not added */
+    public synchronized boolean remove(@Nonnull ConnectorListener listener) {
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i] == listener) {
+                ConnectorListener[] shrunk = new ConnectorListener[listeners.length - 1];
+                System.arraycopy(listeners, 0, shrunk, 0, i);
+                System.arraycopy(listeners, i + 1, shrunk, i, shrunk.length - i);
+                listeners = shrunk;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean isEmpty() {
+        return listeners.length == 0;
+    }
+
+
+    @Override
+    public void received(@Nonnull ServerConnector connector, @Nonnull String connectionId, Object message) {
+        for (ConnectorListener listener : listeners)
+            listener.received(connector, connectionId, message);
+    }
+
+    @Override
+    public void dispatched(@Nonnull ServerConnector connector, @Nonnull String connectionId, Object message) {
+        for (ConnectorListener listener : listeners)
+            listener.dispatched(connector, connectionId, message);
+    }
+
+    @Override
+    public void queued(@Nonnull ServerConnector connector, @Nonnull String connectionId, long sequence) {
+        for (ConnectorListener listener : listeners)
+            listener.queued(connector, connectionId, sequence);
+    }
+
+    @Override
+    public void written(@Nonnull ServerConnector connector, @Nonnull String connectionId,
+                        long fromSequence, long toSequence, int bytes) {
+        for (ConnectorListener listener : listeners)
+            listener.written(connector, connectionId, fromSequence, toSequence, bytes);
+    }
+
+    @Override
+    public void acknowledged(@Nonnull ServerConnector connector, @Nonnull String connectionId,
+                             long fromSequence, long toSequence) {
+        for (ConnectorListener listener : listeners)
+            listener.acknowledged(connector, connectionId, fromSequence, toSequence);
+    }
+
+    @Override
+    public void retransmitted(@Nonnull ServerConnector connector, @Nonnull String connectionId,
+                              long fromSequence, long toSequence) {
+        for (ConnectorListener listener : listeners)
+            listener.retransmitted(connector, connectionId, fromSequence, toSequence);
+    }
+
+    @Override
+    public void dropped(@Nonnull ServerConnector connector, @Nonnull String connectionId,
+                        long fromSequence, long toSequence) {
+        for (ConnectorListener listener : listeners)
+            listener.dropped(connector, connectionId, fromSequence, toSequence);
+    }
+}
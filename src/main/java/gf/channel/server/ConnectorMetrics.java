@@ -0,0 +1,59 @@
+package gf.channel.server;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Counters of connector internals. Called on hot paths of transport threads,
+ * implementations must be cheap and thread safe (e.g. LongAdder).
+ * @see DefaultConnectorMetrics
+ */
+public interface ConnectorMetrics {
+    /** Why a connection was closed */
+    enum DisconnectCause {
+        /** Client closed the connection */
+        CLIENT_CLOSE,
+        /** Server terminated the connection and client acknowledged closing */
+        SERVER_CLOSE,
+        /** No requests from client during connection timeout, or session expired */
+        TIMEOUT,
+        /** Queue exceeded max length or max bytes */
+        QUEUE_FULL,
+        /** Closed to free the outbound budget */
+        BUDGET_EVICTED,
+        /** Client sent messages faster than the handler processed them */
+        MAILBOX_FULL,
+        /** Invalid frame, counters or command */
+        PROTOCOL_MISMATCH
+    }
+
+    /** Metrics that are not collected */
+    ConnectorMetrics NONE = new ConnectorMetrics() {
+        @Override public void connected() {}
+        @Override public void disconnected(@Nonnull DisconnectCause cause) {}
+        @Override public void received(int messages, long bytes) {}
+        @Override public void sent(int messages, long bytes) {}
+        @Override public void retransmitted(int messages) {}
+        @Override public void queueDepth(int depth) {}
+        @Override public void delivered(long latencyNanos) {}
+    };
+
+    /** New or restored connection */
+    void connected();
+
+    void disconnected(@Nonnull DisconnectCause cause);
+
+    /** Request or frame from client, bytes is its size including protocol headers */
+    void received(int messages, long bytes);
+
+    /** Response or frame to client, bytes is its size including protocol headers */
+    void sent(int messages, long bytes);
+
+    /** Messages sent again because client did not confirm them (reconnect-retry, repeated poll) */
+    void retransmitted(int messages);
+
+    /** Number of messages not confirmed by client, sampled when a message is queued */
+    void queueDepth(int depth);
+
+    /** Message confirmed by client, latency is the time from post() to the acknowledgement */
+    void delivered(long latencyNanos);
+}
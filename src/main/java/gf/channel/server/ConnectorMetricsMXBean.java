@@ -0,0 +1,54 @@
+package gf.channel.server;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link DefaultConnectorMetrics}
+ */
+public interface ConnectorMetricsMXBean {
+    long getActiveConnections();
+
+    long getConnects();
+
+    long getDisconnects();
+
+    /** Disconnects by {@link ConnectorMetrics.DisconnectCause} name */
+    Map<String, Long> getDisconnectsByCause();
+
+    long getQueueFullCloses();
+
+    long getProtocolMismatches();
+
+    long getMessagesReceived();
+
+    long getBytesReceived();
+
+    long getMessagesSent();
+
+    long getBytesSent();
+
+    long getRetransmittedMessages();
+
+    /**
+     * Queue depth distribution: element i counts samples with depth in [2^(i-1), 2^i), element 0 counts empty queues
+     */
+    long[] getQueueDepthHistogram();
+
+    /** Messages confirmed by client with known delivery latency */
+    long getDeliveredMessages();
+
+    /** Delivery latency (post to client acknowledgement) percentiles in microseconds */
+    long getDeliveryLatencyP50();
+
+    long getDeliveryLatencyP90();
+
+    long getDeliveryLatencyP99();
+
+    long getDeliveryLatencyP999();
+
+    long getDeliveryLatencyMax();
+
+    double getDeliveryLatencyMean();
+
+    void reset();
+}
@@ -0,0 +1,246 @@
+package gf.channel.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Connector metrics kept in LongAdder counters, readable over JMX.
+ * Counters are cumulative since creation or {@link #reset()}, active connections are not reset.
+ */
+public class DefaultConnectorMetrics implements ConnectorMetrics, ConnectorMetricsMXBean {
+    private final static Logger log = LoggerFactory.getLogger(DefaultConnectorMetrics.class);
+
+    /** JMX domain of registered metrics */
+    public final static String JMX_DOMAIN = "gf.channel";
+
+    private final LongAdder active = new LongAdder();
+    private final LongAdder connects = new LongAdder();
+    private final LongAdder[] disconnects = adders(DisconnectCause.values().length);
+    private final LongAdder messagesReceived = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder messagesSent = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder retransmitted = new LongAdder();
+    /** Bucket 0: empty queue, bucket i: depth in [2^(i-1), 2^i) */
+    private final LongAdder[] queueDepths = adders(33);
+    private final LatencyHistogram deliveryLatency = new LatencyHistogram();
+
+    @Nullable private ObjectName objectName;
+
+    private static @Nonnull LongAdder[] adders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++)
+            adders[i] = new LongAdder();
+        return adders;
+    }
+
+
+    @Override
+    public void connected() {
+        active.increment();
+        connects.increment();
+    }
+
+    @Override
+    public void disconnected(@Nonnull DisconnectCause cause) {
+        active.decrement();
+        disconnects[cause.ordinal()].increment();
+    }
+
+    @Override
+    public void received(int messages, long bytes) {
+        messagesReceived.add(messages);
+        bytesReceived.add(bytes);
+    }
+
+    @Override
+    public void sent(int messages, long bytes) {
+        messagesSent.add(messages);
+        bytesSent.add(bytes);
+    }
+
+    @Override
+    public void retransmitted(int messages) {
+        retransmitted.add(messages);
+    }
+
+    @Override
+    public void queueDepth(int depth) {
+        queueDepths[32 - Integer.numberOfLeadingZeros(Math.max(depth, 0))].increment();
+    }
+
+    @Override
+    public void delivered(long latencyNanos) {
+        deliveryLatency.record(TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+    }
+
+
+    @Override
+    public long getActiveConnections() {
+        return active.sum();
+    }
+
+    @Override
+    public long getConnects() {
+        return connects.sum();
+    }
+
+    @Override
+    public long getDisconnects() {
+        long sum = 0;
+        for (LongAdder adder : disconnects)
+            sum += adder.sum();
+        return sum;
+    }
+
+    public long getDisconnects(@Nonnull DisconnectCause cause) {
+        return disconnects[cause.ordinal()].sum();
+    }
+
+    @Override
+    public Map<String, Long> getDisconnectsByCause() {
+        Map<String, Long> map = new LinkedHashMap<>();
+        for (DisconnectCause cause : DisconnectCause.values())
+            map.put(cause.name(), disconnects[cause.ordinal()].sum());
+        return map;
+    }
+
+    @Override
+    public long getQueueFullCloses() {
+        return getDisconnects(DisconnectCause.QUEUE_FULL);
+    }
+
+    @Override
+    public long getProtocolMismatches() {
+        return getDisconnects(DisconnectCause.PROTOCOL_MISMATCH);
+    }
+
+    @Override
+    public long getMessagesReceived() {
+        return messagesReceived.sum();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    @Override
+    public long getMessagesSent() {
+        return messagesSent.sum();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    @Override
+    public long getRetransmittedMessages() {
+        return retransmitted.sum();
+    }
+
+    @Override
+    public long[] getQueueDepthHistogram() {
+        int length = queueDepths.length;
+        while (length > 1 && queueDepths[length - 1].sum() == 0)
+            length--;
+        long[] histogram = new long[length];
+        for (int i = 0; i < length; i++)
+            histogram[i] = queueDepths[i].sum();
+        return histogram;
+    }
+
+    public @Nonnull LatencyHistogram getDeliveryLatency() {
+        return deliveryLatency;
+    }
+
+    @Override
+    public long getDeliveredMessages() {
+        return deliveryLatency.getCount();
+    }
+
+    @Override
+    public long getDeliveryLatencyP50() {
+        return deliveryLatency.getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getDeliveryLatencyP90() {
+        return deliveryLatency.getValueAtPercentile(90);
+    }
+
+    @Override
+    public long getDeliveryLatencyP99() {
+        return deliveryLatency.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getDeliveryLatencyP999() {
+        return deliveryLatency.getValueAtPercentile(99.9);
+    }
+
+    @Override
+    public long getDeliveryLatencyMax() {
+        return deliveryLatency.getMax();
+    }
+
+    @Override
+    public double getDeliveryLatencyMean() {
+        return deliveryLatency.getMean();
+    }
+
+    @Override
+    public void reset() {
+        connects.reset();
+        for (LongAdder adder : disconnects)
+            adder.reset();
+        messagesReceived.reset();
+        bytesReceived.reset();
+        messagesSent.reset();
+        bytesSent.reset();
+        retransmitted.reset();
+        for (LongAdder adder : queueDepths)
+            adder.reset();
+        deliveryLatency.reset();
+    }
+
+
+    /**
+     * Register in the platform MBean server as gf.channel:type=ConnectorMetrics,name=&lt;name&gt;
+     * @return false if registration failed (e.g. name is already taken)
+     */
+    public synchronized boolean register(@Nonnull String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName on = new ObjectName(JMX_DOMAIN + ":type=ConnectorMetrics,name=" + ObjectName.quote(name));
+            server.registerMBean(this, on);
+            objectName = on;
+            return true;
+        } catch (Exception ex) {
+            log.warn("Failed to register connector metrics in JMX: {}", name, ex);
+            return false;
+        }
+    }
+
+    public synchronized void unregister() {
+        if (objectName == null)
+            return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (Exception ex) {
+            log.warn("Failed to unregister connector metrics: {}", objectName, ex);
+        }
+        objectName = null;
+    }
+}
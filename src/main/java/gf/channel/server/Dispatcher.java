@@ -0,0 +1,221 @@
+package gf.channel.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs handler callbacks of connections outside of transport threads.
+ *
+ * Every connection has a mailbox: its tasks run one at a time in the order they were dispatched,
+ * tasks of different connections run in parallel on the executor. A mailbox is removed when drained.
+ * A worker runs a limited number of tasks of one mailbox before resubmitting it, so a busy connection
+ * does not starve the others.
+ *
+ * {@link #direct()} runs tasks in the calling thread, as connectors did before dispatchers.
+ */
+public class Dispatcher {
+    private final static Logger log = LoggerFactory.getLogger(Dispatcher.class);
+
+    /** Tasks of one mailbox run by a worker before it is resubmitted */
+    private final static int THROUGHPUT = 32;
+
+    @Nullable private final Executor executor;
+    private final int mailboxCapacity;
+    private final ConcurrentHashMap<String, Mailbox> mailboxes = new ConcurrentHashMap<>();
+
+
+    /** Tasks run in the transport thread, mailboxes are not used */
+    public static @Nonnull Dispatcher direct() {
+        return new Dispatcher(null, Integer.MAX_VALUE);
+    }
+
+    public static @Nonnull Dispatcher fixedPool(int threads, int mailboxCapacity) {
+        return new Dispatcher(Executors.newFixedThreadPool(threads, threadFactory()), mailboxCapacity);
+    }
+
+    /** Work-stealing pool in FIFO mode */
+    public static @Nonnull Dispatcher forkJoin(int parallelism, int mailboxCapacity) {
+        return new Dispatcher(new ForkJoinPool(parallelism, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true),
+                mailboxCapacity);
+    }
+
+    /**
+     * New virtual thread per task on Java 21+, fork-join pool with one thread per processor on older runtimes
+     */
+    public static @Nonnull Dispatcher virtualThreads(int mailboxCapacity) {
+        ExecutorService executor = VirtualThreads.newExecutor("gwt-channel-dispatcher-");
+        if (executor != null)
+            return new Dispatcher(executor, mailboxCapacity);
+        log.info("Virtual threads are not supported by the runtime, using fork-join pool");
+        return forkJoin(Runtime.getRuntime().availableProcessors(), mailboxCapacity);
+    }
+
+    /**
+     * Create dispatcher by name: direct, fixed, forkjoin or virtual
+     * @param threads number of threads of fixed and fork-join pools
+     */
+    public static @Nonnull Dispatcher create(@Nonnull String type, int threads, int mailboxCapacity) {
+        switch (type.toLowerCase()) {
+            case "direct":
+                return direct();
+            case "fixed":
+                return fixedPool(threads, mailboxCapacity);
+            case "forkjoin":
+                return forkJoin(threads, mailboxCapacity);
+            case "virtual":
+                return virtualThreads(mailboxCapacity);
+            default:
+                throw new IllegalArgumentException("Unknown dispatcher: " + type);
+        }
+    }
+
+    private static @Nonnull ThreadFactory threadFactory() {
+        final AtomicInteger count = new AtomicInteger();
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(@Nonnull Runnable r) {
+                Thread thread = new Thread(r, "gwt-channel-dispatcher-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+
+    /**
+     * @param executor runs mailboxes, null runs tasks in the calling thread
+     * @param mailboxCapacity max number of messages waiting in a mailbox
+     */
+    public Dispatcher(@Nullable Executor executor, int mailboxCapacity) {
+        this.executor = executor;
+        this.mailboxCapacity = mailboxCapacity;
+    }
+
+
+    /**
+     * Dispatch connection lifecycle task, never rejected
+     */
+    public void execute(@Nonnull String connectionId, @Nonnull Runnable task) {
+        dispatch(connectionId, task, false);
+    }
+
+    /**
+     * Dispatch message task
+     * @return false if the mailbox of the connection is full, task is not queued
+     */
+    public boolean offer(@Nonnull String connectionId, @Nonnull Runnable task) {
+        return dispatch(connectionId, task, true);
+    }
+
+    private boolean dispatch(@Nonnull String connectionId, @Nonnull Runnable task, boolean bounded) {
+        if (executor == null) {
+            run(task);
+            return true;
+        }
+        for (;;) {
+            Mailbox mailbox = mailboxes.computeIfAbsent(connectionId, Mailbox::new);
+            synchronized (mailbox) {
+                // drained and removed meanwhile, take a new one
+                if (mailbox.removed)
+                    continue;
+                if (bounded && mailbox.messages >= mailboxCapacity)
+                    return false;
+                if (bounded) {
+                    mailbox.tasks.add(new Message(task));
+                    mailbox.messages++;
+                } else {
+                    mailbox.tasks.add(task);
+                }
+                if (mailbox.scheduled)
+                    return true;
+                mailbox.scheduled = true;
+            }
+            executor.execute(mailbox);
+            return true;
+        }
+    }
+
+    /** Number of connections with pending tasks */
+    public int getMailboxCount() {
+        return mailboxes.size();
+    }
+
+    public int getMailboxCapacity() {
+        return mailboxCapacity;
+    }
+
+    /** Stop the executor if the dispatcher created it */
+    public void shutdown() {
+        if (executor instanceof ExecutorService)
+            ((ExecutorService) executor).shutdown();
+    }
+
+
+    private static void run(@Nonnull Runnable task) {
+        try {
+            task.run();
+        } catch (Exception ex) {
+            log.error("Dispatched task error", ex);
+        }
+    }
+
+
+    /** Task counted against mailbox capacity */
+    private static final class Message implements Runnable {
+        final Runnable task;
+
+        Message(@Nonnull Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+    }
+
+    private final class Mailbox implements Runnable {
+        final String connectionId;
+        final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+        /** Number of {@link Message} tasks */
+        int messages;
+        boolean scheduled;
+        boolean removed;
+
+        Mailbox(@Nonnull String connectionId) {
+            this.connectionId = connectionId;
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < THROUGHPUT; i++) {
+                Runnable task;
+                synchronized (this) {
+                    task = tasks.poll();
+                    if (task == null) {
+                        scheduled = false;
+                        removed = true;
+                        mailboxes.remove(connectionId, this);
+                        return;
+                    }
+                    if (task instanceof Message)
+                        messages--;
+                }
+                Dispatcher.run(task);
+            }
+            // let other connections run
+            executor.execute(this);
+        }
+    }
+}
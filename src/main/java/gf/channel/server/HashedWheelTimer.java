@@ -0,0 +1,251 @@
+package gf.channel.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Timer for a large number of mostly cancelled or rescheduled timeouts
+ * (connection expiry, handshake timeouts, delayed flushes).
+ *
+ * Timeouts are kept in a circular array of buckets, one bucket per tick. Scheduling and cancelling
+ * only append to lock-free queues, the worker thread moves timeouts into buckets and on every tick
+ * touches only the bucket that is due. Precision is one tick.
+ *
+ * Tasks are executed by the worker thread and must be short.
+ */
+public class HashedWheelTimer {
+    private final static Logger log = LoggerFactory.getLogger(HashedWheelTimer.class);
+
+    private static volatile HashedWheelTimer shared;
+
+    /**
+     * Timer shared by all connectors: 10 ms tick, 512 buckets (about 5 s per round).
+     * Started on first use, the worker is a daemon thread.
+     */
+    public static @Nonnull HashedWheelTimer getShared() {
+        HashedWheelTimer timer = shared;
+        if (timer == null) {
+            synchronized (HashedWheelTimer.class) {
+                timer = shared;
+                if (timer == null)
+                    shared = timer = new HashedWheelTimer("message-channel-timer", 10, TimeUnit.MILLISECONDS, 512);
+            }
+        }
+        return timer;
+    }
+
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final long startTime = System.nanoTime();
+    /** Timeouts scheduled but not moved to wheel yet */
+    private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+    /** Timeouts cancelled but not removed from wheel yet */
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+    private final Thread worker;
+    private volatile boolean stopped;
+    /** Ticks passed since start, accessed by worker thread only */
+    private long tick;
+
+    public HashedWheelTimer(@Nonnull String name, long tickDuration, @Nonnull TimeUnit unit, int ticksPerWheel) {
+        if (tickDuration <= 0)
+            throw new IllegalArgumentException("tickDuration must be positive: " + tickDuration);
+        tickNanos = unit.toNanos(tickDuration);
+        int length = 1;
+        while (length < ticksPerWheel)
+            length <<= 1;
+        wheel = new Bucket[length];
+        for (int i = 0; i < length; i++)
+            wheel[i] = new Bucket();
+        mask = length - 1;
+
+        worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                work();
+            }
+        }, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+
+    /**
+     * Run task once after the delay
+     * @return handle to cancel the task
+     */
+    public @Nonnull Timeout schedule(@Nonnull Runnable task, long delay, @Nonnull TimeUnit unit) {
+        Timeout timeout = new Timeout(task, System.nanoTime() - startTime + unit.toNanos(Math.max(delay, 0)));
+        scheduled.add(timeout);
+        return timeout;
+    }
+
+
+    /** Stop worker thread, pending timeouts are never executed */
+    public void stop() {
+        stopped = true;
+        worker.interrupt();
+    }
+
+
+    private void work() {
+        while (!stopped) {
+            long deadline = tickNanos * (tick + 1);
+            long sleepNanos = deadline - (System.nanoTime() - startTime);
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException ex) {
+                    continue;
+                }
+                continue;
+            }
+
+            removeCancelled();
+            transferScheduled();
+            wheel[(int) tick & mask].expire();
+            tick++;
+        }
+    }
+
+
+    private void removeCancelled() {
+        for (Timeout timeout; (timeout = cancelled.poll()) != null; ) {
+            if (timeout.bucket != null)
+                timeout.bucket.remove(timeout);
+        }
+    }
+
+
+    private void transferScheduled() {
+        // limit the work per tick, so that a burst of schedules does not stall expiration
+        for (int i = 0; i < 100000; i++) {
+            Timeout timeout = scheduled.poll();
+            if (timeout == null)
+                break;
+            if (timeout.state != Timeout.INIT)
+                continue;
+
+            long ticks = Math.max(timeout.deadline / tickNanos, tick);
+            timeout.remainingRounds = (ticks - tick) / wheel.length;
+            wheel[(int) ticks & mask].add(timeout);
+        }
+    }
+
+
+    /**
+     * Handle of a scheduled task
+     */
+    public final class Timeout {
+        private final static int INIT = 0;
+        private final static int CANCELLED = 1;
+        private final static int EXPIRED = 2;
+
+        private final Runnable task;
+        /** Nanoseconds since timer start */
+        private final long deadline;
+        /** Not private: updated by STATE */
+        volatile int state = INIT;
+
+        // managed by worker thread
+        private long remainingRounds;
+        @Nullable private Bucket bucket;
+        @Nullable private Timeout next;
+        @Nullable private Timeout prev;
+
+        private Timeout(@Nonnull Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancel the task if it did not start yet
+         * @return false if the task was already executed or cancelled
+         */
+        public boolean cancel() {
+            if (!STATE.compareAndSet(this, INIT, CANCELLED))
+                return false;
+            cancelled.add(this);
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return state == CANCELLED;
+        }
+
+        /** Task was started by timer */
+        public boolean isExpired() {
+            return state == EXPIRED;
+        }
+
+        private void expire() {
+            if (!STATE.compareAndSet(this, INIT, EXPIRED))
+                return;
+            try {
+                task.run();
+            } catch (Throwable ex) {
+                log.error("Timer task failed", ex);
+            }
+        }
+    }
+
+    private final static AtomicIntegerFieldUpdater<Timeout> STATE =
+            AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+
+    /**
+     * Doubly-linked list of timeouts, accessed by worker thread only
+     */
+    private final static class Bucket {
+        @Nullable private Timeout head;
+        @Nullable private Timeout tail;
+
+        void add(@Nonnull Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        void remove(@Nonnull Timeout timeout) {
+            if (timeout.prev != null)
+                timeout.prev.next = timeout.next;
+            else
+                head = timeout.next;
+            if (timeout.next != null)
+                timeout.next.prev = timeout.prev;
+            else
+                tail = timeout.prev;
+            timeout.next = timeout.prev = null;
+            timeout.bucket = null;
+        }
+
+        /** Run timeouts of the current round */
+        void expire() {
+            for (Timeout timeout = head; timeout != null; ) {
+                Timeout next = timeout.next;
+                if (timeout.remainingRounds <= 0) {
+                    remove(timeout);
+                    timeout.expire();
+                } else if (timeout.isCancelled()) {
+                    remove(timeout);
+                } else {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+    }
+}
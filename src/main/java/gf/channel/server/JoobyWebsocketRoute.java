@@ -6,9 +6,13 @@ import org.jooby.WebSocket;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Websocket route of Jooby, the connection handler is required from the application.
+ * Messages are not compressed: the websocket pipeline of jooby-netty 1.x has no permessage-deflate handler.
+ */
 public class JoobyWebsocketRoute implements WebSocket.OnOpen {
     /** Close connection if was not initialized during this time */
     protected int connectionInitTimeout = 5000;
@@ -17,7 +21,7 @@ public class JoobyWebsocketRoute implements WebSocket.OnOpen {
     // set globally by config file
     //protected int maxMessageSize = 256000;
 
-    protected Timer timer = new Timer("ws-idle-connections", true);
+    protected HashedWheelTimer timer = HashedWheelTimer.getShared();
 
     public JoobyWebsocketRoute() {
         if (connector.getMessageSerializer() == null)
@@ -45,6 +49,19 @@ public class JoobyWebsocketRoute implements WebSocket.OnOpen {
             }
         }
 
+        @Override
+        protected void socketSend(@Nullable Object websocketSession, @Nonnull byte[] data, int offset, int length) {
+            WebSocket websocket = (WebSocket) websocketSession;
+            if (websocket != null && websocket.isOpen()) {
+                try {
+                    // byte arrays are sent as binary frames
+                    websocket.send(offset == 0 && length == data.length ? data : Arrays.copyOfRange(data, offset, offset + length));
+                } catch (Exception ex) {
+                    /* ignore */
+                }
+            }
+        }
+
         @Override
         protected void socketClose(@Nullable Object websocketSession) {
             WebSocket websocket = (WebSocket) websocketSession;
@@ -63,13 +80,9 @@ public class JoobyWebsocketRoute implements WebSocket.OnOpen {
             ServerConnectorHandler handler = ws.require(ServerConnectorHandler.class);
             connector.setHandler(handler);
         }
-        final TimerTask interrupt = new TimerTask() {
-            @Override
-            public void run() {
-                try {ws.close();} catch (Exception ex) { /* ignore */}
-            }
-        };
-        timer.schedule(interrupt, connectionInitTimeout);
+        final HashedWheelTimer.Timeout interrupt = timer.schedule(() -> {
+            try {ws.close();} catch (Exception ex) { /* ignore */}
+        }, connectionInitTimeout, TimeUnit.MILLISECONDS);
         ws.onMessage(message -> {
             interrupt.cancel();
             connector.service(ws, message.value() == null ? "" : message.value());
@@ -0,0 +1,513 @@
+package gf.channel.server;
+
+import gf.channel.shared.Utf8;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Connection store writing an append-only journal to memory-mapped segment files.
+ *
+ * Every state change is appended as a record; the journal is replayed on start. Memory keeps
+ * counters and record locations only, message bytes stay on disk. When a new segment is started
+ * and less than a half of the journal is live (records rewritten by compaction: counters of every
+ * connection and messages not confirmed yet), compaction starts. It is incremental: every following
+ * append first rewrites live state of about twice its own size to the new segments, so a state change
+ * never waits for the whole journal to be copied. When all connections are rewritten, old segments are
+ * deleted and unmapped: the mapping would keep the disk blocks of a deleted file until GC
+ * (see {@link MappedBuffers}).
+ *
+ * Records survive process restart (they are in the page cache), {@link #close()} forces them to disk.
+ * CREATED and ACKNOWLEDGED records carry the wall-clock time of the change: a connection without
+ * such a change during the expiry period is dropped on replay, compaction or restore, its client
+ * has given up or the connection would have expired anyway.
+ * A record torn by a crash ends the replay of its segment. A journal closed during compaction replays
+ * both old and rewritten records: CREATED of a known connection only renews it and a rewritten message
+ * replaces its older record.
+ */
+public class JournalConnectionStore implements ConnectionStore {
+    private final static Logger log = LoggerFactory.getLogger(JournalConnectionStore.class);
+
+    private final static byte END = 0;
+    private final static byte CREATED = 1;
+    private final static byte MESSAGE = 2;
+    private final static byte ACKNOWLEDGED = 3;
+    private final static byte REMOVED = 4;
+
+    private final static String PREFIX = "journal-";
+    private final static String SUFFIX = ".seg";
+
+    private final File directory;
+    private final int segmentSize;
+    /** Connection state not changed during this period is dropped */
+    private final long expiryMillis;
+    private final LongSupplier clock;
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    private final Map<String, State> states = new HashMap<>();
+    @Nullable private Segment current;
+    private int nextSegment;
+    /** Size of records in all segments */
+    private long totalBytes;
+    /** Size of message records not confirmed by client */
+    private long liveBytes;
+    /** Compaction in progress, null if none */
+    @Nullable private Compaction compaction;
+    private boolean closed;
+    /** Number of compactions started, for tests */
+    int compactions;
+
+    /**
+     * Open journal and replay existing segments, connections never expire
+     * @param segmentSize size of a segment file, larger records get a segment of their own
+     */
+    public JournalConnectionStore(@Nonnull File directory, int segmentSize) throws IOException {
+        this(directory, segmentSize, Long.MAX_VALUE);
+    }
+
+    /**
+     * Open journal and replay existing segments
+     * @param segmentSize size of a segment file, larger records get a segment of their own
+     * @param expiryMillis connection timeout: state of a connection not changed for this period is dropped
+     */
+    public JournalConnectionStore(@Nonnull File directory, int segmentSize, long expiryMillis) throws IOException {
+        this(directory, segmentSize, expiryMillis, System::currentTimeMillis);
+    }
+
+    JournalConnectionStore(@Nonnull File directory, int segmentSize, long expiryMillis,
+                           @Nonnull LongSupplier clock) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Cannot create directory " + directory);
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.expiryMillis = expiryMillis;
+        this.clock = clock;
+
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.startsWith(PREFIX) && name.endsWith(SUFFIX)) {
+                    int index = Integer.parseInt(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+                    segments.put(index, openSegment(index, (int) file.length()));
+                }
+            }
+        }
+        for (Segment segment : segments.values())
+            replay(segment);
+        expire();
+        nextSegment = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+        if (!segments.isEmpty())
+            log.info("Journal replayed: {} connection(s), {} segment(s)", states.size(), segments.size());
+    }
+
+
+    @Override
+    public synchronized void created(@Nonnull String connId) {
+        State state = new State();
+        state.lastUsed = clock.getAsLong();
+        states.put(connId, state);
+        ByteBuffer buffer = append(CREATED, connId, 8);
+        if (buffer != null)
+            buffer.putLong(state.lastUsed);
+    }
+
+    @Override
+    public synchronized void enqueued(@Nonnull String connId, long sequence, @Nonnull byte[] data, boolean text) {
+        State state = states.get(connId);
+        if (state == null)
+            return;
+        ByteBuffer buffer = append(MESSAGE, connId, 8 + 1 + 4 + data.length);
+        if (buffer == null)
+            return;
+        buffer.putLong(sequence).put(text ? (byte) 1 : 0).putInt(data.length);
+        int offset = buffer.position();
+        buffer.put(data);
+        addMessage(state, sequence, new Location(current, offset, data.length, text, recordSize(connId, 13 + data.length)));
+    }
+
+    @Override
+    public synchronized void acknowledged(@Nonnull String connId, long firstSequence, long receivedCounter) {
+        State state = states.get(connId);
+        if (state == null)
+            return;
+        state.lastUsed = clock.getAsLong();
+        ByteBuffer buffer = append(ACKNOWLEDGED, connId, 24);
+        if (buffer != null)
+            buffer.putLong(firstSequence).putLong(receivedCounter).putLong(state.lastUsed);
+        acknowledge(state, firstSequence, receivedCounter);
+    }
+
+    @Override
+    public synchronized void removed(@Nonnull String connId) {
+        State state = states.remove(connId);
+        if (state == null)
+            return;
+        append(REMOVED, connId, 0);
+        release(state);
+    }
+
+    @Override
+    public synchronized @Nullable StoredConnection restore(@Nonnull String connId) {
+        State state = states.get(connId);
+        if (state == null)
+            return null;
+        if (isExpired(state, clock.getAsLong())) {
+            log.info("Stored connection expired: {}", connId);
+            removed(connId);
+            return null;
+        }
+        List<Object> messages = new ArrayList<>(state.messages.size());
+        long sequence = state.firstSequence;
+        for (Map.Entry<Long, Location> entry : state.messages.entrySet()) {
+            if (entry.getKey() != sequence) {
+                log.warn("Journal has no message {} of connection {}", sequence, connId);
+                return null;
+            }
+            Location location = entry.getValue();
+            byte[] data = location.read();
+            messages.add(location.text ? Utf8.decode(data, 0, data.length) : data);
+            sequence++;
+        }
+        return new StoredConnection(connId, state.firstSequence, state.receivedCounter, messages);
+    }
+
+
+    /** Number of connections in the store */
+    public synchronized int size() {
+        return states.size();
+    }
+
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    /** Compaction started and old segments are not deleted yet, for tests */
+    synchronized boolean isCompacting() {
+        return compaction != null;
+    }
+
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        for (Segment segment : segments.values())
+            segment.buffer.force();
+    }
+
+
+    /** Account a live message record unless it was already confirmed, it replaces an older record of the message */
+    private void addMessage(@Nonnull State state, long sequence, @Nonnull Location location) {
+        if (sequence < state.firstSequence)
+            return;
+        @Nullable Location old = state.messages.put(sequence, location);
+        liveBytes += location.recordSize - (old != null ? old.recordSize : 0);
+    }
+
+    private boolean isExpired(@Nonnull State state, long now) {
+        return now - state.lastUsed > expiryMillis;
+    }
+
+    /** Drop connections whose clients did not return. Records are left to compaction. */
+    private void expire() {
+        long now = clock.getAsLong();
+        int expired = 0;
+        for (Iterator<State> it = states.values().iterator(); it.hasNext(); ) {
+            State state = it.next();
+            if (isExpired(state, now)) {
+                it.remove();
+                release(state);
+                expired++;
+            }
+        }
+        if (expired > 0)
+            log.info("Journal dropped {} expired connection(s)", expired);
+    }
+
+    private void release(@Nonnull State state) {
+        for (Location location : state.messages.values())
+            liveBytes -= location.recordSize;
+    }
+
+    private void acknowledge(@Nonnull State state, long firstSequence, long receivedCounter) {
+        state.firstSequence = firstSequence;
+        state.receivedCounter = receivedCounter;
+        for (Iterator<Location> it = state.messages.headMap(firstSequence).values().iterator(); it.hasNext(); ) {
+            liveBytes -= it.next().recordSize;
+            it.remove();
+        }
+    }
+
+
+    private static int recordSize(@Nonnull String connId, int bodySize) {
+        return 1 + 2 + Utf8.encodedLength(connId) + bodySize;
+    }
+
+    /**
+     * Start a record in the current segment, rolling to a new segment if it does not fit.
+     * A step of compaction in progress is done first: the record stays in {@link #current}.
+     * @return buffer positioned at the record body, null if the journal is not writable
+     */
+    private @Nullable ByteBuffer append(byte type, @Nonnull String connId, int bodySize) {
+        if (closed)
+            return null;
+        try {
+            if (compaction != null)
+                compactStep(2 * recordSize(connId, bodySize));
+            return write(type, connId, bodySize);
+        } catch (IOException ex) {
+            log.error("Failed to write journal, connection state is not persisted", ex);
+            return null;
+        }
+    }
+
+    private @Nonnull ByteBuffer write(byte type, @Nonnull String connId, int bodySize) throws IOException {
+        int size = recordSize(connId, bodySize);
+        if (current == null || current.buffer.capacity() - current.position < size)
+            roll(size);
+
+        ByteBuffer buffer = current.buffer.duplicate();
+        buffer.position(current.position);
+        byte[] id = Utf8.encode(connId);
+        buffer.put(type).putShort((short) id.length).put(id);
+        current.position += size;
+        totalBytes += size;
+        return buffer;
+    }
+
+    private void roll(int recordSize) throws IOException {
+        if (compaction == null && current != null && liveSize() * 2 < totalBytes) {
+            compactions++;
+            expire();
+            // segments up to the current one are old, appends go to new segments
+            compaction = new Compaction(nextSegment, new ArrayList<>(states.keySet()));
+        }
+        current = newSegment(Math.max(segmentSize, recordSize));
+    }
+
+    /** Size of records written by compaction: CREATED and ACKNOWLEDGED of every connection and live messages */
+    private long liveSize() {
+        long size = liveBytes;
+        for (String connId : states.keySet())
+            size += recordSize(connId, 8) + recordSize(connId, 24);
+        return size;
+    }
+
+    /**
+     * Rewrite live state of connections that existed when compaction started, at least one record
+     * and about the given number of bytes. A connection is rewritten as CREATED and ACKNOWLEDGED records
+     * with its current counters followed by its messages queued so far, later records of the connection
+     * follow them. Old segments are deleted when the last connection is rewritten.
+     */
+    private void compactStep(int budget) throws IOException {
+        Compaction c = compaction;
+        int written = 0;
+        while (written < budget) {
+            if (c.connId == null) {
+                if (!c.pending.hasNext()) {
+                    finishCompaction();
+                    return;
+                }
+                String connId = c.pending.next();
+                State state = states.get(connId);
+                if (state == null)
+                    continue; // removed or expired, its records are in old segments only
+                written += writeCounters(connId, state);
+                c.connId = connId;
+                c.cursor = state.firstSequence;
+                c.end = state.messages.isEmpty() ? state.firstSequence : state.messages.lastKey() + 1;
+                continue;
+            }
+            State state = states.get(c.connId);
+            @Nullable Map.Entry<Long, Location> message = state != null ? state.messages.ceilingEntry(c.cursor) : null;
+            if (message == null || message.getKey() >= c.end) {
+                c.connId = null;
+                continue;
+            }
+            long sequence = message.getKey();
+            Location old = message.getValue();
+            byte[] data = old.read();
+            ByteBuffer buffer = write(MESSAGE, c.connId, 13 + data.length);
+            buffer.putLong(sequence).put(old.text ? (byte) 1 : 0).putInt(data.length);
+            int offset = buffer.position();
+            buffer.put(data);
+            addMessage(state, sequence, new Location(current, offset, data.length, old.text, old.recordSize));
+            c.cursor = sequence + 1;
+            written += old.recordSize;
+        }
+    }
+
+    /** @return size of the records */
+    private int writeCounters(@Nonnull String connId, @Nonnull State state) throws IOException {
+        write(CREATED, connId, 8).putLong(state.lastUsed);
+        write(ACKNOWLEDGED, connId, 24).putLong(state.firstSequence).putLong(state.receivedCounter)
+                .putLong(state.lastUsed);
+        return recordSize(connId, 8) + recordSize(connId, 24);
+    }
+
+    private void finishCompaction() {
+        for (Iterator<Segment> it = segments.headMap(compaction.firstNew).values().iterator(); it.hasNext(); ) {
+            Segment segment = it.next();
+            it.remove();
+            totalBytes -= segment.position;
+            // live messages were moved to new segments, nothing refers to the old ones
+            MappedBuffers.unmap(segment.buffer);
+            if (!segment.file.delete())
+                log.warn("Failed to delete journal segment {}", segment.file);
+        }
+        compaction = null;
+        log.debug("Journal compacted: {} connection(s), {} bytes", states.size(), totalBytes);
+    }
+
+
+    private @Nonnull Segment newSegment(int size) throws IOException {
+        int index = nextSegment++;
+        Segment segment = openSegment(index, size);
+        segments.put(index, segment);
+        return segment;
+    }
+
+    private @Nonnull Segment openSegment(int index, int size) throws IOException {
+        File file = new File(directory, PREFIX + index + SUFFIX);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+            // the mapping stays valid after the channel is closed
+            return new Segment(file, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        }
+    }
+
+
+    /** Apply records of a segment to the state */
+    private void replay(@Nonnull Segment segment) {
+        ByteBuffer buffer = segment.buffer.duplicate();
+        try {
+            while (buffer.hasRemaining()) {
+                int start = buffer.position();
+                byte type = buffer.get();
+                if (type == END)
+                    break;
+                byte[] id = new byte[buffer.getShort()];
+                buffer.get(id);
+                String connId = Utf8.decode(id, 0, id.length);
+                State state = states.get(connId);
+
+                if (type == CREATED) {
+                    long lastUsed = buffer.getLong();
+                    // a connection rewritten by compaction keeps the state of its old records
+                    if (state == null) {
+                        state = new State();
+                        states.put(connId, state);
+                    }
+                    state.lastUsed = lastUsed;
+                } else if (type == MESSAGE) {
+                    long sequence = buffer.getLong();
+                    boolean text = buffer.get() != 0;
+                    int length = buffer.getInt();
+                    int offset = buffer.position();
+                    buffer.position(offset + length);
+                    if (state != null)
+                        addMessage(state, sequence, new Location(segment, offset, length, text, buffer.position() - start));
+                } else if (type == ACKNOWLEDGED) {
+                    long firstSequence = buffer.getLong();
+                    long receivedCounter = buffer.getLong();
+                    long lastUsed = buffer.getLong();
+                    if (state != null) {
+                        state.lastUsed = lastUsed;
+                        acknowledge(state, firstSequence, receivedCounter);
+                    }
+                } else if (type == REMOVED) {
+                    if (state != null) {
+                        states.remove(connId);
+                        release(state);
+                    }
+                } else {
+                    log.warn("Corrupted journal segment {} at {}", segment.file, start);
+                    break;
+                }
+                totalBytes += buffer.position() - start;
+                segment.position = buffer.position();
+            }
+        } catch (RuntimeException ex) {
+            // torn record at the end of segment
+            log.warn("Truncated journal segment {}", segment.file);
+        }
+        // a replayed segment is never appended to, its position is the size of its records
+    }
+
+
+    private static final class State {
+        /** Wall-clock time of the last CREATED or ACKNOWLEDGED record */
+        long lastUsed;
+        long firstSequence;
+        long receivedCounter;
+        final TreeMap<Long, Location> messages = new TreeMap<>();
+    }
+
+    /** Connections left to rewrite */
+    private static final class Compaction {
+        /** Segments before this index are deleted when compaction is done */
+        final int firstNew;
+        final Iterator<String> pending;
+        /** Connection being rewritten, null to take the next pending one */
+        @Nullable String connId;
+        /** Next message of the connection to rewrite */
+        long cursor;
+        /** Messages queued after the connection was rewritten follow its counters */
+        long end;
+
+        Compaction(int firstNew, @Nonnull List<String> connIds) {
+            this.firstNew = firstNew;
+            this.pending = connIds.iterator();
+        }
+    }
+
+    private static final class Segment {
+        final File file;
+        final MappedByteBuffer buffer;
+        /** End of records, appends go here */
+        int position;
+
+        Segment(@Nonnull File file, @Nonnull MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+
+    /** Message bytes in a segment */
+    private static final class Location {
+        final Segment segment;
+        final int offset;
+        final int length;
+        final boolean text;
+        final int recordSize;
+
+        Location(@Nonnull Segment segment, int offset, int length, boolean text, int recordSize) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.text = text;
+            this.recordSize = recordSize;
+        }
+
+        @Nonnull byte[] read() {
+            byte[] data = new byte[length];
+            ByteBuffer buffer = segment.buffer.duplicate();
+            buffer.position(offset);
+            buffer.get(data);
+            return data;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package gf.channel.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+
+/**
+ * Explicit unmapping of memory-mapped segment files.
+ *
+ * A mapping keeps the disk blocks of a deleted file and its address space until the buffer is
+ * garbage-collected, which may take long when the data itself lives off-heap. The cleaner is called
+ * through reflection: Unsafe.invokeCleaner() on Java 9+, DirectBuffer.cleaner() on Java 8.
+ * If neither is accessible the mapping is left to GC.
+ */
+final class MappedBuffers {
+    private final static Logger log = LoggerFactory.getLogger(MappedBuffers.class);
+
+    @Nullable
+    private final static Unmapper UNMAPPER = unmapper();
+
+    private MappedBuffers() {
+    }
+
+    /**
+     * Release the mapping now. The buffer and its duplicates must not be accessed afterwards:
+     * callers guarantee it, access to an unmapped buffer crashes the JVM.
+     * @return false if unmapping is not supported by the JVM
+     */
+    static boolean unmap(@Nonnull MappedByteBuffer buffer) {
+        if (UNMAPPER == null)
+            return false;
+        try {
+            UNMAPPER.unmap(buffer);
+            return true;
+        } catch (Exception ex) {
+            log.debug("Failed to unmap buffer", ex);
+            return false;
+        }
+    }
+
+    private interface Unmapper {
+        void unmap(@Nonnull ByteBuffer buffer) throws Exception;
+    }
+
+    private static @Nullable Unmapper unmapper() {
+        try {
+            // Java 9+
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            final Object unsafe = field.get(null);
+            return new Unmapper() {
+                @Override
+                public void unmap(@Nonnull ByteBuffer buffer) throws Exception {
+                    invokeCleaner.invoke(unsafe, buffer);
+                }
+            };
+        } catch (Exception ex) {
+            // Java 8
+        }
+        try {
+            final Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+            final Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+            return new Unmapper() {
+                @Override
+                public void unmap(@Nonnull ByteBuffer buffer) throws Exception {
+                    Object c = cleaner.invoke(buffer);
+                    if (c != null)
+                        clean.invoke(c);
+                }
+            };
+        } catch (Exception ex) {
+            log.info("Unmapping of memory-mapped files is not supported, mappings are released by GC");
+            return null;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package gf.channel.server;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limit of memory used by messages queued for clients and not confirmed yet.
+ * Every connector has its own budget by default, set the same instance to several connectors
+ * to share one limit between them.
+ */
+public class OutboundBudget {
+    /** What to do with a message that does not fit into the budget */
+    public enum OverflowPolicy {
+        /** Drop the message for this connection */
+        REJECT,
+        /** Close connections with the largest queues of the posting connector until the message fits */
+        EVICT_LARGEST
+    }
+
+    private final AtomicLong used = new AtomicLong();
+    private volatile long limit;
+    private volatile OverflowPolicy policy;
+
+    /** Quarter of the max heap, evicting the largest queues */
+    public OutboundBudget() {
+        this(Runtime.getRuntime().maxMemory() / 4, OverflowPolicy.EVICT_LARGEST);
+    }
+
+    public OutboundBudget(long limit, @Nonnull OverflowPolicy policy) {
+        this.limit = limit;
+        this.policy = policy;
+    }
+
+    /** @return false if acquiring would exceed the limit, nothing is acquired in this case */
+    public boolean tryAcquire(long bytes) {
+        for (;;) {
+            long current = used.get();
+            if (current + bytes > limit && bytes > 0)
+                return false;
+            if (used.compareAndSet(current, current + bytes))
+                return true;
+        }
+    }
+
+    /** Acquire ignoring the limit, for messages that cannot be dropped */
+    public void acquire(long bytes) {
+        used.addAndGet(bytes);
+    }
+
+    public void release(long bytes) {
+        used.addAndGet(-bytes);
+    }
+
+    /** Bytes currently queued by all connections using the budget */
+    public long getUsed() {
+        return used.get();
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    public void setLimit(long limit) {
+        this.limit = limit;
+    }
+
+    public @Nonnull OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    public void setPolicy(@Nonnull OverflowPolicy policy) {
+        this.policy = policy;
+    }
+}
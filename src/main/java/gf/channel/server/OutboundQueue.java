@@ -0,0 +1,188 @@
+package gf.channel.server;
+
+import javax.annotation.Nonnull;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Messages pending to be confirmed by client.
+ *
+ * Growable circular buffer indexed by message sequence number. Sequence number of the first element
+ * is the number of messages already confirmed by client (sentCounter), so append, lookup and
+ * acknowledgement cost O(1) per message. Every message may carry a timestamp of when it was queued.
+ *
+ * Not thread safe: guarded by the connection monitor.
+ */
+public class OutboundQueue<E> implements Iterable<E> {
+    private Object[] elements;
+    private long[] timestamps;
+    private int mask;
+    private long firstSequence;
+    private int size;
+
+    public OutboundQueue() {
+        this(16);
+    }
+
+    public OutboundQueue(int initialCapacity) {
+        int capacity = 1;
+        while (capacity < initialCapacity)
+            capacity <<= 1;
+        elements = new Object[capacity];
+        timestamps = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    /** Sequence number of the first message in queue (number of messages confirmed by client) */
+    public long getFirstSequence() {
+        return firstSequence;
+    }
+
+    /**
+     * Start numbering from the sequence, used to restore a queue
+     * @throws IllegalStateException if queue is not empty
+     */
+    public void setFirstSequence(long firstSequence) {
+        if (size != 0)
+            throw new IllegalStateException("Queue is not empty");
+        this.firstSequence = firstSequence;
+    }
+
+    /** Sequence number that will be assigned to the next added message */
+    public long getNextSequence() {
+        return firstSequence + size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Append message to the end of queue
+     * @return sequence number of the message
+     */
+    public long add(@Nonnull E element) {
+        return add(element, 0);
+    }
+
+    /**
+     * Append message to the end of queue
+     * @param timestamp when message was queued (e.g. System.nanoTime()), 0 if unknown
+     * @return sequence number of the message
+     */
+    public long add(@Nonnull E element, long timestamp) {
+        if (size == elements.length)
+            grow();
+        long sequence = firstSequence + size;
+        elements[(int) sequence & mask] = element;
+        timestamps[(int) sequence & mask] = timestamp;
+        size++;
+        return sequence;
+    }
+
+    /**
+     * @param sequence message sequence number
+     * @throws IndexOutOfBoundsException if message is not in queue
+     */
+    @SuppressWarnings("unchecked")
+    public @Nonnull E get(long sequence) {
+        if (sequence < firstSequence || sequence >= firstSequence + size)
+            throw new IndexOutOfBoundsException("Sequence: " + sequence + ", first: " + firstSequence + ", size: " + size);
+        return (E) elements[(int) sequence & mask];
+    }
+
+    /**
+     * @param sequence message sequence number
+     * @return timestamp the message was added with, 0 if unknown
+     * @throws IndexOutOfBoundsException if message is not in queue
+     */
+    public long getTimestamp(long sequence) {
+        if (sequence < firstSequence || sequence >= firstSequence + size)
+            throw new IndexOutOfBoundsException("Sequence: " + sequence + ", first: " + firstSequence + ", size: " + size);
+        return timestamps[(int) sequence & mask];
+    }
+
+    /**
+     * Replace queued message keeping its sequence number
+     * @throws IndexOutOfBoundsException if message is not in queue
+     */
+    public void set(long sequence, @Nonnull E element) {
+        if (sequence < firstSequence || sequence >= firstSequence + size)
+            throw new IndexOutOfBoundsException("Sequence: " + sequence + ", first: " + firstSequence + ", size: " + size);
+        elements[(int) sequence & mask] = element;
+    }
+
+    /**
+     * Remove all messages confirmed by client
+     * @param receivedCount number of messages received by client
+     * @return number of removed messages
+     * @throws IndexOutOfBoundsException if client confirms messages that were not sent yet
+     */
+    public int acknowledge(long receivedCount) {
+        if (receivedCount > firstSequence + size)
+            throw new IndexOutOfBoundsException("Acknowledged: " + receivedCount + ", first: " + firstSequence + ", size: " + size);
+        int count = 0;
+        while (firstSequence < receivedCount) {
+            elements[(int) firstSequence & mask] = null;
+            firstSequence++;
+            size--;
+            count++;
+        }
+        return count;
+    }
+
+    /** Remove all messages keeping sequence numbers */
+    public void clear() {
+        acknowledge(firstSequence + size);
+    }
+
+    private void grow() {
+        Object[] grown = new Object[elements.length << 1];
+        long[] grownTimestamps = new long[grown.length];
+        int grownMask = grown.length - 1;
+        for (long seq = firstSequence; seq < firstSequence + size; seq++) {
+            grown[(int) seq & grownMask] = elements[(int) seq & mask];
+            grownTimestamps[(int) seq & grownMask] = timestamps[(int) seq & mask];
+        }
+        elements = grown;
+        timestamps = grownTimestamps;
+        mask = grownMask;
+    }
+
+    /** Iterates messages starting from the first one */
+    @Override
+    public @Nonnull Iterator<E> iterator() {
+        return iterator(firstSequence);
+    }
+
+    /** Iterates messages starting from the given sequence number */
+    public @Nonnull Iterator<E> iterator(final long fromSequence) {
+        if (fromSequence < firstSequence || fromSequence > firstSequence + size)
+            throw new IndexOutOfBoundsException("Sequence: " + fromSequence + ", first: " + firstSequence + ", size: " + size);
+
+        return new Iterator<E>() {
+            private long seq = fromSequence;
+
+            @Override
+            public boolean hasNext() {
+                return seq < firstSequence + size;
+            }
+
+            @Override
+            public E next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return get(seq++);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -0,0 +1,310 @@
+package gf.channel.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.function.Consumer;
+
+/**
+ * Limits of connection queues of a connector: queue length and size, the outbound budget,
+ * writability watermarks and spilling to disk. Accounts memory of queued messages when they are reserved,
+ * spilled, confirmed by client or released with a closed connection.
+ *
+ * Methods taking a connection must be called holding its monitor unless documented otherwise.
+ */
+public class QueueAccounting<C extends QueuedConnection> {
+    private final static Logger log = LoggerFactory.getLogger(QueueAccounting.class);
+
+	/** Terminate connection if queue size exceeds max length (producer ignores writability) */
+	private int maxQueueLength = 300;
+
+    /** Terminate connection if encoded size of its queue exceeds this limit */
+    private long maxQueueBytes = 16 * 1024 * 1024;
+
+    /** Memory limit of messages queued by all connections, may be shared with other connectors */
+    private OutboundBudget outboundBudget = new OutboundBudget();
+
+    /** Disk storage for queues of slow clients, null disables spilling */
+    @Nullable
+    private SpillStore spillStore;
+
+    /** Move messages already written to client to the spill store when queue exceeds this size in memory */
+    private long spillThresholdBytes = 1024 * 1024;
+
+    /** Terminate connection if size of its messages spilled to disk exceeds this limit */
+    private long maxSpilledBytes = 64 * 1024 * 1024;
+
+    /** Connection becomes not writable when number of messages not confirmed by client reaches this limit */
+    private int highWatermark = 200;
+
+    /** Not writable connection becomes writable when client confirms messages down to this limit */
+    private int lowWatermark = 100;
+
+    private final Collection<C> connections;
+    private final Consumer<C> evictor;
+
+    /**
+     * @param connections open connections of the connector, candidates for eviction
+     * @param evictor closes the connection evicted from the budget, called without holding any monitor
+     */
+    public QueueAccounting(@Nonnull Collection<C> connections, @Nonnull Consumer<C> evictor) {
+        this.connections = connections;
+        this.evictor = evictor;
+    }
+
+
+    /** Read queue limits from servlet init parameters */
+    public void configure(@Nonnull ServletConfig config) throws ServletException {
+        try { maxQueueLength = Integer.parseInt( config.getInitParameter( "maxQueueLength" ) ); } catch ( Exception ex ) {}
+        try { maxQueueBytes = Long.parseLong( config.getInitParameter( "maxQueueBytes" ) ); } catch ( Exception ex ) {}
+        try { outboundBudget.setLimit(Long.parseLong( config.getInitParameter( "outboundBudgetBytes" ) )); } catch ( Exception ex ) {}
+        try { outboundBudget.setPolicy(OutboundBudget.OverflowPolicy.valueOf( config.getInitParameter( "outboundOverflowPolicy" ) )); } catch ( Exception ex ) {}
+        try { highWatermark = Integer.parseInt( config.getInitParameter( "highWatermark" ) ); } catch ( Exception ex ) {}
+        try { lowWatermark = Integer.parseInt( config.getInitParameter( "lowWatermark" ) ); } catch ( Exception ex ) {}
+
+        String spillDirectory = config.getInitParameter("spillDirectory");
+        if (spillDirectory != null) {
+            try {
+                long spillStoreMaxBytes = 1024L * 1024 * 1024;
+                try { spillStoreMaxBytes = Long.parseLong( config.getInitParameter( "spillStoreMaxBytes" ) ); } catch ( Exception ex ) {}
+                spillStore = new SpillStore(new File(spillDirectory), 64 * 1024 * 1024, spillStoreMaxBytes);
+            } catch (IOException ex) {
+                throw new ServletException(ex);
+            }
+        }
+        try { spillThresholdBytes = Long.parseLong( config.getInitParameter( "spillThresholdBytes" ) ); } catch ( Exception ex ) {}
+        try { maxSpilledBytes = Long.parseLong( config.getInitParameter( "maxSpilledBytes" ) ); } catch ( Exception ex ) {}
+    }
+
+
+    /** Size of encoded message in frame, characters of a String */
+    public static int encodedSize(@Nonnull Object encoded) {
+        return encoded instanceof byte[] ? ((byte[]) encoded).length : ((String) encoded).length();
+    }
+
+
+    /**
+     * Acquire budget for a message applying the overflow policy if the budget is exhausted.
+     * Called outside of the connection monitor: eviction locks other connections.
+     * @return false if the message must be dropped
+     */
+    public boolean reserve(@Nonnull C conn, int size) {
+        OutboundBudget budget = outboundBudget;
+        while (!budget.tryAcquire(size)) {
+            @Nullable C victim = budget.getPolicy() == OutboundBudget.OverflowPolicy.EVICT_LARGEST
+                    ? largestQueue() : null;
+            if (victim == null) {
+                log.warn("Outbound budget exceeded, message dropped, connId={}", conn.connId);
+                return false;
+            }
+            log.warn("Outbound budget exceeded, closing connection with {} bytes queued, connId={}",
+                    victim.queuedBytes, victim.connId);
+            evictor.accept(victim);
+            if (victim == conn)
+                return false;
+        }
+        return true;
+    }
+
+    /** Return budget of a reserved message that was not queued */
+    public void unreserve(int size) {
+        outboundBudget.release(size);
+    }
+
+    /** Open connection with the largest non-empty queue */
+    private @Nullable C largestQueue() {
+        @Nullable C largest = null;
+        for (C c : connections) {
+            if (c.queuedBytes > 0 && (largest == null || c.queuedBytes > largest.queuedBytes))
+                largest = c;
+        }
+        return largest;
+    }
+
+    /** Queue exceeds its limits with a message of the size */
+    public boolean isFull(@Nonnull C conn, int size) {
+        return inMemoryLength(conn) >= maxQueueLength || conn.queuedBytes + size > maxQueueBytes;
+    }
+
+    /** Number of queued messages kept in memory */
+    private static int inMemoryLength(@Nonnull QueuedConnection conn) {
+        return conn.queue.size() - (int) Math.max(0, conn.spilledSequence - conn.queue.getFirstSequence());
+    }
+
+    /** Account a message appended to the queue, its budget was reserved */
+    public void queued(@Nonnull C conn, int size) {
+        conn.queuedBytes += size;
+        conn.unflushedBytes += size;
+    }
+
+    /**
+     * Account messages restored to an empty queue, they were accepted before restart
+     * and are never dropped
+     */
+    public void restored(@Nonnull C conn) {
+        long size = 0;
+        for (Object msg : conn.queue)
+            size += encodedSize(msg);
+        conn.queuedBytes = size;
+        outboundBudget.acquire(size);
+        conn.writable = conn.queue.size() < highWatermark;
+    }
+
+    /**
+     * Remove messages confirmed by client and release their memory
+     * @param metrics receives delivery latency of the messages
+     */
+    public void acknowledge(@Nonnull C conn, long receivedCount, @Nonnull ConnectorMetrics metrics) {
+        long released = 0;
+        long now = System.nanoTime();
+        for (long seq = conn.queue.getFirstSequence(); seq < receivedCount; seq++) {
+            Object msg = conn.queue.get(seq);
+            long queued = conn.queue.getTimestamp(seq);
+            if (queued != 0)
+                metrics.delivered(now - queued);
+            if (msg instanceof SpillStore.Spilled) {
+                spillStore.release((SpillStore.Spilled) msg);
+                conn.spilledBytes -= ((SpillStore.Spilled) msg).getLength();
+            } else
+                released += encodedSize(msg);
+        }
+        conn.queue.acknowledge(receivedCount);
+        conn.queuedBytes -= released;
+        outboundBudget.release(released);
+    }
+
+    /** Release memory and spilled messages of a closed connection, its queue is dropped */
+    public void release(@Nonnull C conn) {
+        outboundBudget.release(conn.queuedBytes);
+        conn.queuedBytes = 0;
+        for (long seq = conn.queue.getFirstSequence(); seq < conn.spilledSequence && seq < conn.queue.getNextSequence(); seq++)
+            spillStore.release((SpillStore.Spilled) conn.queue.get(seq));
+        conn.spilledBytes = 0;
+    }
+
+    /**
+     * Move the oldest messages already written to client to disk until the queue takes
+     * half of spillThresholdBytes in memory. Does nothing if spilling is disabled or the queue
+     * is below the threshold.
+     * @return false if the connection or the store exceeded its disk limit
+     */
+    public boolean spill(@Nonnull C conn) {
+        if (spillStore == null || conn.queuedBytes <= spillThresholdBytes)
+            return true;
+        long seq = Math.max(conn.spilledSequence, conn.queue.getFirstSequence());
+        long end = Math.min(conn.flushedSequence, conn.queue.getNextSequence());
+        boolean full = false;
+        for (; seq < end && conn.queuedBytes > spillThresholdBytes / 2; seq++) {
+            Object msg = conn.queue.get(seq);
+            int size = encodedSize(msg);
+            @Nullable SpillStore.Spilled spilled;
+            try {
+                spilled = conn.spilledBytes + size <= maxSpilledBytes ? spillStore.spill(msg) : null;
+            } catch (IOException ex) {
+                log.warn("Failed to spill queued messages, connId={}", conn.connId, ex);
+                break;
+            }
+            if (spilled == null) {
+                full = true;
+                break;
+            }
+            conn.queue.set(seq, spilled);
+            conn.spilledBytes += spilled.getLength();
+            conn.queuedBytes -= size;
+            outboundBudget.release(size);
+        }
+        conn.spilledSequence = seq;
+        return !full;
+    }
+
+    /** Queued message in the form it was encoded, spilled messages are read from disk */
+    public @Nonnull Object load(@Nonnull Object msg) throws IOException {
+        return msg instanceof SpillStore.Spilled ? spillStore.load((SpillStore.Spilled) msg) : msg;
+    }
+
+    /**
+     * Update writability after queue change
+     * @return true if changed
+     */
+    public boolean updateWritable(@Nonnull C conn) {
+        int size = conn.queue.size();
+        boolean writable = conn.writable ? size < highWatermark : size <= lowWatermark;
+        if (writable == conn.writable)
+            return false;
+        conn.writable = writable;
+        return true;
+    }
+
+
+    public int getMaxQueueLength() {
+        return maxQueueLength;
+    }
+
+    public void setMaxQueueLength(int maxQueueLength) {
+        this.maxQueueLength = maxQueueLength;
+    }
+
+    public long getMaxQueueBytes() {
+        return maxQueueBytes;
+    }
+
+    public void setMaxQueueBytes(long maxQueueBytes) {
+        this.maxQueueBytes = maxQueueBytes;
+    }
+
+    public @Nonnull OutboundBudget getOutboundBudget() {
+        return outboundBudget;
+    }
+
+    /** Set the same budget to several connectors to share one memory limit */
+    public void setOutboundBudget(@Nonnull OutboundBudget outboundBudget) {
+        this.outboundBudget = outboundBudget;
+    }
+
+    public @Nullable SpillStore getSpillStore() {
+        return spillStore;
+    }
+
+    public void setSpillStore(@Nullable SpillStore spillStore) {
+        this.spillStore = spillStore;
+    }
+
+    public long getSpillThresholdBytes() {
+        return spillThresholdBytes;
+    }
+
+    public void setSpillThresholdBytes(long spillThresholdBytes) {
+        this.spillThresholdBytes = spillThresholdBytes;
+    }
+
+    public long getMaxSpilledBytes() {
+        return maxSpilledBytes;
+    }
+
+    public void setMaxSpilledBytes(long maxSpilledBytes) {
+        this.maxSpilledBytes = maxSpilledBytes;
+    }
+
+    public int getHighWatermark() {
+        return highWatermark;
+    }
+
+    public void setHighWatermark(int highWatermark) {
+        this.highWatermark = highWatermark;
+    }
+
+    public int getLowWatermark() {
+        return lowWatermark;
+    }
+
+    public void setLowWatermark(int lowWatermark) {
+        this.lowWatermark = lowWatermark;
+    }
+}
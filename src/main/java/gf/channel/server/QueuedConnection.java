@@ -0,0 +1,35 @@
+package gf.channel.server;
+
+/**
+ * Outbound queue of a server connection and its memory accounting, see {@link QueueAccounting}.
+ *
+ * Guarded by the connection monitor, volatile fields are also read without it.
+ */
+public class QueuedConnection {
+    public String connId;
+    /** Number of unconfirmed messages is below high watermark */
+    public volatile boolean writable = true;
+    /** Encoded size of queued messages, acquired from the outbound budget */
+    public volatile long queuedBytes;
+    /** Removed from connections, queued messages are released */
+    public boolean closed;
+    /** Messages before this sequence are replaced by {@link SpillStore.Spilled} handles */
+    public long spilledSequence;
+    /** Size of the messages on disk */
+    public long spilledBytes;
+
+    /**
+     * Serialized messages pending to be confirmed by client: strings for text frames,
+     * bytes for binary frames or {@link SpillStore.Spilled} handles.
+     * First sequence of the queue is the number of messages confirmed by client.
+     */
+    public final OutboundQueue<Object> queue;
+    /** Sequence of the first queued message that was not written to client yet */
+    public long flushedSequence;
+    /** Size of queued messages that were not written to client yet */
+    public int unflushedBytes;
+
+    public QueuedConnection(int initialCapacity) {
+        queue = new OutboundQueue<>(initialCapacity);
+    }
+}
@@ -1,6 +1,6 @@
 package gf.channel.server;
 
-
+import java.util.Collection;
 
 
 public interface ServerConnector extends ServerConnectorHandler
@@ -26,4 +26,50 @@ public interface ServerConnector extends ServerConnectorHandler
 	 * @param connectionId
 	 */
 	void post( String connectionId, Object message );
+
+	/**
+	 * Check if number of messages not confirmed by client is below high watermark.
+	 * Returns false if session does not exist.
+	 * @see ServerConnectorHandler#onWritabilityChanged(ServerConnector, String, boolean)
+	 */
+	boolean isWritable( String connectionId );
+
+	/**
+	 * Post the same message to several clients.
+	 * Message is serialized once and the serialized form is shared by all the connections.
+	 * Connections that do not exist are skipped.
+	 * Must not throw any exception if session does not exist or if error occurs.
+	 * Must not block operation.
+	 *
+	 * @param connectionIds
+	 */
+	void post( Collection<String> connectionIds, Object message );
+
+	/**
+	 * Post message to all connected clients.
+	 * Message is serialized once and the serialized form is shared by all the connections.
+	 * Must not throw any exception if error occurs.
+	 * Must not block operation.
+	 */
+	void broadcast( Object message );
+
+	/**
+	 * Subscribe client to topic. Subscriptions are removed when connection is closed.
+	 * Must not throw any exception if session does not exist.
+	 */
+	void subscribe( String connectionId, String topic );
+
+	/**
+	 * Unsubscribe client from topic.
+	 * Must not throw any exception if session or subscription does not exist.
+	 */
+	void unsubscribe( String connectionId, String topic );
+
+	/**
+	 * Post message to all clients subscribed to topic.
+	 * Message is serialized once and the serialized form is shared by all the connections.
+	 * Must not throw any exception if error occurs.
+	 * Must not block operation.
+	 */
+	void publish( String topic, Object message );
 }
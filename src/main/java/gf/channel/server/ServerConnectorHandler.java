@@ -7,4 +7,12 @@ public interface ServerConnectorHandler {
 	void onConnected( ServerConnector connector, String connectionId );
 	void onDisconnected( ServerConnector connector, String connectionId );
 	void onMessage( ServerConnector connector, String connectionId, Object message );
+
+	/**
+	 * Number of messages not confirmed by client reached high watermark (writable = false)
+	 * or dropped to low watermark (writable = true). Producers may skip or delay work for lagging
+	 * clients instead of having their connections closed on queue overflow.
+	 * May be called concurrently, use {@link ServerConnector#isWritable(String)} to get the current state.
+	 */
+	default void onWritabilityChanged( ServerConnector connector, String connectionId, boolean writable ) {}
 }
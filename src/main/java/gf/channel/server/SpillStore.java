@@ -0,0 +1,227 @@
+package gf.channel.server;
+
+import gf.channel.shared.Utf8;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Disk storage for queued messages of slow clients.
+ *
+ * Messages are appended to memory-mapped segment files, the connection queue keeps a small
+ * {@link Spilled} handle instead of the message. A segment file is deleted when all its messages
+ * are released (confirmed by client or dropped with the connection) and a newer segment is being written.
+ * Size of unreleased messages is limited, a full store refuses to spill.
+ * Deleted segments are unmapped right away: a mapping would keep the disk blocks of the deleted file
+ * until GC, which is rare when the data lives off-heap (see {@link MappedBuffers}).
+ * Data is not preserved between restarts: files are deleted on close.
+ *
+ * Thread safe, all operations are short and synchronized.
+ */
+public class SpillStore implements Closeable {
+    private final static Logger log = LoggerFactory.getLogger(SpillStore.class);
+
+    /** Message moved to disk */
+    public static final class Spilled {
+        private final Segment segment;
+        private final int offset;
+        private final int length;
+        /** Encoded as String by the serializer, stored as UTF-8 */
+        private final boolean text;
+
+        private Spilled(@Nonnull Segment segment, int offset, int length, boolean text) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.text = text;
+        }
+
+        public int getLength() {
+            return length;
+        }
+    }
+
+    private final File directory;
+    private final int segmentSize;
+    private final long maxBytes;
+    private final Map<Integer, Segment> segments = new HashMap<>();
+    @Nullable private Segment current;
+    private int nextSegment;
+    private long usedBytes;
+    private boolean closed;
+
+    /**
+     * @param directory directory for segment files, created if does not exist
+     * @param segmentSize size of a segment file, larger messages get a segment of their own
+     */
+    public SpillStore(@Nonnull File directory, int segmentSize) throws IOException {
+        this(directory, segmentSize, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param directory directory for segment files, created if does not exist
+     * @param segmentSize size of a segment file, larger messages get a segment of their own
+     * @param maxBytes limit of unreleased messages on disk of all connections
+     */
+    public SpillStore(@Nonnull File directory, int segmentSize, long maxBytes) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Cannot create directory " + directory);
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxBytes = maxBytes;
+    }
+
+
+    /**
+     * Write encoded message (String or byte[]) to disk
+     * @return null if the store is full
+     * @throws IOException if segment file cannot be created
+     */
+    public synchronized @Nullable Spilled spill(@Nonnull Object encoded) throws IOException {
+        if (closed)
+            throw new IOException("Spill store is closed");
+        boolean text = !(encoded instanceof byte[]);
+        int length = text ? Utf8.encodedLength((String) encoded) : ((byte[]) encoded).length;
+        if (usedBytes + length > maxBytes)
+            return null;
+
+        Segment segment = current;
+        if (segment == null || segment.buffer.capacity() - segment.position < length) {
+            segment = newSegment(Math.max(segmentSize, length));
+            if (current != null && current.liveBytes == 0)
+                delete(current);
+            current = segment;
+        }
+
+        int offset = segment.position;
+        ByteBuffer buffer = segment.buffer.duplicate();
+        buffer.position(offset);
+        if (text) {
+            byte[] data = new byte[length];
+            Utf8.encode((String) encoded, data, 0);
+            buffer.put(data);
+        } else {
+            buffer.put((byte[]) encoded);
+        }
+        segment.position += length;
+        segment.liveBytes += length;
+        usedBytes += length;
+        return new Spilled(segment, offset, length, text);
+    }
+
+
+    /**
+     * Read message back in the form it was spilled: String or byte[]
+     * @throws IOException if store was closed
+     */
+    public synchronized @Nonnull Object load(@Nonnull Spilled spilled) throws IOException {
+        if (closed || spilled.segment.deleted)
+            throw new IOException("Spilled message is not available");
+        byte[] data = new byte[spilled.length];
+        ByteBuffer buffer = spilled.segment.buffer.duplicate();
+        buffer.position(spilled.offset);
+        buffer.get(data);
+        return spilled.text ? Utf8.decode(data, 0, data.length) : data;
+    }
+
+
+    /**
+     * Copy spilled message straight from its segment into the array, UTF-8 if it was spilled as String
+     * @return number of copied bytes, {@link Spilled#getLength()}
+     * @throws IOException if store was closed
+     */
+    public synchronized int read(@Nonnull Spilled spilled, @Nonnull byte[] dst, int offset) throws IOException {
+        if (closed || spilled.segment.deleted)
+            throw new IOException("Spilled message is not available");
+        ByteBuffer buffer = spilled.segment.buffer.duplicate();
+        buffer.position(spilled.offset);
+        buffer.get(dst, offset, spilled.length);
+        return spilled.length;
+    }
+
+
+    /** Message is not needed anymore */
+    public synchronized void release(@Nonnull Spilled spilled) {
+        Segment segment = spilled.segment;
+        if (segment.deleted)
+            return;
+        segment.liveBytes -= spilled.length;
+        usedBytes -= spilled.length;
+        if (segment.liveBytes == 0 && segment != current)
+            delete(segment);
+    }
+
+
+    /** Size of messages on disk that were not released yet */
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+
+    /** Delete all segment files */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        for (Segment segment : segments.values().toArray(new Segment[0]))
+            delete(segment);
+        current = null;
+        usedBytes = 0;
+    }
+
+
+    private @Nonnull Segment newSegment(int size) throws IOException {
+        int index = nextSegment++;
+        File file = new File(directory, "spill-" + index + ".seg");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+            // the mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            Segment segment = new Segment(index, file, buffer);
+            segments.put(index, segment);
+            return segment;
+        }
+    }
+
+    /** Segment is not accessed after deletion: load() checks the flag holding the store monitor */
+    private void delete(@Nonnull Segment segment) {
+        segment.deleted = true;
+        segments.remove(segment.index);
+        MappedBuffers.unmap(segment.buffer);
+        if (!segment.file.delete())
+            log.warn("Failed to delete spill segment {}", segment.file);
+    }
+
+
+    private static final class Segment {
+        final int index;
+        final File file;
+        final MappedByteBuffer buffer;
+        int position;
+        long liveBytes;
+        boolean deleted;
+
+        Segment(int index, @Nonnull File file, @Nonnull MappedByteBuffer buffer) {
+            this.index = index;
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+}
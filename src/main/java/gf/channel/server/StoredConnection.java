@@ -0,0 +1,40 @@
+package gf.channel.server;
+
+import javax.annotation.Nonnull;
+import java.util.List;
+
+/**
+ * Connection state loaded from {@link ConnectionStore}
+ */
+public class StoredConnection {
+    private final String connId;
+    private final long firstSequence;
+    private final long receivedCounter;
+    private final List<Object> messages;
+
+    public StoredConnection(@Nonnull String connId, long firstSequence, long receivedCounter, @Nonnull List<Object> messages) {
+        this.connId = connId;
+        this.firstSequence = firstSequence;
+        this.receivedCounter = receivedCounter;
+        this.messages = messages;
+    }
+
+    public @Nonnull String getConnId() {
+        return connId;
+    }
+
+    /** Sequence number of the first message (number of messages confirmed by client) */
+    public long getFirstSequence() {
+        return firstSequence;
+    }
+
+    /** Number of messages received from client */
+    public long getReceivedCounter() {
+        return receivedCounter;
+    }
+
+    /** Messages not confirmed by client: String for text messages, byte[] otherwise */
+    public @Nonnull List<Object> getMessages() {
+        return messages;
+    }
+}
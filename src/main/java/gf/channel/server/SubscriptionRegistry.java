@@ -0,0 +1,70 @@
+package gf.channel.server;
+
+import javax.annotation.Nonnull;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Topic subscriptions of connections.
+ *
+ * Keeps topic -> connections index for publishing and connection -> topics index,
+ * so all subscriptions of a closed connection are removed without scanning topics.
+ * Both indexes are concurrent maps updated with per-key atomic compute(), empty sets are removed.
+ *
+ * Connections are compared by identity (connection classes do not override equals()).
+ */
+public class SubscriptionRegistry<C> {
+    private final ConcurrentHashMap<String, Set<C>> subscribers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<C, Set<String>> topics = new ConcurrentHashMap<>();
+
+    public void subscribe(@Nonnull C connection, @Nonnull String topic) {
+        add(subscribers, topic, connection);
+        add(topics, connection, topic);
+    }
+
+    public void unsubscribe(@Nonnull C connection, @Nonnull String topic) {
+        remove(topics, connection, topic);
+        remove(subscribers, topic, connection);
+    }
+
+    /** Remove all subscriptions of the connection */
+    public void unsubscribeAll(@Nonnull C connection) {
+        Set<String> connectionTopics = topics.remove(connection);
+        if (connectionTopics != null)
+            for (String topic : connectionTopics)
+                remove(subscribers, topic, connection);
+    }
+
+    /**
+     * Live view of topic subscribers. Iteration is weakly consistent and never throws
+     * ConcurrentModificationException.
+     */
+    public @Nonnull Set<C> getSubscribers(@Nonnull String topic) {
+        Set<C> set = subscribers.get(topic);
+        return set != null ? Collections.unmodifiableSet(set) : Collections.<C>emptySet();
+    }
+
+    /** Topics of the connection */
+    public @Nonnull Set<String> getTopics(@Nonnull C connection) {
+        Set<String> set = topics.get(connection);
+        return set != null ? Collections.unmodifiableSet(set) : Collections.<String>emptySet();
+    }
+
+
+    private static <K, V> void add(@Nonnull ConcurrentHashMap<K, Set<V>> index, @Nonnull K key, @Nonnull V value) {
+        index.compute(key, (k, set) -> {
+            if (set == null)
+                set = ConcurrentHashMap.newKeySet();
+            set.add(value);
+            return set;
+        });
+    }
+
+    private static <K, V> void remove(@Nonnull ConcurrentHashMap<K, Set<V>> index, @Nonnull K key, @Nonnull V value) {
+        index.computeIfPresent(key, (k, set) -> {
+            set.remove(value);
+            return set.isEmpty() ? null : set;
+        });
+    }
+}
@@ -0,0 +1,47 @@
+package gf.channel.server;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to virtual threads of Java 21+.
+ *
+ * This is the Java 8 version, it looks virtual threads up by reflection. The multi-release jar
+ * built with the java21 profile replaces it with a version calling the API directly
+ * (src/main/java21).
+ */
+public final class VirtualThreads {
+    private VirtualThreads() {}
+
+    public static boolean isSupported() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Executor starting a virtual thread per task
+     * @param namePrefix thread names are prefix followed by a counter
+     * @return null if the runtime has no virtual threads
+     */
+    public static @Nullable ExecutorService newExecutor(@Nonnull String namePrefix) {
+        try {
+            // Thread.ofVirtual().name(namePrefix, 0).factory()
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 0L);
+            Object factory = builderClass.getMethod("factory").invoke(builder);
+            return (ExecutorService) Executors.class
+                    .getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                    .invoke(null, factory);
+        } catch (Exception ex) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package gf.channel.server.cluster;
+
+import javax.annotation.Nonnull;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Transport of connector commands between cluster nodes.
+ * Implementations serialize messages as they need, commands of one batch must be
+ * delivered in order and batches sent to the same node must not be reordered.
+ */
+public interface ClusterBus {
+    /** Receives batches addressed to a node */
+    interface Receiver {
+        void receive(@Nonnull String fromNodeId, @Nonnull List<RoutedCommand> batch);
+    }
+
+    /** Start receiving batches addressed to the node */
+    void join(@Nonnull String nodeId, @Nonnull Receiver receiver);
+
+    void leave(@Nonnull String nodeId);
+
+    /** Nodes currently in the cluster, including local ones */
+    @Nonnull Set<String> getNodes();
+
+    /**
+     * Deliver batch to the node. Must not block.
+     * @return false if the node is not known to the bus
+     */
+    boolean send(@Nonnull String fromNodeId, @Nonnull String toNodeId, @Nonnull List<RoutedCommand> batch);
+}
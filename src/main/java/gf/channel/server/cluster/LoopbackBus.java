@@ -0,0 +1,49 @@
+package gf.channel.server.cluster;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-process bus connecting nodes of the same JVM, for tests and single-process deployments
+ * with several connectors. Batches are delivered synchronously in the sender thread.
+ */
+public class LoopbackBus implements ClusterBus {
+    private final static Logger log = LoggerFactory.getLogger(LoopbackBus.class);
+
+    private final ConcurrentHashMap<String, Receiver> receivers = new ConcurrentHashMap<>();
+
+    @Override
+    public void join(@Nonnull String nodeId, @Nonnull Receiver receiver) {
+        if (receivers.putIfAbsent(nodeId, receiver) != null)
+            throw new IllegalStateException("Node already joined: " + nodeId);
+    }
+
+    @Override
+    public void leave(@Nonnull String nodeId) {
+        receivers.remove(nodeId);
+    }
+
+    @Override
+    public @Nonnull Set<String> getNodes() {
+        return Collections.unmodifiableSet(receivers.keySet());
+    }
+
+    @Override
+    public boolean send(@Nonnull String fromNodeId, @Nonnull String toNodeId, @Nonnull List<RoutedCommand> batch) {
+        Receiver receiver = receivers.get(toNodeId);
+        if (receiver == null)
+            return false;
+        try {
+            receiver.receive(fromNodeId, batch);
+        } catch (Exception ex) {
+            log.error("Error delivering batch to node {}", toNodeId, ex);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,70 @@
+package gf.channel.server.cluster;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.List;
+
+/**
+ * Connector operation forwarded to another node
+ */
+public class RoutedCommand {
+    public enum Type {
+        POST, POST_MULTIPLE, TERMINATE, SUBSCRIBE, UNSUBSCRIBE, BROADCAST, PUBLISH
+    }
+
+    private final Type type;
+    @Nullable private final String connectionId;
+    @Nullable private final List<String> connectionIds;
+    @Nullable private final String topic;
+    @Nullable private final Object message;
+
+    /**
+     * Post the same message to several connections of the node, it is serialized once
+     */
+    public RoutedCommand(@Nonnull List<String> connectionIds, @Nullable Object message) {
+        this.type = Type.POST_MULTIPLE;
+        this.connectionId = null;
+        this.connectionIds = connectionIds;
+        this.topic = null;
+        this.message = message;
+    }
+
+    /**
+     * @param connectionId target connection, null for BROADCAST and PUBLISH
+     * @param topic topic of SUBSCRIBE, UNSUBSCRIBE and PUBLISH
+     * @param message message of POST, BROADCAST and PUBLISH
+     */
+    public RoutedCommand(@Nonnull Type type, @Nullable String connectionId, @Nullable String topic, @Nullable Object message) {
+        this.type = type;
+        this.connectionId = connectionId;
+        this.connectionIds = null;
+        this.topic = topic;
+        this.message = message;
+    }
+
+    public @Nonnull Type getType() {
+        return type;
+    }
+
+    public @Nullable String getConnectionId() {
+        return connectionId;
+    }
+
+    /** Target connections of POST_MULTIPLE */
+    public @Nullable List<String> getConnectionIds() {
+        return connectionIds;
+    }
+
+    public @Nullable String getTopic() {
+        return topic;
+    }
+
+    public @Nullable Object getMessage() {
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        return type + (connectionId != null ? " " + connectionId : "") + (topic != null ? " " + topic : "");
+    }
+}
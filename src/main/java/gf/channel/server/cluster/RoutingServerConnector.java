@@ -0,0 +1,393 @@
+package gf.channel.server.cluster;
+
+import gf.channel.server.HashedWheelTimer;
+import gf.channel.server.ServerConnector;
+import gf.channel.server.ServerConnectorHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connector of a cluster node that routes operations to the node owning the connection.
+ *
+ * Connection id starts with the id of the owning node: configure the local connector with
+ * connection id prefix {@link #connectionIdPrefix(String)}. Operations on local connections go to the
+ * local connector, operations on connections of other nodes are forwarded over the {@link ClusterBus}.
+ * Broadcasts and topic publishes are forwarded to every node. Forwarded commands are accumulated
+ * per destination node and sent in one batch when the batch is full or after linger period.
+ * Batches are sent outside of the batch monitor, one thread at a time per destination node keeping
+ * them ordered: delivery may call back into this connector (a synchronous bus applies the batch
+ * in the sender thread and the handler may forward again).
+ *
+ * Set the routing connector as the handler of the local connector: the application handler
+ * then receives this connector and its posts are routed.
+ */
+public class RoutingServerConnector implements ServerConnector {
+    private final static Logger log = LoggerFactory.getLogger(RoutingServerConnector.class);
+
+    /** Separates node id from the local part of connection id */
+    public final static char NODE_SEPARATOR = '.';
+
+    private final String nodeId;
+    private final ServerConnector local;
+    private final ClusterBus bus;
+
+    /** Delay sending of forwarded commands to batch them. 0 sends immediately. */
+    protected int lingerMillis = 10;
+
+    /** Send a batch before linger period if it reaches this number of commands */
+    protected int maxBatchCommands = 100;
+
+    protected HashedWheelTimer timer = HashedWheelTimer.getShared();
+
+    protected ServerConnectorHandler handler;
+
+    /** Destination node -> commands pending to be sent */
+    private final ConcurrentHashMap<String, Batch> batches = new ConcurrentHashMap<>();
+
+
+    private static class Batch {
+        final String nodeId;
+        List<RoutedCommand> commands = new ArrayList<>();
+        /** Batches taken for sending, in order */
+        final ArrayDeque<List<RoutedCommand>> outbox = new ArrayDeque<>();
+        /** A thread is sending the outbox */
+        boolean sending;
+        @Nullable
+        HashedWheelTimer.Timeout flushTask;
+
+        Batch(@Nonnull String nodeId) {
+            this.nodeId = nodeId;
+        }
+    }
+
+
+    public RoutingServerConnector(@Nonnull String nodeId, @Nonnull ServerConnector local, @Nonnull ClusterBus bus) {
+        if (nodeId.indexOf(NODE_SEPARATOR) >= 0)
+            throw new IllegalArgumentException("Node id must not contain '" + NODE_SEPARATOR + "': " + nodeId);
+        this.nodeId = nodeId;
+        this.local = local;
+        this.bus = bus;
+        bus.join(nodeId, new ClusterBus.Receiver() {
+            @Override
+            public void receive(@Nonnull String fromNodeId, @Nonnull List<RoutedCommand> batch) {
+                apply(batch);
+            }
+        });
+    }
+
+
+    /** Connection id prefix for the local connector of the node */
+    public static @Nonnull String connectionIdPrefix(@Nonnull String nodeId) {
+        return nodeId + NODE_SEPARATOR;
+    }
+
+    /**
+     * Node owning the connection
+     * @return null if connection id does not contain node id, such connections are treated as local
+     */
+    protected @Nullable String nodeOf(@Nonnull String connectionId) {
+        int i = connectionId.indexOf(NODE_SEPARATOR);
+        return i > 0 ? connectionId.substring(0, i) : null;
+    }
+
+    private boolean isLocal(@Nullable String owner) {
+        return owner == null || owner.equals(nodeId);
+    }
+
+
+    @Override
+    public void terminate(String connectionId) {
+        String owner = nodeOf(connectionId);
+        if (isLocal(owner))
+            local.terminate(connectionId);
+        else
+            forward(owner, new RoutedCommand(RoutedCommand.Type.TERMINATE, connectionId, null, null));
+    }
+
+    @Override
+    public void post(String connectionId, Object message) {
+        String owner = nodeOf(connectionId);
+        if (isLocal(owner))
+            local.post(connectionId, message);
+        else
+            forward(owner, new RoutedCommand(RoutedCommand.Type.POST, connectionId, null, message));
+    }
+
+    /**
+     * Writability of connections of other nodes is not known: they are reported writable
+     */
+    @Override
+    public boolean isWritable(String connectionId) {
+        return !isLocal(nodeOf(connectionId)) || local.isWritable(connectionId);
+    }
+
+    @Override
+    public void post(Collection<String> connectionIds, Object message) {
+        List<String> localIds = new ArrayList<>();
+        Map<String, List<String>> remoteIds = null;
+        for (String connectionId : connectionIds) {
+            String owner = nodeOf(connectionId);
+            if (isLocal(owner)) {
+                localIds.add(connectionId);
+            } else {
+                if (remoteIds == null)
+                    remoteIds = new HashMap<>();
+                remoteIds.computeIfAbsent(owner, k -> new ArrayList<>()).add(connectionId);
+            }
+        }
+        if (!localIds.isEmpty())
+            local.post(localIds, message);
+        if (remoteIds != null) {
+            for (Map.Entry<String, List<String>> entry : remoteIds.entrySet())
+                forward(entry.getKey(), new RoutedCommand(entry.getValue(), message));
+        }
+    }
+
+    @Override
+    public void broadcast(Object message) {
+        local.broadcast(message);
+        forwardToAll(new RoutedCommand(RoutedCommand.Type.BROADCAST, null, null, message));
+    }
+
+    @Override
+    public void subscribe(String connectionId, String topic) {
+        String owner = nodeOf(connectionId);
+        if (isLocal(owner))
+            local.subscribe(connectionId, topic);
+        else
+            forward(owner, new RoutedCommand(RoutedCommand.Type.SUBSCRIBE, connectionId, topic, null));
+    }
+
+    @Override
+    public void unsubscribe(String connectionId, String topic) {
+        String owner = nodeOf(connectionId);
+        if (isLocal(owner))
+            local.unsubscribe(connectionId, topic);
+        else
+            forward(owner, new RoutedCommand(RoutedCommand.Type.UNSUBSCRIBE, connectionId, topic, null));
+    }
+
+    @Override
+    public void publish(String topic, Object message) {
+        local.publish(topic, message);
+        forwardToAll(new RoutedCommand(RoutedCommand.Type.PUBLISH, null, topic, message));
+    }
+
+
+    /** Send pending batches of all nodes now */
+    public void flush() {
+        for (Batch batch : batches.values()) {
+            boolean send;
+            synchronized (batch) {
+                send = take(batch);
+            }
+            if (send)
+                send(batch);
+        }
+    }
+
+    /** Leave the cluster sending pending batches */
+    public void close() {
+        flush();
+        bus.leave(nodeId);
+    }
+
+
+    private void forwardToAll(@Nonnull RoutedCommand command) {
+        for (String node : bus.getNodes()) {
+            if (!node.equals(nodeId))
+                forward(node, command);
+        }
+    }
+
+    private void forward(@Nonnull String node, @Nonnull RoutedCommand command) {
+        final Batch batch = batches.computeIfAbsent(node, Batch::new);
+        boolean send = false;
+        // batch monitor keeps batches to the same node ordered
+        synchronized (batch) {
+            batch.commands.add(command);
+            if (lingerMillis <= 0 || batch.commands.size() >= maxBatchCommands) {
+                send = take(batch);
+            } else if (batch.flushTask == null) {
+                batch.flushTask = timer.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            boolean send = false;
+                            synchronized (batch) {
+                                // skip if flushed and rescheduled meanwhile
+                                if (batch.flushTask != null && batch.flushTask.isExpired()) {
+                                    batch.flushTask = null;
+                                    send = take(batch);
+                                }
+                            }
+                            if (send)
+                                send(batch);
+                        } catch (Exception ex) {
+                            log.error("Error forwarding commands to node {}", batch.nodeId, ex);
+                        }
+                    }
+                }, lingerMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (send)
+            send(batch);
+    }
+
+    /**
+     * Move accumulated commands to the outbox. Must be called holding batch monitor.
+     * @return true if the caller must send the outbox, false if another thread is sending it
+     */
+    private boolean take(@Nonnull Batch batch) {
+        if (batch.flushTask != null) {
+            batch.flushTask.cancel();
+            batch.flushTask = null;
+        }
+        if (!batch.commands.isEmpty()) {
+            batch.outbox.add(batch.commands);
+            batch.commands = new ArrayList<>();
+        }
+        if (batch.sending || batch.outbox.isEmpty())
+            return false;
+        batch.sending = true;
+        return true;
+    }
+
+    /** Send the outbox without holding batch monitor, including batches taken by other threads meanwhile */
+    private void send(@Nonnull Batch batch) {
+        for (;;) {
+            List<RoutedCommand> commands;
+            synchronized (batch) {
+                commands = batch.outbox.poll();
+                if (commands == null) {
+                    batch.sending = false;
+                    return;
+                }
+            }
+            try {
+                if (!bus.send(nodeId, batch.nodeId, commands))
+                    log.warn("Node {} is not in the cluster, {} command(s) dropped", batch.nodeId, commands.size());
+            } catch (Exception ex) {
+                log.error("Error forwarding commands to node {}", batch.nodeId, ex);
+            }
+        }
+    }
+
+
+    /** Execute commands received from another node on the local connector */
+    protected void apply(@Nonnull List<RoutedCommand> batch) {
+        for (RoutedCommand command : batch) {
+            try {
+                switch (command.getType()) {
+                    case POST:
+                        local.post(command.getConnectionId(), command.getMessage());
+                        break;
+                    case POST_MULTIPLE:
+                        local.post(command.getConnectionIds(), command.getMessage());
+                        break;
+                    case TERMINATE:
+                        local.terminate(command.getConnectionId());
+                        break;
+                    case SUBSCRIBE:
+                        local.subscribe(command.getConnectionId(), command.getTopic());
+                        break;
+                    case UNSUBSCRIBE:
+                        local.unsubscribe(command.getConnectionId(), command.getTopic());
+                        break;
+                    case BROADCAST:
+                        local.broadcast(command.getMessage());
+                        break;
+                    case PUBLISH:
+                        local.publish(command.getTopic(), command.getMessage());
+                        break;
+                }
+            } catch (Exception ex) {
+                log.error("Error applying forwarded command {}", command, ex);
+            }
+        }
+    }
+
+
+    public void setHandler(ServerConnectorHandler handler) {
+        this.handler = handler;
+    }
+
+    public ServerConnectorHandler getHandler() {
+        return handler;
+    }
+
+    @Override
+    public void onConnected(ServerConnector connector, String connectionId) {
+        if (handler != null)
+            try {
+                handler.onConnected(this, connectionId);
+            } catch (Exception ex) {
+                log.error("onConnected() error", ex);
+            }
+    }
+
+    @Override
+    public void onDisconnected(ServerConnector connector, String connectionId) {
+        if (handler != null)
+            try {
+                handler.onDisconnected(this, connectionId);
+            } catch (Exception ex) {
+                log.error("onDisconnected() error", ex);
+            }
+    }
+
+    @Override
+    public void onMessage(ServerConnector connector, String connectionId, Object message) {
+        if (handler != null)
+            try {
+                handler.onMessage(this, connectionId, message);
+            } catch (Exception ex) {
+                log.error("onMessage() error", ex);
+            }
+    }
+
+    @Override
+    public void onWritabilityChanged(ServerConnector connector, String connectionId, boolean writable) {
+        if (handler != null)
+            try {
+                handler.onWritabilityChanged(this, connectionId, writable);
+            } catch (Exception ex) {
+                log.error("onWritabilityChanged() error", ex);
+            }
+    }
+
+    public @Nonnull String getNodeId() {
+        return nodeId;
+    }
+
+    public @Nonnull ServerConnector getLocal() {
+        return local;
+    }
+
+    public int getLingerMillis() {
+        return lingerMillis;
+    }
+
+    public void setLingerMillis(int lingerMillis) {
+        this.lingerMillis = lingerMillis;
+    }
+
+    public int getMaxBatchCommands() {
+        return maxBatchCommands;
+    }
+
+    public void setMaxBatchCommands(int maxBatchCommands) {
+        this.maxBatchCommands = maxBatchCommands;
+    }
+}
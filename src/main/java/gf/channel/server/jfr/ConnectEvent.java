@@ -0,0 +1,20 @@
+package gf.channel.server.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("gf.channel.Connect")
+@Label("Channel Connect")
+@Description("New or restored channel connection")
+@Category("GWT Channel")
+@StackTrace(false)
+class ConnectEvent extends jdk.jfr.Event {
+    @Label("Transport")
+    String transport;
+
+    @Label("Connection Id")
+    String connectionId;
+}
@@ -0,0 +1,26 @@
+package gf.channel.server.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("gf.channel.Disconnect")
+@Label("Channel Disconnect")
+@Description("Channel connection closed")
+@Category("GWT Channel")
+@StackTrace(false)
+class DisconnectEvent extends jdk.jfr.Event {
+    @Label("Transport")
+    String transport;
+
+    @Label("Connection Id")
+    String connectionId;
+
+    @Label("Cause")
+    String cause;
+
+    @Label("Unconfirmed Messages")
+    int queueLength;
+}
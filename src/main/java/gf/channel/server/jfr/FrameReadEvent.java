@@ -0,0 +1,28 @@
+package gf.channel.server.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("gf.channel.FrameRead")
+@Label("Channel Frame Read")
+@Description("Inbound frame or request body parsed, duration covers parsing and acknowledgement")
+@Category("GWT Channel")
+@StackTrace(false)
+class FrameReadEvent extends jdk.jfr.Event {
+    @Label("Transport")
+    String transport;
+
+    @Label("Connection Id")
+    String connectionId;
+
+    @Label("Size")
+    @DataAmount(DataAmount.BYTES)
+    long bytes;
+
+    @Label("Messages")
+    int messages;
+}
@@ -0,0 +1,28 @@
+package gf.channel.server.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("gf.channel.FrameWrite")
+@Label("Channel Frame Write")
+@Description("Outbound frame or response body written, duration covers the socket write")
+@Category("GWT Channel")
+@StackTrace(false)
+class FrameWriteEvent extends jdk.jfr.Event {
+    @Label("Transport")
+    String transport;
+
+    @Label("Connection Id")
+    String connectionId;
+
+    @Label("Size")
+    @DataAmount(DataAmount.BYTES)
+    long bytes;
+
+    @Label("Messages")
+    int messages;
+}
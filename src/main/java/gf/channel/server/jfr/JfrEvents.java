@@ -0,0 +1,95 @@
+package gf.channel.server.jfr;
+
+import javax.annotation.Nullable;
+
+/**
+ * Commits channel events to Java Flight Recorder. References jdk.jfr classes,
+ * must be called only through {@link gf.channel.server.ChannelEvents} that checks JFR is available.
+ */
+public final class JfrEvents {
+    private JfrEvents() {
+    }
+
+    public static void connected(String transport, String connectionId) {
+        ConnectEvent event = new ConnectEvent();
+        if (event.shouldCommit()) {
+            event.transport = transport;
+            event.connectionId = connectionId;
+            event.commit();
+        }
+    }
+
+    public static void disconnected(String transport, String connectionId, String cause, int queueLength) {
+        DisconnectEvent event = new DisconnectEvent();
+        if (event.shouldCommit()) {
+            event.transport = transport;
+            event.connectionId = connectionId;
+            event.cause = cause;
+            event.queueLength = queueLength;
+            event.commit();
+        }
+    }
+
+    /** @return started event, null if the event type is disabled */
+    public static @Nullable Object beginFrameRead() {
+        FrameReadEvent event = new FrameReadEvent();
+        if (!event.isEnabled())
+            return null;
+        event.begin();
+        return event;
+    }
+
+    public static void endFrameRead(Object started, String transport, String connectionId, long bytes, int messages) {
+        FrameReadEvent event = (FrameReadEvent) started;
+        event.end();
+        if (event.shouldCommit()) {
+            event.transport = transport;
+            event.connectionId = connectionId;
+            event.bytes = bytes;
+            event.messages = messages;
+            event.commit();
+        }
+    }
+
+    /** @return started event, null if the event type is disabled */
+    public static @Nullable Object beginFrameWrite() {
+        FrameWriteEvent event = new FrameWriteEvent();
+        if (!event.isEnabled())
+            return null;
+        event.begin();
+        return event;
+    }
+
+    public static void endFrameWrite(Object started, String transport, String connectionId, long bytes, int messages) {
+        FrameWriteEvent event = (FrameWriteEvent) started;
+        event.end();
+        if (event.shouldCommit()) {
+            event.transport = transport;
+            event.connectionId = connectionId;
+            event.bytes = bytes;
+            event.messages = messages;
+            event.commit();
+        }
+    }
+
+    public static void queueFull(String transport, String connectionId, int queueLength, long queuedBytes) {
+        QueueFullEvent event = new QueueFullEvent();
+        if (event.shouldCommit()) {
+            event.transport = transport;
+            event.connectionId = connectionId;
+            event.queueLength = queueLength;
+            event.queuedBytes = queuedBytes;
+            event.commit();
+        }
+    }
+
+    public static void protocolMismatch(String transport, String connectionId, String reason) {
+        ProtocolMismatchEvent event = new ProtocolMismatchEvent();
+        if (event.shouldCommit()) {
+            event.transport = transport;
+            event.connectionId = connectionId;
+            event.reason = reason;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package gf.channel.server.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("gf.channel.ProtocolMismatch")
+@Label("Channel Protocol Mismatch")
+@Description("Invalid frame, command or counters received from client")
+@Category("GWT Channel")
+@StackTrace(false)
+class ProtocolMismatchEvent extends jdk.jfr.Event {
+    @Label("Transport")
+    String transport;
+
+    @Label("Connection Id")
+    String connectionId;
+
+    @Label("Reason")
+    String reason;
+}
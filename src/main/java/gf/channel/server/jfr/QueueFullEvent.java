@@ -0,0 +1,26 @@
+package gf.channel.server.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("gf.channel.QueueFull")
+@Label("Channel Queue Full")
+@Description("Connection closed because its outbound queue exceeded max length or max bytes")
+@Category("GWT Channel")
+class QueueFullEvent extends jdk.jfr.Event {
+    @Label("Transport")
+    String transport;
+
+    @Label("Connection Id")
+    String connectionId;
+
+    @Label("Queue Length")
+    int queueLength;
+
+    @Label("Queued Size")
+    @DataAmount(DataAmount.BYTES)
+    long queuedBytes;
+}
@@ -1,9 +1,25 @@
 package gf.channel.server.servlet;
 
+import gf.channel.server.ChannelEvents;
+import gf.channel.server.ConnectionStore;
+import gf.channel.server.ConnectorListener;
+import gf.channel.server.ConnectorListenerChain;
+import gf.channel.server.ConnectorMetrics;
+import gf.channel.server.DefaultConnectorMetrics;
+import gf.channel.server.Dispatcher;
+import gf.channel.server.HashedWheelTimer;
+import gf.channel.server.OutboundBudget;
+import gf.channel.server.QueueAccounting;
+import gf.channel.server.QueuedConnection;
 import gf.channel.server.ServerConnector;
 import gf.channel.server.ServerConnectorHandler;
-import gf.channel.shared.GwtStreamerSerializer;
+import gf.channel.server.SpillStore;
+import gf.channel.server.StoredConnection;
+import gf.channel.server.SubscriptionRegistry;
+import gf.channel.shared.ByteMessageSerializer;
 import gf.channel.shared.MessageSerializer;
+import gf.channel.shared.Utf8;
+import gf.channel.shared.Utf8MessageSerializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -15,10 +31,17 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Connection protocol
@@ -82,29 +105,70 @@ public class AsyncPollingConnectionServlet extends HttpServlet implements Server
     /** Max client message size */
     protected int maxMessageSize = 256000;
 
-	/** Terminate connection if queue size exceeds max length */
-	protected int maxQueueLength = 300;
+    /** Persistent connection state, lets clients resume connections after restart. Null disables persistence. */
+    @Nullable
+    protected ConnectionStore connectionStore;
 
-    private final static int HTTP_OK = 200;
-    private final static int HTTP_NO_CONTENT = 204;
-    private final static int HTTP_GONE = 410;  // connection closed
+    /** Delay completion of a waiting long poll to accumulate several messages in one response. 0 completes immediately. */
+    protected int lingerMillis = 0;
+
+    /** Complete waiting long poll before linger period if number of new messages reaches this limit */
+    protected int maxBatchMessages = 100;
+
+    /** Complete waiting long poll before linger period if size of new messages reaches this limit */
+    protected int maxBatchBytes = 64 * 1024;
+
+    /** Gzip responses of at least this size when client accepts gzip. Negative disables compression. */
+    protected int compressionThreshold = 1024;
+
+    protected final static int HTTP_OK = 200;
+    protected final static int HTTP_NO_CONTENT = 204;
+    protected final static int HTTP_GONE = 410;  // connection closed
     private static final int HTTP_INVALID_METHOD = 405; // method not allowed
 
-    private final static String PARAM_CONN_ID = "cid";
+    protected final static String PARAM_CONN_ID = "cid";
+
+    /** Transport name of flight recorder events */
+    private final static String TRANSPORT = "polling";
 
 	//private AtomicLong connIdCount = new AtomicLong( 0 );
 
+    /** Prepended to generated connection ids, e.g. to identify the owning cluster node */
+    protected String connectionIdPrefix = "";
+
     protected MessageSerializer messageSerializer;
 
-    protected Timer timer = new Timer("polling-cleaner", true);
+    /**
+     * Serializer of outgoing messages, UTF-8 of messageSerializer by default.
+     * Responses are text, so encoded messages must be UTF-8 text without \n.
+     */
+    protected ByteMessageSerializer byteMessageSerializer;
+
+    /** Connection expiry and delayed flushes */
+    protected HashedWheelTimer timer = HashedWheelTimer.getShared();
+
+    /** Runs handler callbacks with per-connection order, in the transport thread by default */
+    protected Dispatcher dispatcher = Dispatcher.direct();
+
+    /** Counters of connector internals, registered in JMX under the servlet name unless jmxEnabled=false */
+    protected ConnectorMetrics metrics = new DefaultConnectorMetrics();
+
+    /** Message lifecycle hooks, see {@link #addListener(ConnectorListener)} */
+    protected final ConnectorListenerChain listeners = new ConnectorListenerChain();
 
 
 	/** ConnectionId -> Connection */
-	private ConcurrentHashMap<String,Connection> connections = new ConcurrentHashMap<String, Connection>();
+	private final ConcurrentHashMap<String,Connection> connections = new ConcurrentHashMap<String, Connection>();
+	/** Queue limits, outbound budget and writability watermarks */
+	protected final QueueAccounting<Connection> queueAccounting = new QueueAccounting<>(connections.values(), this::evict);
+	/** Topic subscriptions of open connections */
+	private final SubscriptionRegistry<Connection> subscriptions = new SubscriptionRegistry<>();
+	/** Serializes restoring of connections from the store */
+	private final Object restoreLock = new Object();
 
 
-	protected static class Connection implements AsyncListener {
-		public String connId;
+	/** Queued messages are encoded bytes or {@link SpillStore.Spilled} handles */
+	protected class Connection extends QueuedConnection implements AsyncListener {
         public int receivedCounter;
         public volatile long lastUsedTimestamp = System.nanoTime();
         public boolean closing;
@@ -112,33 +176,55 @@ public class AsyncPollingConnectionServlet extends HttpServlet implements Server
         @Nullable
         public HttpSession session;
 
-		/** Serialized messages pending to send */
-		public List<String> queue = new ArrayList<>(100);
-        public long sentCounter;
+        /** Pending completion of the long poll with accumulated messages */
+        @Nullable
+        public HashedWheelTimer.Timeout flushTask;
+        /** Next check of connection inactivity */
+        @Nullable
+        public HashedWheelTimer.Timeout expiryTask;
 
 		/** Thread that serves the sending queue or null if no AsyncContext associated with this thread */
         @Nullable
 		public AsyncContext asyncContext;
+        /** Writer of the waiting poll response */
+        @Nullable
+        public ResponseWriter writer;
+
+        public Connection() {
+            super(128);
+        }
 
 
         @Override
         public synchronized void onComplete(AsyncEvent asyncEvent) throws IOException {
-            if (asyncEvent.getAsyncContext() == asyncContext)
+            // client was waiting for the whole long poll
+            lastUsedTimestamp = System.nanoTime();
+            if (asyncEvent.getAsyncContext() == asyncContext) {
                 asyncContext = null;
+                writer = null;
+            }
         }
         @Override
         public void onTimeout(AsyncEvent asyncEvent) throws IOException {
+            synchronized (this) {
+                // waiting poll is completed by its writer: data queued to it (SSE events) is not truncated
+                if (asyncEvent.getAsyncContext() == asyncContext) {
+                    endPoll(this, HTTP_NO_CONTENT);
+                    return;
+                }
+            }
+
+            // request that did not become the poll: its body or response was not transferred in time
             HttpServletResponse resp = (HttpServletResponse) asyncEvent.getAsyncContext().getResponse();
             resp.setStatus(HTTP_NO_CONTENT);
             asyncEvent.getAsyncContext().complete();
-
-            if (asyncEvent.getAsyncContext() == asyncContext)
-                asyncContext = null;
         }
         @Override
-        public void onError(AsyncEvent asyncEvent) throws IOException {
-            if (asyncEvent.getAsyncContext() == asyncContext)
+        public synchronized void onError(AsyncEvent asyncEvent) throws IOException {
+            if (asyncEvent.getAsyncContext() == asyncContext) {
                 asyncContext = null;
+                writer = null;
+            }
         }
         @Override
         public void onStartAsync(AsyncEvent asyncEvent) throws IOException {
@@ -154,40 +240,38 @@ public class AsyncPollingConnectionServlet extends HttpServlet implements Server
         try { this.maxMessageSize = Integer.parseInt(config.getInitParameter("maxMessageSize")); } catch ( Exception ex ) {}
 		try { this.longPollingTimeout = Integer.parseInt( config.getInitParameter( "longPollingTimeout" ) ); } catch ( Exception ex ) {}
         try { this.connectionTimeout = Integer.parseInt( config.getInitParameter( "connectionTimeout" ) ); } catch ( Exception ex ) {}
-        try { this.maxQueueLength = Integer.parseInt( config.getInitParameter( "maxQueueLength" ) ); } catch ( Exception ex ) {}
+        queueAccounting.configure(config);
+        try { this.lingerMillis = Integer.parseInt( config.getInitParameter( "lingerMillis" ) ); } catch ( Exception ex ) {}
+        try { this.maxBatchMessages = Integer.parseInt( config.getInitParameter( "maxBatchMessages" ) ); } catch ( Exception ex ) {}
+        try { this.maxBatchBytes = Integer.parseInt( config.getInitParameter( "maxBatchBytes" ) ); } catch ( Exception ex ) {}
+        try { this.compressionThreshold = Integer.parseInt( config.getInitParameter( "compressionThreshold" ) ); } catch ( Exception ex ) {}
+        if (config.getInitParameter("connectionIdPrefix") != null)
+            this.connectionIdPrefix = config.getInitParameter("connectionIdPrefix");
+
+        setMessageSerializer(InitParams.messageSerializer(config));
+        ConnectionStore store = InitParams.connectionStore(config, connectionTimeout);
+        if (store != null)
+            connectionStore = store;
+        ByteMessageSerializer bser = InitParams.byteMessageSerializer(config);
+        if (bser != null)
+            byteMessageSerializer = bser;
+        InitParams.registerMetrics(config, metrics);
+        Dispatcher d = InitParams.dispatcher(config);
+        if (d != null)
+            dispatcher = d;
+    }
 
-        String mserClass = config.getInitParameter("messageSerializerClass");
-        if (mserClass == null) {
-            messageSerializer = new GwtStreamerSerializer();
-        } else {
-            try {
-                Class<?> cl = Thread.currentThread().getContextClassLoader().loadClass(mserClass);
-                messageSerializer = (MessageSerializer) cl.newInstance();
-            } catch (Exception ex) {
-                throw new ServletException(ex);
-            }
-        }
 
-        timer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                try {
-                    long timestamp = System.nanoTime();
-                    List<Connection> connectionsCloned = new ArrayList<Connection>(connections.values());
-                    for (Connection conn : connectionsCloned) {
-                        if (TimeUnit.MILLISECONDS.convert(
-                                timestamp - conn.lastUsedTimestamp,
-                                TimeUnit.NANOSECONDS) > connectionTimeout) {
-                            synchronized (conn) {
-                                closeConnection(conn, null, null);
-                            }
-                        }
-                    }
-                } catch (Exception e) {
-                    log.error("WTF!", e);
-                }
-            }
-        }, 30000, 10000);
+    @Override
+    public void destroy() {
+        if (queueAccounting.getSpillStore() != null)
+            queueAccounting.getSpillStore().close();
+        if (connectionStore != null)
+            connectionStore.close();
+        dispatcher.shutdown();
+        if (metrics instanceof DefaultConnectorMetrics)
+            ((DefaultConnectorMetrics) metrics).unregister();
+        super.destroy();
     }
 
 
@@ -195,7 +279,7 @@ public class AsyncPollingConnectionServlet extends HttpServlet implements Server
 		//return Long.toString(connIdCount.incrementAndGet());
         String uuid;
         do {
-            uuid = UUID.randomUUID().toString();
+            uuid = connectionIdPrefix + UUID.randomUUID().toString();
         } while (connections.containsKey(uuid));
         return uuid;
     }
@@ -215,6 +299,8 @@ public class AsyncPollingConnectionServlet extends HttpServlet implements Server
         resp.setHeader("Cache-Control", "no-cache");
         resp.setHeader("Cache-Control", "no-store");
         resp.setDateHeader("Expires", 0);
+        if (compressionThreshold >= 0)
+            resp.setHeader("Vary", "Accept-Encoding");
 
         if ( connId == null ) {
 			/*
@@ -227,6 +313,8 @@ public class AsyncPollingConnectionServlet extends HttpServlet implements Server
             if (createSession)
                 conn.session = req.getSession();
 
+            if (connectionStore != null)
+                connectionStore.created(connId);
 			connections.put(connId, conn);
 
             try {
@@ -239,9 +327,14 @@ public class AsyncPollingConnectionServlet extends HttpServlet implements Server
             } catch (Exception ex) {
                 log.error("Connection error while creating connection: {}", connId, ex);
                 connections.remove(connId);
+                if (connectionStore != null)
+                    connectionStore.removed(connId);
                 return;
             }
 
+            metrics.connected();
+            ChannelEvents.connected(getTransportName(), connId);
+            scheduleExpiry(conn, connectionTimeout);
             onConnected(this, connId);
         }
         else {
@@ -249,6 +342,9 @@ public class AsyncPollingConnectionServlet extends HttpServlet implements Server
 			 * poll request
 			 */
 			Connection conn = connections.get(connId);
+			// connection created before restart
+			if (conn == null && connectionStore != null)
+			    conn = restoreConnection(connId, req);
 
 			// expired connection - disconnect
 			if (conn == null) {
@@ -257,7 +353,43 @@ public class AsyncPollingConnectionServlet extends HttpServlet implements Server
                 return;
 			}
 
-            List<Object> msgs = new ArrayList<>();
+            // body is parsed when it was received completely: a slow client holds neither a thread nor the connection
+            final Connection c = conn;
+            final AsyncContext asyncCtx = req.startAsync();
+            asyncCtx.setTimeout(longPollingTimeout);
+            asyncCtx.addListener(conn);
+            final ResponseWriter writer = new ResponseWriter(asyncCtx);
+            new RequestReader(req.getInputStream(), maxRequestSize(),
+                    body -> process(c, req, resp, writer, body),
+                    writer::complete).start();
+        }
+	}
+
+
+    /**
+     * Handle request of the connection after its body was received
+     * @param body null if it exceeds the size limit
+     */
+    private void process(@Nonnull Connection conn, @Nonnull HttpServletRequest req, @Nonnull HttpServletResponse resp,
+                         @Nonnull ResponseWriter writer, @Nullable byte[] body) {
+        String connId = conn.connId;
+        List<Object> msgs = new ArrayList<>();
+        boolean writableChanged = false;
+        // request became the waiting poll, it is completed later
+        boolean waiting = false;
+        // closed while holding the monitor, reported after releasing it
+        boolean disconnected = false;
+
+        try {
+            // decompressed before taking the connection monitor, null if too large
+            byte[] text = null;
+            IOException malformed = null;
+            try {
+                if (body != null)
+                    text = decodeBody(req, body);
+            } catch (IOException ex) {
+                malformed = ex;
+            }
 
             synchronized (conn) {
                 // double check if was removed by other thread
@@ -269,132 +401,314 @@ public class AsyncPollingConnectionServlet extends HttpServlet implements Server
                 }
 
                 // old polling is in progress, terminate it
-                if (conn.asyncContext != null) {
-                    HttpServletResponse r = (HttpServletResponse) conn.asyncContext.getResponse();
-                    r.setStatus(HTTP_NO_CONTENT);
-                    conn.asyncContext.complete();
-                    conn.asyncContext = null;
-                }
+                if (conn.asyncContext != null && replacesPoll(req))
+                    endPoll(conn, HTTP_NO_CONTENT);
 
                 // session expired - disconnect
                 if (createSession && req.getSession(false) == null) {
                     log.warn("Session expired for connection: {}", connId);
-                    closeConnection(conn, req, resp);
-                    onDisconnected(this, connId);
+                    closeConnection(conn, req, resp, ConnectorMetrics.DisconnectCause.TIMEOUT);
+                    disconnected = true;
                     return;
                 }
 
                 if ("DELETE".equals(req.getMethod())) {
                     // request from client to close connection
-                    closeConnection(conn, req, resp);
-                    onDisconnected(this, connId);
+                    closeConnection(conn, req, resp, ConnectorMetrics.DisconnectCause.CLIENT_CLOSE);
+                    disconnected = true;
                     return;
                 }
-                else if (!"POST".equals(req.getMethod()) && !"PUT".equals(req.getMethod())) {
+                else if (!"POST".equals(req.getMethod()) && !isPoll(req)) {
                     resp.setStatus(HTTP_INVALID_METHOD);
                     return;
                 }
 
+                if (malformed != null) {
+                    log.warn("Protocol mismatch (malformed request), connection: {}", connId, malformed);
+                    ChannelEvents.protocolMismatch(getTransportName(), connId, "malformed request");
+                    closeConnection(conn, req, resp, ConnectorMetrics.DisconnectCause.PROTOCOL_MISMATCH);
+                    disconnected = true;
+                    return;
+                }
+                if (text == null) {
+                    log.warn("Request too large to process: {}", connId);
+                    ChannelEvents.protocolMismatch(getTransportName(), connId, "request too large");
+                    closeConnection(conn, req, resp, ConnectorMetrics.DisconnectCause.PROTOCOL_MISMATCH);
+                    disconnected = true;
+                    return;
+                }
+
                 conn.lastUsedTimestamp = System.nanoTime();
-                BufferedReader in = req.getReader();
+                @Nullable Object readEvent = ChannelEvents.beginFrameRead();
                 int msgSize = 0;
+                long msgNumberReceivedFromServer;
+                // the whole body is parsed before the connection is changed: a malformed body
+                // must not advance the counter, or the messages resent by client are discarded as duplicates
+                int receivedCounter = conn.receivedCounter;
+                try {
+                    BufferedReader in = getBodyReader(req, text);
+                    msgNumberReceivedFromServer = Long.parseLong(in.readLine());
+                    long firstMessageNumberOffset = Long.parseLong(in.readLine());
+
+                    // read messages
+                    for (long readMsgNumber = firstMessageNumberOffset; ; readMsgNumber++) {
+                        String msg = in.readLine();
+                        if (msg == null) break;
+
+                        msgSize += msg.length();
+
+                        if (msgSize > maxMessageSize) {
+                            log.warn("Message too large to process: {}", connId);
+                            ChannelEvents.protocolMismatch(getTransportName(), connId, "message too large");
+                            closeConnection(conn, req, resp, ConnectorMetrics.DisconnectCause.PROTOCOL_MISMATCH);
+                            disconnected = true;
+                            return;
+                        }
 
-                long msgNumberReceivedFromServer = Long.parseLong(in.readLine());
-                long firstMessageNumberOffset = Long.parseLong(in.readLine());
-                //boolean wasMessagesReceived = false;
-
-                // read and process messages
-                for (long readMsgNumber = firstMessageNumberOffset; ; readMsgNumber++) {
-                    String msg = in.readLine();
-                    if (msg == null) break;
-                    //wasMessagesReceived = true;
-
-                    msgSize += msg.length();
+                        // discard duplicates
+                        if (readMsgNumber < receivedCounter)
+                            continue;
 
-                    if (msgSize > maxMessageSize) {
-                        log.warn("Message too large to process: {}", connId);
-                        closeConnection(conn, req, resp);
-                        onDisconnected(this, connId);
-                        return;
+                        if (messageSerializer != null) {
+                            msgs.add(messageSerializer.fromString(msg));
+                        } else {
+                            byte[] data = utf8(msg);
+                            msgs.add(byteMessageSerializer.fromBytes(data, 0, data.length));
+                        }
+                        receivedCounter++;
                     }
-
-                    // discard duplicates
-                    if (readMsgNumber < conn.receivedCounter)
-                        continue;
-
-                    Object  message = messageSerializer.fromString(msg);
-                    msgs.add(message);
-                    conn.receivedCounter++;
+                } catch (IOException | RuntimeException ex) {
+                    log.warn("Protocol mismatch (malformed request), connection: {}", connId, ex);
+                    ChannelEvents.protocolMismatch(getTransportName(), connId, "malformed request");
+                    closeConnection(conn, req, resp, ConnectorMetrics.DisconnectCause.PROTOCOL_MISMATCH);
+                    disconnected = true;
+                    return;
                 }
+                metrics.received(msgs.size(), body.length);
+                ChannelEvents.endFrameRead(readEvent, getTransportName(), connId, Math.max(body.length, msgSize), msgs.size());
 
                 // we use synchronization here to send synchronous responses in the same HttpResponse
-                // protocol mismatch - older events were removed
-                if (msgNumberReceivedFromServer < conn.sentCounter) {
+                // protocol mismatch - older events were removed or confirmed events were never sent
+                if (msgNumberReceivedFromServer < conn.queue.getFirstSequence()
+                        || msgNumberReceivedFromServer > conn.queue.getNextSequence()) {
                     log.warn("Protocol mismatch, connection: {}", connId);
-                    closeConnection(conn, req, resp);
-                    onDisconnected(this, connId);
+                    ChannelEvents.protocolMismatch(getTransportName(), connId, "counters");
+                    closeConnection(conn, req, resp, ConnectorMetrics.DisconnectCause.PROTOCOL_MISMATCH);
+                    disconnected = true;
                     return;
                 }
 
-                // removing messages from queue confirmed by client
-                while (conn.sentCounter < msgNumberReceivedFromServer) {
-                    conn.queue.remove(0);
-                    conn.sentCounter++;
+                // body is valid: messages are accepted
+                if (!listeners.isEmpty()) {
+                    for (Object message : msgs)
+                        listeners.received(this, connId, message);
                 }
+                boolean receivedChanged = receivedCounter != conn.receivedCounter;
+                conn.receivedCounter = receivedCounter;
+                long firstSequence = conn.queue.getFirstSequence();
 
-                if (!conn.queue.isEmpty()) {
-                    resp.setStatus(HTTP_OK);
-                    StringBuilder sb = new StringBuilder()
-                            .append(conn.receivedCounter).append('\n')
-                            .append(conn.sentCounter).append('\n');
-
-                    for (String msg : conn.queue) {
-                        sb.append(msg).append('\n');
-                    }
+                // removing messages from queue confirmed by client
+                acknowledge(conn, msgNumberReceivedFromServer);
+                writableChanged = queueAccounting.updateWritable(conn);
+                if (connectionStore != null && (receivedChanged || firstSequence != conn.queue.getFirstSequence()))
+                    connectionStore.acknowledged(connId, conn.queue.getFirstSequence(), conn.receivedCounter);
 
-                    resp.getOutputStream().print(sb.toString());
-                } else if (conn.closing) {
+                if (conn.closing && conn.queue.isEmpty()) {
                     // server-side connection close requested and no more messages pending in queue
-                    closeConnection(conn, req, resp);
-                    onDisconnected(this, connId);
+                    closeConnection(conn, req, resp, ConnectorMetrics.DisconnectCause.SERVER_CLOSE);
+                    disconnected = true;
                     return;
-                } else if (/*wasMessagesReceived || */"POST".equals(req.getMethod())) {
-                    resp.setStatus(HTTP_OK);
-                    resp.getOutputStream().print(
-                            conn.receivedCounter + "\n" + conn.sentCounter + "\n"
-                    );
-                }
-                else {
-                    // start long polling
-                    AsyncContext asyncCtx = req.startAsync();
-                    asyncCtx.setTimeout(longPollingTimeout);
-                    asyncCtx.addListener(conn);
-                    conn.asyncContext = asyncCtx;
-                    conn.asyncContext = null;
                 }
+                respond(conn, req, resp, writer);
+                waiting = conn.writer == writer;
+            }
+        } catch (IOException | RuntimeException ex) {
+            // accepted messages are processed, the client gets them confirmed by the next response
+            log.warn("Error responding, connId={}", connId, ex);
+        } finally {
+            if (!waiting)
+                writer.complete();
+            if (disconnected)
+                onDisconnected(this, connId);
+        }
+
+        if (writableChanged)
+            onWritabilityChanged(this, connId, true);
+
+        // process messages
+        for (Object msg : msgs) {
+            onMessage(this, connId, msg);
+        }
+    }
+
+    /** Limit of request body: UTF-8 text of maxMessageSize characters and counters */
+    private int maxRequestSize() {
+        return (int) Math.min(Integer.MAX_VALUE, 4L * maxMessageSize + 1024);
+    }
+
+
+    /** Request waits for messages: long poll */
+    protected boolean isPoll(@Nonnull HttpServletRequest req) {
+        return "PUT".equals(req.getMethod());
+    }
+
+    /** Request from the client completes the waiting poll, any request does in long polling */
+    protected boolean replacesPoll(@Nonnull HttpServletRequest req) {
+        return true;
+    }
+
+    /** Counters and messages of the received and decompressed request body separated by \n */
+    protected @Nonnull BufferedReader getBodyReader(@Nonnull HttpServletRequest req, @Nonnull byte[] body) throws IOException {
+        return new BufferedReader(new InputStreamReader(new ByteArrayInputStream(body), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decompress gzipped request body, null if it inflates beyond {@link #maxRequestSize()}:
+     * the limit of received bytes alone lets a small compressed body exhaust the heap
+     */
+    private @Nullable byte[] decodeBody(@Nonnull HttpServletRequest req, @Nonnull byte[] body) throws IOException {
+        // JVM clients gzip large request bodies
+        if (!"gzip".equalsIgnoreCase(req.getHeader("Content-Encoding")))
+            return body;
+        int limit = maxRequestSize();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.min(limit, 4 * body.length + 256));
+        byte[] buffer = new byte[8192];
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+            for (int n; (n = in.read(buffer)) >= 0; ) {
+                if (out.size() + n > limit)
+                    return null;
+                out.write(buffer, 0, n);
             }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Respond to a post or a poll after its messages were read and confirmed messages removed:
+     * write all messages pending to be confirmed, counters or wait for new messages.
+     * Must be called holding connection monitor.
+     */
+    protected void respond(@Nonnull Connection conn, @Nonnull HttpServletRequest req,
+                           @Nonnull HttpServletResponse resp, @Nonnull ResponseWriter writer) throws IOException {
+        if (!conn.queue.isEmpty()) {
+            writeQueue(conn, req, resp, writer);
+        } else if (/*wasMessagesReceived || */"POST".equals(req.getMethod())) {
+            writeCounters(conn, resp, writer);
+        }
+        else {
+            // start long polling: enqueued messages complete it
+            conn.asyncContext = writer.getAsyncContext();
+            conn.writer = writer;
+        }
+    }
+
+    /** Response without messages: number of messages received from client and confirmed by client */
+    protected void writeCounters(@Nonnull Connection conn, @Nonnull HttpServletResponse resp,
+                                 @Nonnull ResponseWriter writer) {
+        resp.setStatus(HTTP_OK);
+        String header = conn.receivedCounter + "\n" + conn.queue.getFirstSequence() + "\n";
+        metrics.sent(0, header.length());
+        @Nullable Object writeEvent = ChannelEvents.beginFrameWrite();
+        writer.write(utf8(header));
+        ChannelEvents.endFrameWrite(writeEvent, getTransportName(), conn.connId, header.length(), 0);
+    }
+
+
+    /**
+     * Recreate connection from the connection store, client resumes it with the next poll
+     * @return null if the store does not have the connection
+     */
+    private @Nullable Connection restoreConnection(@Nonnull String connId, @Nonnull HttpServletRequest req) {
+        Connection conn;
+        synchronized (restoreLock) {
+            conn = connections.get(connId);
+            if (conn != null)
+                return conn;
+            @Nullable StoredConnection stored = connectionStore.restore(connId);
+            if (stored == null)
+                return null;
+
+            conn = new Connection();
+            conn.connId = connId;
+            if (createSession)
+                conn.session = req.getSession(false);
+            conn.receivedCounter = (int) stored.getReceivedCounter();
+            conn.queue.setFirstSequence(stored.getFirstSequence());
+            for (Object msg : stored.getMessages())
+                conn.queue.add(msg instanceof byte[] ? (byte[]) msg : utf8((String) msg));
+            // every poll response contains the whole queue
+            conn.flushedSequence = conn.queue.getNextSequence();
+            queueAccounting.restored(conn);
+            connections.put(connId, conn);
+        }
 
-            // process messages
-            for (Object msg : msgs) {
-                onMessage(this, connId, msg);
+        log.info("Connection restored: {}, {} message(s) pending", connId, conn.queue.size());
+        metrics.connected();
+        ChannelEvents.connected(getTransportName(), connId);
+        scheduleExpiry(conn, connectionTimeout);
+        onConnected(this, connId);
+        return conn;
+    }
+
+
+    /**
+     * Check connection inactivity after the delay. Requests do not reschedule the check:
+     * when it runs it only reschedules itself for the new deadline.
+     */
+    private void scheduleExpiry(@Nonnull final Connection conn, long delayMillis) {
+        conn.expiryTask = timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                checkExpiry(conn);
             }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+
+    private void checkExpiry(@Nonnull Connection conn) {
+        synchronized (conn) {
+            if (connections.get(conn.connId) != conn)
+                return;
+
+            long idle = TimeUnit.MILLISECONDS.convert(
+                    System.nanoTime() - conn.lastUsedTimestamp,
+                    TimeUnit.NANOSECONDS);
+            if (idle <= connectionTimeout) {
+                scheduleExpiry(conn, connectionTimeout - idle + 1);
+                return;
+            }
+            closeConnection(conn, null, null, ConnectorMetrics.DisconnectCause.TIMEOUT);
         }
-	}
+        onDisconnected(this, conn.connId);
+    }
 
 
+    /**
+     * Remove connection and release its messages. Must be called holding connection monitor,
+     * the caller reports {@link #onDisconnected} after releasing it.
+     */
     private void closeConnection(@Nonnull Connection conn,
                                  @Nullable HttpServletRequest req,
-                                 @Nullable HttpServletResponse resp)
+                                 @Nullable HttpServletResponse resp,
+                                 @Nonnull ConnectorMetrics.DisconnectCause cause)
     {
         connections.remove(conn.connId);
+        conn.closed = true;
+        metrics.disconnected(cause);
+        ChannelEvents.disconnected(getTransportName(), conn.connId, cause, conn.queue.size());
+        if (!listeners.isEmpty() && !conn.queue.isEmpty())
+            listeners.dropped(this, conn.connId, conn.queue.getFirstSequence(), conn.queue.getNextSequence());
+        if (connectionStore != null)
+            connectionStore.removed(conn.connId);
+        queueAccounting.release(conn);
+        cancelFlush(conn);
+        if (conn.expiryTask != null)
+            conn.expiryTask.cancel();
+        subscriptions.unsubscribeAll(conn);
 
         if (conn.asyncContext != null) {
             // old polling is in progress, terminate it
-            HttpServletResponse r = (HttpServletResponse) conn.asyncContext.getResponse();
-            r.setHeader("Connection", "close");
-            r.setStatus(HTTP_GONE);
-            conn.asyncContext.complete();
-            conn.asyncContext = null;
+            endPoll(conn, HTTP_GONE);
         }
 
         if (resp != null) {
@@ -407,6 +721,20 @@ public class AsyncPollingConnectionServlet extends HttpServlet implements Server
     }
 
 
+    /** Close connection whose client sends faster than the handler processes */
+    private void closeOverflowed(@Nonnull String connectionId) {
+        Connection conn = connections.get(connectionId);
+        if (conn == null)
+            return;
+        synchronized (conn) {
+            if (conn.closed)
+                return;
+            closeConnection(conn, null, null, ConnectorMetrics.DisconnectCause.MAILBOX_FULL);
+        }
+        onDisconnected(this, connectionId);
+    }
+
+
     @Override
 	public void terminate( String connectionId )
 	{
@@ -418,10 +746,7 @@ public class AsyncPollingConnectionServlet extends HttpServlet implements Server
 
                 if (conn.asyncContext != null) {
                     // old polling is in progress, terminate it
-                    HttpServletResponse r = (HttpServletResponse) conn.asyncContext.getResponse();
-                    r.setStatus(HTTP_NO_CONTENT);
-                    conn.asyncContext.complete();
-                    conn.asyncContext = null;
+                    endPoll(conn, HTTP_NO_CONTENT);
                 }
             }
         }
@@ -429,48 +754,318 @@ public class AsyncPollingConnectionServlet extends HttpServlet implements Server
 
 	
 	@Override
-	public synchronized void post(String connectionId, Object message) {
+	public void post(String connectionId, Object message) {
         Connection conn = connections.get(connectionId);
 		
 		if ( conn != null ) {
-            // TODO: implement here a delay before sending message to accumulate several
-            // messages in one response
-			synchronized (conn) {
-                if (conn.closing)
-                    return;
+            // serialize outside of any lock: posts to different connections do not contend
+            enqueue(conn, byteMessageSerializer.toBytes(message));
+		}
+	}
 
-                if (conn.queue.size() >= maxQueueLength) {
-                    log.warn("Queue is full, connId={}", conn.connId);
-                    closeConnection(conn, null, null);
-                    return;
+
+    @Override
+    public void post(Collection<String> connectionIds, Object message) {
+        // serialized once, the same bytes are queued and written for every connection
+        @Nullable byte[] messageText = null;
+        for (String connectionId : connectionIds) {
+            Connection conn = connections.get(connectionId);
+            if (conn != null) {
+                if (messageText == null)
+                    messageText = byteMessageSerializer.toBytes(message);
+                enqueue(conn, messageText);
+            }
+        }
+    }
+
+
+    @Override
+    public void broadcast(Object message) {
+        if (connections.isEmpty())
+            return;
+        byte[] messageText = byteMessageSerializer.toBytes(message);
+        for (Connection conn : connections.values())
+            enqueue(conn, messageText);
+    }
+
+
+    @Override
+    public void subscribe(String connectionId, String topic) {
+        Connection conn = connections.get(connectionId);
+        if (conn != null) {
+            subscriptions.subscribe(conn, topic);
+            // connection was closed concurrently and its subscriptions may be already removed
+            if (connections.get(connectionId) != conn)
+                subscriptions.unsubscribeAll(conn);
+        }
+    }
+
+
+    @Override
+    public void unsubscribe(String connectionId, String topic) {
+        Connection conn = connections.get(connectionId);
+        if (conn != null)
+            subscriptions.unsubscribe(conn, topic);
+    }
+
+
+    @Override
+    public void publish(String topic, Object message) {
+        Set<Connection> subscribers = subscriptions.getSubscribers(topic);
+        if (subscribers.isEmpty())
+            return;
+        byte[] messageText = byteMessageSerializer.toBytes(message);
+        for (Connection conn : subscribers)
+            enqueue(conn, messageText);
+    }
+
+
+    /**
+     * Append serialized message to connection queue and send it immediately or schedule sending.
+     */
+    private void enqueue(@Nonnull Connection conn, @Nonnull byte[] messageText) {
+        int size = messageText.length;
+        if (!queueAccounting.reserve(conn, size))
+            return;
+
+        boolean writableChanged = false;
+        // closed while holding the monitor, reported after releasing it
+        boolean disconnected = false;
+        synchronized (conn) {
+            if (conn.closing || conn.closed) {
+                queueAccounting.unreserve(size);
+                return;
+            }
+
+            if (queueAccounting.isFull(conn, size)) {
+                queueAccounting.unreserve(size);
+                log.warn("Queue is full, connId={}", conn.connId);
+                ChannelEvents.queueFull(getTransportName(), conn.connId, conn.queue.size(), conn.queuedBytes);
+                closeConnection(conn, null, null, ConnectorMetrics.DisconnectCause.QUEUE_FULL);
+                disconnected = true;
+            } else {
+                writableChanged = append(conn, messageText);
+                if (!queueAccounting.spill(conn)) {
+                    log.warn("Spilled queue is full, connId={}", conn.connId);
+                    ChannelEvents.queueFull(getTransportName(), conn.connId, conn.queue.size(), conn.queuedBytes + conn.spilledBytes);
+                    closeConnection(conn, null, null, ConnectorMetrics.DisconnectCause.QUEUE_FULL);
+                    disconnected = true;
                 }
+            }
+        }
 
-                String messageText = messageSerializer.toString(message);
-                conn.queue.add(messageText);
+        // outside of the monitor: handler may post or check other connections
+        if (disconnected)
+            onDisconnected(this, conn.connId);
+        else if (writableChanged)
+            onWritabilityChanged(this, conn.connId, false);
+    }
 
-                if (conn.asyncContext != null) {
-                    try {
-                        HttpServletResponse resp = (HttpServletResponse) conn.asyncContext.getResponse();
-                        resp.setStatus(HTTP_OK);
-                        StringBuilder sb = new StringBuilder()
-                                .append(conn.receivedCounter).append('\n')
-                                .append(conn.sentCounter).append('\n');
-
-                        for (String msg : conn.queue) {
-                            sb.append(msg).append('\n');
-                        }
+    /**
+     * Queue message whose budget was acquired, complete the waiting poll or schedule completion.
+     * Must be called holding connection monitor.
+     * @return true if writability changed
+     */
+    private boolean append(@Nonnull Connection conn, @Nonnull byte[] messageText) {
+        int size = messageText.length;
+        long sequence = conn.queue.add(messageText, System.nanoTime());
+        metrics.queueDepth(conn.queue.size());
+        if (!listeners.isEmpty())
+            listeners.queued(this, conn.connId, sequence);
+        if (connectionStore != null)
+            connectionStore.enqueued(conn.connId, sequence, messageText, false);
+        queueAccounting.queued(conn, size);
+        boolean writableChanged = queueAccounting.updateWritable(conn);
 
-                        resp.getOutputStream().print(sb.toString());
-                    } catch (IOException ex) {
-                        log.warn("Error writing new message, connectionId={}", connectionId, ex);
+        if (conn.asyncContext != null) {
+            if (lingerMillis <= 0
+                    || conn.queue.getNextSequence() - conn.flushedSequence >= maxBatchMessages
+                    || conn.unflushedBytes >= maxBatchBytes) {
+                completePoll(conn);
+            } else if (conn.flushTask == null) {
+                final Connection c = conn;
+                conn.flushTask = timer.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            synchronized (c) {
+                                // skip if completed and rescheduled meanwhile
+                                if (c.flushTask != null && c.flushTask.isExpired()) {
+                                    c.flushTask = null;
+                                    if (c.asyncContext != null)
+                                        completePoll(c);
+                                }
+                            }
+                        } catch (Exception ex) {
+                            log.error("Error sending accumulated messages, connId={}", c.connId, ex);
+                        }
                     }
-                    // old polling is in progress, terminate it
-                    conn.asyncContext.complete();
-                    conn.asyncContext = null;
-                }
+                }, lingerMillis, TimeUnit.MILLISECONDS);
             }
-		}
-	}
+        }
+        return writableChanged;
+    }
+
+    /** Close connection evicted from the outbound budget */
+    private void evict(@Nonnull Connection victim) {
+        synchronized (victim) {
+            if (victim.closed)
+                return;
+            closeConnection(victim, null, null, ConnectorMetrics.DisconnectCause.BUDGET_EVICTED);
+        }
+        onDisconnected(this, victim.connId);
+    }
+
+    /**
+     * Remove messages confirmed by client and release their memory.
+     * Must be called holding connection monitor.
+     */
+    private void acknowledge(@Nonnull Connection conn, long receivedCount) {
+        if (!listeners.isEmpty() && receivedCount > conn.queue.getFirstSequence())
+            listeners.acknowledged(this, conn.connId, conn.queue.getFirstSequence(), receivedCount);
+        queueAccounting.acknowledge(conn, receivedCount, metrics);
+    }
+
+
+    @Override
+    public boolean isWritable(String connectionId) {
+        Connection conn = connections.get(connectionId);
+        return conn != null && conn.writable;
+    }
+
+
+    /** Size of queued message, encoded bytes or spilled */
+    protected static int length(@Nonnull Object queued) {
+        return queued instanceof SpillStore.Spilled ? ((SpillStore.Spilled) queued).getLength() : ((byte[]) queued).length;
+    }
+
+    /**
+     * Copy queued message into the response body, spilled messages straight from disk
+     * @return position after the message
+     */
+    protected int copy(@Nonnull Object queued, @Nonnull byte[] body, int pos) throws IOException {
+        if (queued instanceof SpillStore.Spilled)
+            return pos + queueAccounting.getSpillStore().read((SpillStore.Spilled) queued, body, pos);
+        byte[] msg = (byte[]) queued;
+        System.arraycopy(msg, 0, body, pos, msg.length);
+        return pos + msg.length;
+    }
+
+
+    /**
+     * Complete waiting long poll with queued messages.
+     * Must be called holding connection monitor.
+     */
+    protected void completePoll(@Nonnull Connection conn) {
+        ResponseWriter writer = conn.writer;
+        try {
+            writeQueue(conn, (HttpServletRequest) conn.asyncContext.getRequest(),
+                    (HttpServletResponse) conn.asyncContext.getResponse(), writer);
+        } catch (IOException ex) {
+            log.warn("Error writing new message, connectionId={}", conn.connId, ex);
+        }
+        // old polling is in progress, terminate it
+        conn.asyncContext = null;
+        conn.writer = null;
+        writer.complete();
+    }
+
+
+    /**
+     * Complete waiting long poll without messages: 204 lets client poll again, 410 closes the connection.
+     * Must be called holding connection monitor.
+     */
+    protected void endPoll(@Nonnull Connection conn, int status) {
+        HttpServletResponse r = (HttpServletResponse) conn.asyncContext.getResponse();
+        if (status == HTTP_GONE)
+            r.setHeader("Connection", "close");
+        r.setStatus(status);
+        conn.writer.complete();
+        conn.asyncContext = null;
+        conn.writer = null;
+    }
+
+
+    /**
+     * Write all messages pending to be confirmed by client.
+     * Must be called holding connection monitor, the writer does not block.
+     *
+     * Every response repeats the whole unconfirmed queue, so the body holds spilled messages
+     * in heap again until it is written: spilling relieves the heap between polls only.
+     */
+    protected void writeQueue(@Nonnull Connection conn, @Nonnull HttpServletRequest req,
+                              @Nonnull HttpServletResponse resp, @Nonnull ResponseWriter writer) throws IOException {
+        cancelFlush(conn);
+        resp.setStatus(HTTP_OK);
+        String header = conn.receivedCounter + "\n" + conn.queue.getFirstSequence() + "\n";
+
+        // encoded messages are copied once into the response body, no char to byte conversion
+        int size = header.length();
+        for (Object queued : conn.queue)
+            size += length(queued) + 1;
+        byte[] body = new byte[size];
+        int pos = Utf8.encode(header, body, 0);
+        for (Object queued : conn.queue) {
+            pos = copy(queued, body, pos);
+            body[pos++] = '\n';
+        }
+        // every response repeats messages not confirmed yet
+        long resent = Math.min(conn.flushedSequence, conn.queue.getNextSequence()) - conn.queue.getFirstSequence();
+        if (resent > 0)
+            metrics.retransmitted((int) resent);
+        int length = pos;
+        if (compressionThreshold >= 0 && pos >= compressionThreshold && acceptsGzip(req)) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(pos / 4 + 64);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(compressed, 8192)) {
+                gzip.write(body, 0, pos);
+            }
+            body = compressed.toByteArray();
+            length = body.length;
+            resp.setHeader("Content-Encoding", "gzip");
+        }
+        resp.setContentLength(length);
+        metrics.sent(conn.queue.size(), length);
+        long unwritten = Math.max(conn.flushedSequence, conn.queue.getFirstSequence());
+        conn.flushedSequence = conn.queue.getNextSequence();
+        conn.unflushedBytes = 0;
+
+        @Nullable Object writeEvent = ChannelEvents.beginFrameWrite();
+        writer.write(length == body.length ? body : Arrays.copyOf(body, length));
+        ChannelEvents.endFrameWrite(writeEvent, getTransportName(), conn.connId, length, conn.queue.size());
+        if (!listeners.isEmpty()) {
+            if (resent > 0)
+                listeners.retransmitted(this, conn.connId, conn.queue.getFirstSequence(), unwritten);
+            if (unwritten < conn.flushedSequence)
+                listeners.written(this, conn.connId, unwritten, conn.flushedSequence, length);
+        }
+    }
+
+
+    /** Accept-Encoding lists gzip without q=0 */
+    private static boolean acceptsGzip(@Nonnull HttpServletRequest req) {
+        String accept = req.getHeader("Accept-Encoding");
+        if (accept == null)
+            return false;
+        for (String coding : accept.split(",")) {
+            String[] params = coding.split(";");
+            if (!"gzip".equalsIgnoreCase(params[0].trim()))
+                continue;
+            for (int i = 1; i < params.length; i++) {
+                if (params[i].replace(" ", "").matches("q=0(\\.0*)?"))
+                    return false;
+            }
+            return true;
+        }
+        return false;
+    }
+
+
+    protected void cancelFlush(@Nonnull Connection conn) {
+        if (conn.flushTask != null) {
+            conn.flushTask.cancel();
+            conn.flushTask = null;
+        }
+    }
 
 
 	protected ServerConnectorHandler handler;
@@ -485,23 +1080,29 @@ public class AsyncPollingConnectionServlet extends HttpServlet implements Server
 
     @Override
 	public void onConnected(ServerConnector connector, String connectionId) {
-		if ( handler != null )
-			try {
-				handler.onConnected(connector, connectionId);
-			} catch ( Exception ex ) {
-				log.error("onConnected() error", ex);
-			}
+		final ServerConnectorHandler h = handler;
+		if ( h != null )
+			dispatcher.execute(connectionId, () -> {
+				try {
+					h.onConnected(connector, connectionId);
+				} catch ( Exception ex ) {
+					log.error("onConnected() error", ex);
+				}
+			});
 	}
 
 
 	@Override
 	public void onDisconnected(ServerConnector connector, String connectionId) {
-		if ( handler != null )
-			try {
-				handler.onDisconnected(connector, connectionId);
-			} catch ( Exception ex ) {
-				log.error("onDisconnected() error", ex);
-			}
+		final ServerConnectorHandler h = handler;
+		if ( h != null )
+			dispatcher.execute(connectionId, () -> {
+				try {
+					h.onDisconnected(connector, connectionId);
+				} catch ( Exception ex ) {
+					log.error("onDisconnected() error", ex);
+				}
+			});
 	}
 
 
@@ -509,19 +1110,218 @@ public class AsyncPollingConnectionServlet extends HttpServlet implements Server
 	public void onMessage(ServerConnector connector, String connectionId,
 			Object message)
 	{
-		if ( handler != null )
+		final ServerConnectorHandler h = handler;
+		if ( h == null )
+			return;
+		boolean accepted = dispatcher.offer(connectionId, () -> {
 			try {
-				handler.onMessage(connector, connectionId, message);
+				if ( !listeners.isEmpty() )
+					listeners.dispatched(connector, connectionId, message);
+				h.onMessage(connector, connectionId, message);
 			} catch ( Exception ex ) {
 				log.error("onMessage() error", ex);
 			}
+		});
+		if ( !accepted ) {
+			log.warn("Mailbox is full, connId={}", connectionId);
+			closeOverflowed(connectionId);
+		}
 	}
 
+
+	@Override
+	public void onWritabilityChanged(ServerConnector connector, String connectionId, boolean writable) {
+		final ServerConnectorHandler h = handler;
+		if ( h != null )
+			dispatcher.execute(connectionId, () -> {
+				try {
+					h.onWritabilityChanged(connector, connectionId, writable);
+				} catch ( Exception ex ) {
+					log.error("onWritabilityChanged() error", ex);
+				}
+			});
+	}
+
+    /** Transport name of flight recorder events */
+    protected @Nonnull String getTransportName() {
+        return TRANSPORT;
+    }
+
+    /** Add message lifecycle hook, listeners are called in the order they were added */
+    public void addListener(@Nonnull ConnectorListener listener) {
+        listeners.add(listener);
+    }
+
+    public boolean removeListener(@Nonnull ConnectorListener listener) {
+        return listeners.remove(listener);
+    }
+
+    public ConnectorMetrics getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(ConnectorMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public Dispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    /** Must be set before any connection is created */
+    public void setDispatcher(Dispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    public int getMaxQueueLength() {
+        return queueAccounting.getMaxQueueLength();
+    }
+
+    public void setMaxQueueLength(int maxQueueLength) {
+        queueAccounting.setMaxQueueLength(maxQueueLength);
+    }
+
+    public long getMaxQueueBytes() {
+        return queueAccounting.getMaxQueueBytes();
+    }
+
+    public void setMaxQueueBytes(long maxQueueBytes) {
+        queueAccounting.setMaxQueueBytes(maxQueueBytes);
+    }
+
+    public OutboundBudget getOutboundBudget() {
+        return queueAccounting.getOutboundBudget();
+    }
+
+    /** Must be set before any connection is created */
+    public void setOutboundBudget(OutboundBudget outboundBudget) {
+        queueAccounting.setOutboundBudget(outboundBudget);
+    }
+
+    public SpillStore getSpillStore() {
+        return queueAccounting.getSpillStore();
+    }
+
+    /** Enable spilling of queued messages to disk, must be set before any connection is created */
+    public void setSpillStore(SpillStore spillStore) {
+        queueAccounting.setSpillStore(spillStore);
+    }
+
+    public long getSpillThresholdBytes() {
+        return queueAccounting.getSpillThresholdBytes();
+    }
+
+    public void setSpillThresholdBytes(long spillThresholdBytes) {
+        queueAccounting.setSpillThresholdBytes(spillThresholdBytes);
+    }
+
+    public long getMaxSpilledBytes() {
+        return queueAccounting.getMaxSpilledBytes();
+    }
+
+    public void setMaxSpilledBytes(long maxSpilledBytes) {
+        queueAccounting.setMaxSpilledBytes(maxSpilledBytes);
+    }
+
+    public ConnectionStore getConnectionStore() {
+        return connectionStore;
+    }
+
+    /** Persist connection state, must be set before any connection is created */
+    public void setConnectionStore(ConnectionStore connectionStore) {
+        this.connectionStore = connectionStore;
+    }
+
+    /** Encoded size of messages queued by all connections of the budget */
+    public long getQueuedBytes() {
+        return queueAccounting.getOutboundBudget().getUsed();
+    }
+
+    /** Encoded size of messages queued for the connection, 0 if session does not exist */
+    public long getQueuedBytes(String connectionId) {
+        Connection conn = connections.get(connectionId);
+        return conn != null ? conn.queuedBytes : 0;
+    }
+
+    public int getHighWatermark() {
+        return queueAccounting.getHighWatermark();
+    }
+
+    public void setHighWatermark(int highWatermark) {
+        queueAccounting.setHighWatermark(highWatermark);
+    }
+
+    public int getLowWatermark() {
+        return queueAccounting.getLowWatermark();
+    }
+
+    public void setLowWatermark(int lowWatermark) {
+        queueAccounting.setLowWatermark(lowWatermark);
+    }
+
+    public int getLingerMillis() {
+        return lingerMillis;
+    }
+
+    public void setLingerMillis(int lingerMillis) {
+        this.lingerMillis = lingerMillis;
+    }
+
+    public int getMaxBatchMessages() {
+        return maxBatchMessages;
+    }
+
+    public void setMaxBatchMessages(int maxBatchMessages) {
+        this.maxBatchMessages = maxBatchMessages;
+    }
+
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    public int getMaxBatchBytes() {
+        return maxBatchBytes;
+    }
+
+    public void setMaxBatchBytes(int maxBatchBytes) {
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    public String getConnectionIdPrefix() {
+        return connectionIdPrefix;
+    }
+
+    public void setConnectionIdPrefix(String connectionIdPrefix) {
+        this.connectionIdPrefix = connectionIdPrefix;
+    }
+
     public MessageSerializer getMessageSerializer() {
         return messageSerializer;
     }
 
     public void setMessageSerializer(MessageSerializer messageSerializer) {
         this.messageSerializer = messageSerializer;
+        if (byteMessageSerializer == null || byteMessageSerializer instanceof Utf8MessageSerializer)
+            byteMessageSerializer = messageSerializer != null ? new Utf8MessageSerializer(messageSerializer) : null;
+    }
+
+    public ByteMessageSerializer getByteMessageSerializer() {
+        return byteMessageSerializer;
+    }
+
+    /**
+     * Serializer of outgoing messages, replaces UTF-8 adapter of the message serializer.
+     * Incoming messages are decoded by the message serializer if it is set.
+     */
+    public void setByteMessageSerializer(ByteMessageSerializer byteMessageSerializer) {
+        this.byteMessageSerializer = byteMessageSerializer;
+    }
+
+    private static @Nonnull byte[] utf8(@Nonnull String text) {
+        return Utf8.encode(text);
     }
 }
@@ -0,0 +1,86 @@
+package gf.channel.server.servlet;
+
+import gf.channel.server.ConnectionStore;
+import gf.channel.server.ConnectorMetrics;
+import gf.channel.server.DefaultConnectorMetrics;
+import gf.channel.server.Dispatcher;
+import gf.channel.server.JournalConnectionStore;
+import gf.channel.shared.ByteMessageSerializer;
+import gf.channel.shared.GwtStreamerSerializer;
+import gf.channel.shared.MessageSerializer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Init parameters shared by the connection servlets. Queue limits are read by
+ * {@link gf.channel.server.QueueAccounting#configure(ServletConfig)}.
+ */
+final class InitParams {
+    private InitParams() {
+    }
+
+    /** messageSerializerClass, {@link GwtStreamerSerializer} by default */
+    static @Nonnull MessageSerializer messageSerializer(@Nonnull ServletConfig config) throws ServletException {
+        String mserClass = config.getInitParameter("messageSerializerClass");
+        if (mserClass == null)
+            return new GwtStreamerSerializer();
+        try {
+            Class<?> cl = Thread.currentThread().getContextClassLoader().loadClass(mserClass);
+            return (MessageSerializer) cl.newInstance();
+        } catch (Exception ex) {
+            throw new ServletException(ex);
+        }
+    }
+
+    /** byteMessageSerializerClass, null if not set */
+    static @Nullable ByteMessageSerializer byteMessageSerializer(@Nonnull ServletConfig config) throws ServletException {
+        String bserClass = config.getInitParameter("byteMessageSerializerClass");
+        if (bserClass == null)
+            return null;
+        try {
+            Class<?> cl = Thread.currentThread().getContextClassLoader().loadClass(bserClass);
+            return (ByteMessageSerializer) cl.newInstance();
+        } catch (Exception ex) {
+            throw new ServletException(ex);
+        }
+    }
+
+    /** Journal in connectionStoreDirectory, null if not set */
+    static @Nullable ConnectionStore connectionStore(@Nonnull ServletConfig config, int connectionTimeout) throws ServletException {
+        String connectionStoreDirectory = config.getInitParameter("connectionStoreDirectory");
+        if (connectionStoreDirectory == null)
+            return null;
+        try {
+            return new JournalConnectionStore(new File(connectionStoreDirectory), 64 * 1024 * 1024, connectionTimeout);
+        } catch (IOException ex) {
+            throw new ServletException(ex);
+        }
+    }
+
+    /** dispatcher with dispatcherThreads and mailboxCapacity, null if not set */
+    static @Nullable Dispatcher dispatcher(@Nonnull ServletConfig config) throws ServletException {
+        String dispatcherType = config.getInitParameter("dispatcher");
+        if (dispatcherType == null)
+            return null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int mailboxCapacity = 1000;
+        try { threads = Integer.parseInt( config.getInitParameter( "dispatcherThreads" ) ); } catch ( Exception ex ) {}
+        try { mailboxCapacity = Integer.parseInt( config.getInitParameter( "mailboxCapacity" ) ); } catch ( Exception ex ) {}
+        try {
+            return Dispatcher.create(dispatcherType, threads, mailboxCapacity);
+        } catch (IllegalArgumentException ex) {
+            throw new ServletException(ex);
+        }
+    }
+
+    /** Register metrics in JMX under the servlet name unless jmxEnabled=false */
+    static void registerMetrics(@Nonnull ServletConfig config, @Nonnull ConnectorMetrics metrics) {
+        if (!"false".equalsIgnoreCase(config.getInitParameter("jmxEnabled")) && metrics instanceof DefaultConnectorMetrics)
+            ((DefaultConnectorMetrics) metrics).register(config.getServletName());
+    }
+}
@@ -1,30 +1,38 @@
 package gf.channel.server.servlet;
 
 import gf.channel.server.AbstractSocketServerConnector;
-import gf.channel.shared.GwtStreamerSerializer;
-import gf.channel.shared.MessageSerializer;
+import gf.channel.server.ConnectionStore;
+import gf.channel.server.DefaultConnectorMetrics;
+import gf.channel.server.Dispatcher;
+import gf.channel.server.HashedWheelTimer;
+import gf.channel.shared.ByteMessageSerializer;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
-import java.io.IOException;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.WriteCallback;
 import org.eclipse.jetty.websocket.api.annotations.OnWebSocketClose;
 import org.eclipse.jetty.websocket.api.annotations.OnWebSocketConnect;
 import org.eclipse.jetty.websocket.api.annotations.OnWebSocketMessage;
 import org.eclipse.jetty.websocket.api.annotations.WebSocket;
 import org.eclipse.jetty.websocket.servlet.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Created by akuranov on 28/09/2015.
  */
 public class JettyWSConnectionServlet extends WebSocketServlet
 {
+    private final static Logger log = LoggerFactory.getLogger(JettyWSConnectionServlet.class);
+
     /** Create session on incoming connection. If false session may be created by external auth facility. */
     // TODO:
     protected boolean createSession;
@@ -39,28 +47,43 @@ public class JettyWSConnectionServlet extends WebSocketServlet
     /** Max client message size */
     protected int maxMessageSize = 256000;
 
-    protected Timer timer = new Timer("ws-idle-connections", true);
+    protected HashedWheelTimer timer = HashedWheelTimer.getShared();
+
+
+    /**
+     * Close socket if more than this number of bytes (characters for text frames) are written
+     * asynchronously and not yet transmitted. The client reconnects and receives unconfirmed messages again.
+     */
+    protected int maxPendingWriteBytes = 4 * 1024 * 1024;
+
+    /**
+     * Negotiate permessage-deflate and compress messages of at least this size (chars for text frames).
+     * Negative disables compression.
+     */
+    protected int compressionThreshold = 1024;
 
 
+    /** Physical connections are {@link WebSocketConnection} objects */
     protected AbstractSocketServerConnector connector = new AbstractSocketServerConnector() {
         @Override
-        protected void socketSend(@Nullable Object websocketSession, @Nonnull String text) {
-            Session session = (Session) websocketSession;
-            if (session != null && session.isOpen()) {
-                try {
-                    session.getRemote().sendString(text);
-                } catch (Exception ex) {}
-            }
+        protected void socketSend(@Nullable Object websocketConnection, @Nonnull String text) {
+            WebSocketConnection socket = (WebSocketConnection) websocketConnection;
+            if (socket != null)
+                socket.send(text);
         }
 
         @Override
-        protected void socketClose(@Nullable Object websocketSession) {
-            Session session = (Session) websocketSession;
-            if (session != null) {
-                try {
-                    session.close();
-                } catch (Exception ex) { /* ignore */}
-            }
+        protected void socketSend(@Nullable Object websocketConnection, @Nonnull byte[] data, int offset, int length) {
+            WebSocketConnection socket = (WebSocketConnection) websocketConnection;
+            if (socket != null)
+                socket.send(data, offset, length);
+        }
+
+        @Override
+        protected void socketClose(@Nullable Object websocketConnection) {
+            WebSocketConnection socket = (WebSocketConnection) websocketConnection;
+            if (socket != null)
+                socket.close();
         }
     };
 
@@ -72,28 +95,107 @@ public class JettyWSConnectionServlet extends WebSocketServlet
         try { this.maxMessageSize = Integer.parseInt(config.getInitParameter("maxMessageSize")); } catch ( Exception ex ) {}
         try { connector.setHeartbeatInterval(Integer.parseInt(config.getInitParameter("heartbeatInterval"))); } catch ( Exception ex ) {}
         try { connector.setConnectionTimeout(Integer.parseInt(config.getInitParameter("connectionTimeout"))); } catch ( Exception ex ) {}
-        try { connector.setMaxQueueLength(Integer.parseInt(config.getInitParameter("maxQueueLength"))); } catch ( Exception ex ) {}
+        connector.getQueueAccounting().configure(config);
+        try { connector.setLingerMillis(Integer.parseInt(config.getInitParameter("lingerMillis"))); } catch ( Exception ex ) {}
+        try { connector.setMaxBatchMessages(Integer.parseInt(config.getInitParameter("maxBatchMessages"))); } catch ( Exception ex ) {}
+        try { connector.setMaxBatchBytes(Integer.parseInt(config.getInitParameter("maxBatchBytes"))); } catch ( Exception ex ) {}
+        if (config.getInitParameter("connectionIdPrefix") != null)
+            connector.setConnectionIdPrefix(config.getInitParameter("connectionIdPrefix"));
+        try { this.maxPendingWriteBytes = Integer.parseInt(config.getInitParameter("maxPendingWriteBytes")); } catch ( Exception ex ) {}
+        try { this.compressionThreshold = Integer.parseInt(config.getInitParameter("compressionThreshold")); } catch ( Exception ex ) {}
 
-        String mserClass = config.getInitParameter("messageSerializerClass");
-        if (mserClass == null) {
-            connector.setMessageSerializer(new GwtStreamerSerializer());
-        } else {
-            try {
-                Class<?> cl = Thread.currentThread().getContextClassLoader().loadClass(mserClass);
-                connector.setMessageSerializer((MessageSerializer) cl.newInstance());
-            } catch (Exception ex) {
-                throw new ServletException(ex);
-            }
-        }
+        connector.setMessageSerializer(InitParams.messageSerializer(config));
+        ConnectionStore store = InitParams.connectionStore(config, connector.getConnectionTimeout());
+        if (store != null)
+            connector.setConnectionStore(store);
+        ByteMessageSerializer bser = InitParams.byteMessageSerializer(config);
+        if (bser != null)
+            connector.setByteMessageSerializer(bser);
+        InitParams.registerMetrics(config, connector.getMetrics());
+        Dispatcher dispatcher = InitParams.dispatcher(config);
+        if (dispatcher != null)
+            connector.setDispatcher(dispatcher);
 
         super.init(config);
     }
 
+    @Override
+    public void destroy() {
+        if (connector.getSpillStore() != null)
+            connector.getSpillStore().close();
+        if (connector.getConnectionStore() != null)
+            connector.getConnectionStore().close();
+        connector.getDispatcher().shutdown();
+        if (connector.getMetrics() instanceof DefaultConnectorMetrics)
+            ((DefaultConnectorMetrics) connector.getMetrics()).unregister();
+        super.destroy();
+    }
+
+    /**
+     * Frames are sent asynchronously, so a slow peer never blocks threads that post messages
+     * (they hold the connection monitor while sending). A failed write closes the socket.
+     */
     @WebSocket
     public class WebSocketConnection
     {
         private Session session;
-        private TimerTask interrupt;
+        private HashedWheelTimer.Timeout interrupt;
+        /** Size of frames passed to Jetty and not transmitted yet */
+        private final AtomicLong pendingWriteBytes = new AtomicLong();
+
+        public long getPendingWriteBytes() {
+            return pendingWriteBytes.get();
+        }
+
+        void send(@Nonnull String text) {
+            if (reserve(text.length()))
+                session.getRemote().sendString(text, new SendCallback(text.length()));
+        }
+
+        void send(@Nonnull byte[] data, int offset, int length) {
+            if (reserve(length))
+                session.getRemote().sendBytes(ByteBuffer.wrap(data, offset, length), new SendCallback(length));
+        }
+
+        private boolean reserve(int size) {
+            if (session == null || !session.isOpen())
+                return false;
+            if (pendingWriteBytes.addAndGet(size) > maxPendingWriteBytes) {
+                pendingWriteBytes.addAndGet(-size);
+                log.warn("Too many bytes pending to write ({}), closing socket {}", pendingWriteBytes.get(), session.getRemoteAddress());
+                close();
+                return false;
+            }
+            return true;
+        }
+
+        void close() {
+            if (session != null) {
+                try {
+                    session.close();
+                } catch (Exception ex) { /* ignore */}
+            }
+        }
+
+        private class SendCallback implements WriteCallback {
+            private final int size;
+
+            SendCallback(int size) {
+                this.size = size;
+            }
+
+            @Override
+            public void writeSuccess() {
+                pendingWriteBytes.addAndGet(-size);
+            }
+
+            @Override
+            public void writeFailed(Throwable ex) {
+                pendingWriteBytes.addAndGet(-size);
+                log.debug("Write failed, closing socket {}", session.getRemoteAddress(), ex);
+                close();
+            }
+        }
 
         @OnWebSocketClose
         public void onClose(int statusCode, String reason) { }
@@ -103,13 +205,12 @@ public class JettyWSConnectionServlet extends WebSocketServlet
             this.session = session;
             //session.setIdleTimeout(connector.getHeartbeatInterval() + 10000);
             //connection.setMaxTextMessageSize(maxMessageSize);
-            interrupt = new TimerTask() {
+            interrupt = timer.schedule(new Runnable() {
                 @Override
                 public void run() {
                     try {session.close();} catch (Exception ex) { /* ignore */}
                 }
-            };
-            timer.schedule(interrupt, connectionInitTimeout);
+            }, connectionInitTimeout, TimeUnit.MILLISECONDS);
         }
 
         @OnWebSocketMessage
@@ -118,7 +219,16 @@ public class JettyWSConnectionServlet extends WebSocketServlet
                 interrupt.cancel();
                 interrupt = null;
             }
-            connector.service(session, message == null ? "" : message);
+            connector.service(this, message == null ? "" : message);
+        }
+
+        @OnWebSocketMessage
+        public void onMessage(byte[] payload, int offset, int length) {
+            if (interrupt != null) {
+                interrupt.cancel();
+                interrupt = null;
+            }
+            connector.service(this, payload, offset, length);
         }
     }
 
@@ -138,6 +248,12 @@ public class JettyWSConnectionServlet extends WebSocketServlet
         factory.getPolicy().setIdleTimeout(connector.getHeartbeatInterval() * 3);
         factory.getPolicy().setAsyncWriteTimeout(connector.getHeartbeatInterval() * 2);
         factory.getPolicy().setMaxTextMessageSize(maxMessageSize);
+        factory.getPolicy().setMaxBinaryMessageSize(maxMessageSize);
+        if (compressionThreshold >= 0) {
+            ThresholdDeflateExtension.register(factory, compressionThreshold);
+        } else {
+            factory.getExtensionFactory().unregister("permessage-deflate");
+        }
         factory.setCreator(new ConnectorSocketCreator());
     }
 }
@@ -0,0 +1,82 @@
+package gf.channel.server.servlet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * Non-blocking reader of a request body (Servlet 3.1 ReadListener): the body is collected while data
+ * is available and passed to the handler when it was fully received, or null if it exceeds the limit.
+ */
+class RequestReader implements ReadListener {
+    private final static Logger log = LoggerFactory.getLogger(RequestReader.class);
+
+    private final ServletInputStream in;
+    private final int maxSize;
+    private final Consumer<byte[]> handler;
+    private final Runnable errorHandler;
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream(256);
+    private final byte[] buffer = new byte[4096];
+    private boolean finished;
+
+    /**
+     * @param handler receives the body, null if it exceeds maxSize
+     * @param errorHandler called if the request failed before the body was received
+     */
+    RequestReader(@Nonnull ServletInputStream in, int maxSize,
+                  @Nonnull Consumer<byte[]> handler, @Nonnull Runnable errorHandler) {
+        this.in = in;
+        this.maxSize = maxSize;
+        this.handler = handler;
+        this.errorHandler = errorHandler;
+    }
+
+    /** Start reading, the container calls the listener when data is available */
+    void start() {
+        in.setReadListener(this);
+    }
+
+    @Override
+    public void onDataAvailable() throws IOException {
+        while (in.isReady() && !in.isFinished()) {
+            int n = in.read(buffer);
+            if (n < 0)
+                break;
+            body.write(buffer, 0, n);
+            if (body.size() > maxSize) {
+                // the rest is discarded by the container when the response is completed
+                body.reset();
+                finish(null);
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void onAllDataRead() throws IOException {
+        finish(body.toByteArray());
+    }
+
+    private void finish(@Nullable byte[] data) {
+        if (finished)
+            return;
+        finished = true;
+        handler.accept(data);
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        log.debug("Error reading request", t);
+        if (!finished) {
+            finished = true;
+            errorHandler.run();
+        }
+    }
+}
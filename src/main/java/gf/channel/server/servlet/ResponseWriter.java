@@ -0,0 +1,122 @@
+package gf.channel.server.servlet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import java.io.IOException;
+import java.util.ArrayDeque;
+
+/**
+ * Non-blocking writer of an async response (Servlet 3.1 WriteListener).
+ *
+ * {@link #write(byte[])} and {@link #complete()} never block, they may be called holding the connection monitor:
+ * data is written only while the output is ready, the rest is queued and written by the container thread
+ * calling {@link #onWritePossible()}, a slow client does not hold any thread. The async context is completed
+ * when everything queued before {@link #complete()} was written.
+ */
+public class ResponseWriter implements WriteListener {
+    private final static Logger log = LoggerFactory.getLogger(ResponseWriter.class);
+
+    private final AsyncContext asyncContext;
+    private final ServletOutputStream out;
+    private final ArrayDeque<byte[]> pending = new ArrayDeque<>();
+    /** Writing is in progress or the container calls onWritePossible() when the output is ready */
+    private boolean scheduled;
+    private boolean unflushed;
+    private boolean completing;
+    private boolean done;
+
+    public ResponseWriter(@Nonnull AsyncContext asyncContext) throws IOException {
+        this.asyncContext = asyncContext;
+        this.out = asyncContext.getResponse().getOutputStream();
+        // container calls onWritePossible() first time the output is ready
+        scheduled = true;
+        out.setWriteListener(this);
+    }
+
+    public @Nonnull AsyncContext getAsyncContext() {
+        return asyncContext;
+    }
+
+    /** Queue data to write, the response must not be modified after the first write */
+    public void write(@Nonnull byte[] data) {
+        synchronized (this) {
+            if (done || completing)
+                return;
+            pending.add(data);
+            if (scheduled)
+                return;
+            scheduled = true;
+        }
+        schedule();
+    }
+
+    /** Complete the async context after queued data was written */
+    public void complete() {
+        synchronized (this) {
+            if (done || completing)
+                return;
+            completing = true;
+            if (scheduled)
+                return;
+            scheduled = true;
+        }
+        schedule();
+    }
+
+    /** Write what the output accepts now */
+    private void schedule() {
+        try {
+            onWritePossible();
+        } catch (IOException | IllegalStateException ex) {
+            // client disconnected or completed by timeout
+            onError(ex);
+        }
+    }
+
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    @Override
+    public synchronized void onWritePossible() throws IOException {
+        while (!done && out.isReady()) {
+            byte[] data = pending.poll();
+            if (data != null) {
+                out.write(data);
+                unflushed = true;
+            } else if (unflushed) {
+                unflushed = false;
+                out.flush();
+            } else {
+                scheduled = false;
+                if (completing) {
+                    done = true;
+                    asyncContext.complete();
+                }
+                return;
+            }
+        }
+        // not ready: container calls onWritePossible() again
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        synchronized (this) {
+            if (done)
+                return;
+            done = true;
+            pending.clear();
+        }
+        log.debug("Error writing response", t);
+        try {
+            asyncContext.complete();
+        } catch (IllegalStateException ex) {
+            // already completed by timeout
+        }
+    }
+}
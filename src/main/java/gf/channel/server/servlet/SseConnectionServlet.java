@@ -0,0 +1,191 @@
+package gf.channel.server.servlet;
+
+import gf.channel.server.ChannelEvents;
+import gf.channel.shared.Utf8;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+
+/**
+ * Server-Sent Events transport: one response per connection stays open and every batch of outgoing
+ * messages is flushed to it as an event, without a request per batch as in long polling.
+ * Client messages and confirmations are posted as in long polling, responses carry only counters.
+ *
+ * Open stream
+ *      Request
+ *          GET http://host/path?cid=connectionID&rc=number of messages received from server
+ *          Last-Event-ID header replaces rc when the browser reopens the stream itself
+ *      returns 200 text/event-stream, stream starts with messages not confirmed by client, every event:
+ *          id: number of messages sent to client including the event
+ *          data: number of messages received from client
+ *          data: number of messages sent to client before
+ *          data: message (one line per message)
+ *      event 'close' if connection was closed while stream is open
+ *      returns 410 (gone) if connection was closed
+ *      stream is completed after long polling timeout, client opens it again
+ * Connection init, send message, close connection: see {@link AsyncPollingConnectionServlet}
+ */
+@SuppressWarnings("serial")
+public class SseConnectionServlet extends AsyncPollingConnectionServlet
+{
+    private final static Logger log = LoggerFactory.getLogger(SseConnectionServlet.class);
+
+    private final static String PARAM_RECEIVED = "rc";
+
+    /** Transport name of flight recorder events */
+    private final static String TRANSPORT = "sse";
+
+    private final static byte[] ID = Utf8.encode("id: ");
+    private final static byte[] DATA = Utf8.encode("data: ");
+    private final static byte[] CLOSE_EVENT = Utf8.encode("event: close\ndata: closed\n\n");
+    /** Comment line committing the response headers of an empty stream */
+    private final static byte[] OPEN_COMMENT = Utf8.encode(":\n\n");
+
+
+    /** Stream request */
+    @Override
+    protected boolean isPoll(@Nonnull HttpServletRequest req) {
+        return "GET".equals(req.getMethod());
+    }
+
+    /** Posts do not interrupt the stream, a new stream replaces the old one */
+    @Override
+    protected boolean replacesPoll(@Nonnull HttpServletRequest req) {
+        return isPoll(req);
+    }
+
+    @Override
+    protected @Nonnull BufferedReader getBodyReader(@Nonnull HttpServletRequest req, @Nonnull byte[] body)
+            throws IOException {
+        if (!isPoll(req))
+            return super.getBodyReader(req, body);
+        // stream request has no body, it only confirms received messages
+        String received = req.getHeader("Last-Event-ID");
+        if (received == null || received.isEmpty())
+            received = req.getParameter(PARAM_RECEIVED);
+        return new BufferedReader(new StringReader(Long.parseLong(received) + "\n0\n"));
+    }
+
+    @Override
+    protected void respond(@Nonnull Connection conn, @Nonnull HttpServletRequest req,
+                           @Nonnull HttpServletResponse resp, @Nonnull ResponseWriter writer) throws IOException {
+        if (!isPoll(req)) {
+            writeCounters(conn, resp, writer);
+            return;
+        }
+
+        resp.setStatus(HTTP_OK);
+        resp.setContentType("text/event-stream");
+        resp.setCharacterEncoding("UTF-8");
+        conn.asyncContext = writer.getAsyncContext();
+        conn.writer = writer;
+        try {
+            // messages not confirmed by client are sent again
+            if (!conn.queue.isEmpty())
+                writeEvent(conn, conn.queue.getFirstSequence());
+            else
+                writer.write(OPEN_COMMENT);
+        } catch (IOException ex) {
+            log.warn("Error opening stream, connectionId={}", conn.connId, ex);
+            conn.asyncContext = null;
+            conn.writer = null;
+        }
+    }
+
+    /** Write new messages to the open stream */
+    @Override
+    protected void completePoll(@Nonnull Connection conn) {
+        try {
+            writeEvent(conn, Math.max(conn.flushedSequence, conn.queue.getFirstSequence()));
+        } catch (IOException ex) {
+            log.warn("Error writing new message, connectionId={}", conn.connId, ex);
+            // client opens a new stream
+            conn.writer.complete();
+            conn.asyncContext = null;
+            conn.writer = null;
+        }
+    }
+
+    /** Stream response is already committed, closed connection is reported by the 'close' event */
+    @Override
+    protected void endPoll(@Nonnull Connection conn, int status) {
+        if (status == HTTP_GONE)
+            conn.writer.write(CLOSE_EVENT);
+        conn.writer.complete();
+        conn.asyncContext = null;
+        conn.writer = null;
+    }
+
+
+    /**
+     * Write queued messages starting from the sequence as one event, the writer flushes it.
+     * Must be called holding connection monitor.
+     */
+    private void writeEvent(@Nonnull Connection conn, long from) throws IOException {
+        cancelFlush(conn);
+        long next = conn.queue.getNextSequence();
+        if (from >= next)
+            return;
+
+        byte[] id = Utf8.encode(Long.toString(next));
+        byte[] received = Utf8.encode(Long.toString(conn.receivedCounter));
+        byte[] sent = Utf8.encode(Long.toString(from));
+        int count = (int) (next - from);
+        int size = ID.length + id.length + 1 + DATA.length * (2 + count)
+                + received.length + 1 + sent.length + 1 + 1;
+        for (long seq = from; seq < next; seq++)
+            size += length(conn.queue.get(seq)) + 1;
+
+        byte[] event = new byte[size];
+        int pos = line(event, 0, ID, id);
+        pos = line(event, pos, DATA, received);
+        pos = line(event, pos, DATA, sent);
+        for (long seq = from; seq < next; seq++) {
+            System.arraycopy(DATA, 0, event, pos, DATA.length);
+            // spilled messages are copied straight from disk
+            pos = copy(conn.queue.get(seq), event, pos + DATA.length);
+            event[pos++] = '\n';
+        }
+        event[pos++] = '\n';
+
+        long resent = Math.min(conn.flushedSequence, next) - from;
+        if (resent > 0)
+            metrics.retransmitted((int) resent);
+        metrics.sent(count, size);
+        long unwritten = Math.max(conn.flushedSequence, from);
+        conn.flushedSequence = next;
+        conn.unflushedBytes = 0;
+
+        @Nullable Object writeEvent = ChannelEvents.beginFrameWrite();
+        conn.writer.write(event);
+        ChannelEvents.endFrameWrite(writeEvent, TRANSPORT, conn.connId, size, count);
+        if (!listeners.isEmpty()) {
+            if (resent > 0)
+                listeners.retransmitted(this, conn.connId, from, unwritten);
+            if (unwritten < next)
+                listeners.written(this, conn.connId, unwritten, next, size);
+        }
+    }
+
+    private static int line(@Nonnull byte[] event, int pos, @Nonnull byte[] field, @Nonnull byte[] value) {
+        System.arraycopy(field, 0, event, pos, field.length);
+        pos += field.length;
+        System.arraycopy(value, 0, event, pos, value.length);
+        pos += value.length;
+        event[pos++] = '\n';
+        return pos;
+    }
+
+
+    @Override
+    protected @Nonnull String getTransportName() {
+        return TRANSPORT;
+    }
+}
@@ -0,0 +1,82 @@
+package gf.channel.server.servlet;
+
+import org.eclipse.jetty.websocket.api.BatchMode;
+import org.eclipse.jetty.websocket.api.WebSocketPolicy;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.eclipse.jetty.websocket.api.extensions.Frame;
+import org.eclipse.jetty.websocket.common.OpCode;
+import org.eclipse.jetty.websocket.common.extensions.compress.PerMessageDeflateExtension;
+import org.eclipse.jetty.websocket.servlet.WebSocketServletFactory;
+
+import javax.annotation.Nonnull;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * permessage-deflate that sends messages smaller than {@link #getMinCompressSize()} uncompressed
+ * (RFC 7692 allows it per message): deflating a heartbeat or an ack costs more than it saves.
+ *
+ * A small message bypasses the deflater only when no compressed message is being written,
+ * otherwise it would overtake messages queued in the deflater and is compressed as well.
+ *
+ * Jetty creates extensions by class, the threshold of every factory is found by the factory policy
+ * the extension gets, so servlets with different thresholds do not affect each other.
+ */
+public class ThresholdDeflateExtension extends PerMessageDeflateExtension {
+    public final static int DEFAULT_MIN_COMPRESS_SIZE = 1024;
+
+    /** Policy of a factory -> its threshold */
+    private final static Map<WebSocketPolicy, Integer> thresholds =
+            Collections.synchronizedMap(new WeakHashMap<WebSocketPolicy, Integer>());
+
+    private int minCompressSize = DEFAULT_MIN_COMPRESS_SIZE;
+
+    /** Messages passed to the deflater and not written yet */
+    private final AtomicInteger compressing = new AtomicInteger();
+
+    /** Negotiate permessage-deflate with the factory clients, compressing messages of at least minCompressSize */
+    public static void register(@Nonnull WebSocketServletFactory factory, int minCompressSize) {
+        thresholds.put(factory.getPolicy(), minCompressSize);
+        factory.getExtensionFactory().register("permessage-deflate", ThresholdDeflateExtension.class);
+    }
+
+    /** Called by the extension factory with its policy */
+    @Override
+    public void setPolicy(WebSocketPolicy policy) {
+        super.setPolicy(policy);
+        Integer threshold = thresholds.get(policy);
+        if (threshold != null)
+            minCompressSize = threshold;
+    }
+
+    public int getMinCompressSize() {
+        return minCompressSize;
+    }
+
+    @Override
+    public void outgoingFrame(Frame frame, final WriteCallback callback, BatchMode batchMode) {
+        if (OpCode.isDataFrame(frame.getOpCode()) && frame.isFin() && frame.getPayloadLength() < minCompressSize
+                && compressing.get() == 0) {
+            nextOutgoingFrame(frame, callback, batchMode);
+            return;
+        }
+        compressing.incrementAndGet();
+        super.outgoingFrame(frame, new WriteCallback() {
+            @Override
+            public void writeSuccess() {
+                compressing.decrementAndGet();
+                if (callback != null)
+                    callback.writeSuccess();
+            }
+
+            @Override
+            public void writeFailed(Throwable ex) {
+                compressing.decrementAndGet();
+                if (callback != null)
+                    callback.writeFailed(ex);
+            }
+        }, batchMode);
+    }
+}
@@ -0,0 +1,85 @@
+package gf.channel.shared;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads frames written by {@link BinaryFrameWriter}.
+ * Malformed frames cause IllegalArgumentException (NumberFormatException for counters).
+ */
+public class BinaryFrameReader implements FrameReader {
+    private final byte[] data;
+    private final int end;
+    private int index;
+
+    public BinaryFrameReader(@Nonnull byte[] data) {
+        this(data, 0, data.length);
+    }
+
+    public BinaryFrameReader(@Nonnull byte[] data, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > data.length)
+            throw new IndexOutOfBoundsException("Offset: " + offset + ", length: " + length + ", size: " + data.length);
+        this.data = data;
+        this.index = offset;
+        this.end = offset + length;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return index < end;
+    }
+
+    @Override
+    public @Nonnull String nextString() {
+        int length = nextLength();
+        String s = Utf8.decode(data, index, length);
+        index += length;
+        return s;
+    }
+
+    @Override
+    public long nextLong() {
+        if (index >= end)
+            throw new NoSuchElementException();
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (index >= end)
+                throw new NumberFormatException("Truncated varint");
+            int b = data[index++];
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                if (value < 0)
+                    throw new NumberFormatException("Varint out of range");
+                return value;
+            }
+        }
+        throw new NumberFormatException("Varint too long");
+    }
+
+    @Override
+    public @Nonnull CharSequence nextSlice() {
+        return nextString();
+    }
+
+    /** Decode message in place from the frame bytes */
+    public @Nullable Object nextMessage(@Nonnull ByteMessageSerializer serializer) {
+        int length = nextLength();
+        int offset = index;
+        index += length;
+        return serializer.fromBytes(data, offset, length);
+    }
+
+    @Override
+    public void skip() {
+        int length = nextLength();
+        index += length;
+    }
+
+    private int nextLength() {
+        long length = nextLong();
+        if (length > end - index)
+            throw new IllegalArgumentException("Truncated frame: field length " + length + ", remaining " + (end - index));
+        return (int) length;
+    }
+}
@@ -0,0 +1,83 @@
+package gf.channel.shared;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Binary frame: counters are unsigned varints (7 bits per byte, least significant group first),
+ * strings are UTF-8 bytes prefixed by their length as varint. Messages need no escaping.
+ */
+public class BinaryFrameWriter implements FrameWriter {
+    private byte[] buffer;
+    private int size;
+
+    public BinaryFrameWriter() {
+        this(64);
+    }
+
+    public BinaryFrameWriter(int capacity) {
+        buffer = new byte[Math.max(capacity, 16)];
+    }
+
+    @Override
+    public @Nonnull BinaryFrameWriter writeString(@Nonnull String value) {
+        int length = Utf8.encodedLength(value);
+        ensureCapacity(10 + length);
+        writeVarint(length);
+        size = Utf8.encode(value, buffer, size);
+        return this;
+    }
+
+    @Override
+    public @Nonnull BinaryFrameWriter writeBytes(@Nonnull byte[] data, int offset, int length) {
+        ensureCapacity(10 + length);
+        writeVarint(length);
+        System.arraycopy(data, offset, buffer, size, length);
+        size += length;
+        return this;
+    }
+
+    @Override
+    public @Nonnull BinaryFrameWriter writeLong(long value) {
+        if (value < 0)
+            throw new IllegalArgumentException("Negative counter: " + value);
+        ensureCapacity(10);
+        writeVarint(value);
+        return this;
+    }
+
+    @Override
+    public boolean isBinary() {
+        return true;
+    }
+
+    /** Frame data, valid bytes are from 0 to {@link #size()} */
+    public @Nonnull byte[] getBuffer() {
+        return buffer;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public @Nonnull byte[] toByteArray() {
+        byte[] result = new byte[size];
+        System.arraycopy(buffer, 0, result, 0, size);
+        return result;
+    }
+
+    private void writeVarint(long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[size++] = (byte) value;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (size + extra > buffer.length) {
+            byte[] grown = new byte[Math.max(buffer.length * 2, size + extra)];
+            System.arraycopy(buffer, 0, grown, 0, size);
+            buffer = grown;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package gf.channel.shared;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Serializer that converts an object to bytes carried as is by binary frames,
+ * the encoded message may contain any byte. Use {@link Utf8MessageSerializer}
+ * to adapt a text {@link MessageSerializer}.
+ */
+public interface ByteMessageSerializer {
+    @Nonnull byte[] toBytes(@Nullable Object object);
+
+    /** Deserialize message from a part of the received frame without copying it */
+    @Nullable Object fromBytes(@Nonnull byte[] data, int offset, int length);
+}
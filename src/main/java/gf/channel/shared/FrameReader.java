@@ -0,0 +1,25 @@
+package gf.channel.shared;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Sequential reader of protocol frame fields: command, connection id, counters and messages.
+ * Text frames keep every field in a separate line, binary frames use varint counters
+ * and length-prefixed strings.
+ */
+public interface FrameReader {
+    boolean hasNext();
+
+    @Nonnull String nextString();
+
+    /**
+     * @throws NumberFormatException if field is not a number
+     */
+    long nextLong();
+
+    /** Message field, may be a view of the frame data */
+    @Nonnull CharSequence nextSlice();
+
+    /** Skip current field */
+    void skip();
+}
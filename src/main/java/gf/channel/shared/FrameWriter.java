@@ -0,0 +1,31 @@
+package gf.channel.shared;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Builds protocol frame field by field.
+ * @see FrameReader
+ */
+public interface FrameWriter {
+    @Nonnull FrameWriter writeString(@Nonnull String value);
+
+    /** Message encoded by {@link ByteMessageSerializer}, text frames accept UTF-8 text only */
+    @Nonnull FrameWriter writeBytes(@Nonnull byte[] data, int offset, int length);
+
+    /**
+     * Write encoded message: a String of {@link MessageSerializer}
+     * or a byte[] of {@link ByteMessageSerializer}
+     */
+    default @Nonnull FrameWriter writeMessage(@Nonnull Object encoded) {
+        if (encoded instanceof byte[]) {
+            byte[] data = (byte[]) encoded;
+            return writeBytes(data, 0, data.length);
+        }
+        return writeString((String) encoded);
+    }
+
+    /** Non-negative counter */
+    @Nonnull FrameWriter writeLong(long value);
+
+    boolean isBinary();
+}
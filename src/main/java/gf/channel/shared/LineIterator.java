@@ -1,5 +1,6 @@
 package gf.channel.shared;
 
+import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
@@ -8,7 +9,7 @@ import java.util.NoSuchElementException;
  * Read string line by line
  * Created by akuranov on 30/09/2015.
  */
-public class LineIterator implements Iterator<String> {
+public class LineIterator implements Iterator<String>, FrameReader {
     private String text;
     private int index = 0;
     private String line = null;
@@ -62,6 +63,28 @@ public class LineIterator implements Iterator<String> {
         return s;
     }
 
+    @Override
+    public @Nonnull String nextString() {
+        if (line == null)
+            throw new NoSuchElementException();
+        return next();
+    }
+
+    @Override
+    public long nextLong() {
+        return Long.parseLong(nextString());
+    }
+
+    @Override
+    public @Nonnull CharSequence nextSlice() {
+        return nextString();
+    }
+
+    @Override
+    public void skip() {
+        nextString();
+    }
+
     @Override
     public void remove() {
         throw new UnsupportedOperationException();
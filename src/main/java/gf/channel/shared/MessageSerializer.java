@@ -13,4 +13,12 @@ import javax.annotation.Nullable;
 public interface MessageSerializer {
     @Nonnull String toString(@Nullable Object object);
     @Nullable Object fromString(@Nonnull String text);
+
+    /**
+     * Deserialize message from a part of the received frame.
+     * Override to parse the text in place, default implementation copies it to a string.
+     */
+    default @Nullable Object fromString(@Nonnull CharSequence text) {
+        return fromString(text.toString());
+    }
 }
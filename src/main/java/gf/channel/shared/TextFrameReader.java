@@ -0,0 +1,142 @@
+package gf.channel.shared;
+
+import javax.annotation.Nonnull;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads protocol frame line by line walking the text only once.
+ * Counters are parsed in place and messages are returned as slices of the frame text,
+ * so no intermediate string is created per line.
+ *
+ * Lines are separated by \n or \r\n, tailing empty lines are ignored (like String.split()).
+ */
+public class TextFrameReader implements FrameReader {
+    private final String text;
+    /** End of the last non-empty line */
+    private final int end;
+    private int index;
+
+    public TextFrameReader(@Nonnull String text) {
+        this.text = text;
+        int e = text.length();
+        while (e > 0 && text.charAt(e - 1) == '\n') {
+            e--;
+            if (e > 0 && text.charAt(e - 1) == '\r')
+                e--;
+        }
+        this.end = e;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return index < end;
+    }
+
+    /** End of current line */
+    private int lineEnd() {
+        if (index >= end)
+            throw new NoSuchElementException();
+        int n = text.indexOf('\n', index);
+        if (n < 0 || n >= end)
+            // last line: \r without \n is a part of the line
+            return end;
+        return n > index && text.charAt(n - 1) == '\r' ? n - 1 : n;
+    }
+
+    /** Move cursor to the next line */
+    private void advance(int lineEnd) {
+        if (lineEnd < end && text.charAt(lineEnd) == '\r')
+            lineEnd++;
+        index = lineEnd + 1;
+    }
+
+    @Override
+    public @Nonnull String nextString() {
+        int e = lineEnd();
+        String s = text.substring(index, e);
+        advance(e);
+        return s;
+    }
+
+    /** Line as a slice of the frame text */
+    @Override
+    public @Nonnull CharSequence nextSlice() {
+        int e = lineEnd();
+        CharSequence s = new Slice(text, index, e);
+        advance(e);
+        return s;
+    }
+
+    /**
+     * Parse decimal number without creating a substring
+     * @throws NumberFormatException if line is not a number
+     */
+    @Override
+    public long nextLong() {
+        int e = lineEnd();
+        int i = index;
+        boolean negative = false;
+        if (i < e && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+            negative = text.charAt(i) == '-';
+            i++;
+        }
+        if (i == e)
+            throw new NumberFormatException("For input string: \"" + text.substring(index, e) + "\"");
+
+        long value = 0;
+        for (; i < e; i++) {
+            int digit = text.charAt(i) - '0';
+            if (digit < 0 || digit > 9 || value > (Long.MAX_VALUE - digit) / 10)
+                throw new NumberFormatException("For input string: \"" + text.substring(index, e) + "\"");
+            value = value * 10 + digit;
+        }
+        advance(e);
+        return negative ? -value : value;
+    }
+
+    /** Skip current line */
+    @Override
+    public void skip() {
+        advance(lineEnd());
+    }
+
+
+    /**
+     * Read-only view of a part of the frame text
+     */
+    public static class Slice implements CharSequence {
+        private final String text;
+        private final int start;
+        private final int end;
+
+        public Slice(@Nonnull String text, int start, int end) {
+            this.text = text;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= end - start)
+                throw new IndexOutOfBoundsException("Index: " + index + ", length: " + (end - start));
+            return text.charAt(start + index);
+        }
+
+        @Override
+        public @Nonnull CharSequence subSequence(int from, int to) {
+            if (from < 0 || to > end - start || from > to)
+                throw new IndexOutOfBoundsException("From: " + from + ", to: " + to + ", length: " + (end - start));
+            return new Slice(text, start + from, start + to);
+        }
+
+        @Override
+        public @Nonnull String toString() {
+            return text.substring(start, end);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package gf.channel.shared;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Text frame: every field is written in a separate line terminated by \n.
+ */
+public class TextFrameWriter implements FrameWriter {
+    private final StringBuilder sb;
+
+    public TextFrameWriter() {
+        this(64);
+    }
+
+    public TextFrameWriter(int capacity) {
+        sb = new StringBuilder(capacity);
+    }
+
+    @Override
+    public @Nonnull TextFrameWriter writeString(@Nonnull String value) {
+        sb.append(value).append('\n');
+        return this;
+    }
+
+    @Override
+    public @Nonnull TextFrameWriter writeBytes(@Nonnull byte[] data, int offset, int length) {
+        sb.append(Utf8.decode(data, offset, length)).append('\n');
+        return this;
+    }
+
+    @Override
+    public @Nonnull TextFrameWriter writeLong(long value) {
+        sb.append(value).append('\n');
+        return this;
+    }
+
+    @Override
+    public boolean isBinary() {
+        return false;
+    }
+
+    @Override
+    public @Nonnull String toString() {
+        return sb.toString();
+    }
+}
@@ -0,0 +1,136 @@
+package gf.channel.shared;
+
+import javax.annotation.Nonnull;
+
+/**
+ * UTF-8 encoding without intermediate arrays, usable on both JVM and GWT sides.
+ * Unpaired surrogates are encoded as '?', malformed input is decoded as U+FFFD.
+ */
+public final class Utf8 {
+    private Utf8() {}
+
+    /** Number of bytes required to encode the text */
+    public static int encodedLength(@Nonnull CharSequence text) {
+        int length = text.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c >= 0x80) {
+                if (c < 0x800) {
+                    bytes++;
+                } else if (isHighSurrogate(c) && i + 1 < length && isLowSurrogate(text.charAt(i + 1))) {
+                    // 4 bytes for 2 chars
+                    bytes += 2;
+                    i++;
+                } else if (isHighSurrogate(c) || isLowSurrogate(c)) {
+                    // replaced by '?'
+                } else {
+                    bytes += 2;
+                }
+            }
+        }
+        return bytes;
+    }
+
+    public static @Nonnull byte[] encode(@Nonnull CharSequence text) {
+        byte[] data = new byte[encodedLength(text)];
+        encode(text, data, 0);
+        return data;
+    }
+
+    /**
+     * Encode text into the buffer that must have enough space
+     * @return position after the last written byte
+     */
+    public static int encode(@Nonnull CharSequence text, @Nonnull byte[] buffer, int offset) {
+        int p = offset;
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                buffer[p++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[p++] = (byte) (0xC0 | (c >> 6));
+                buffer[p++] = (byte) (0x80 | (c & 0x3F));
+            } else if (isHighSurrogate(c) && i + 1 < length && isLowSurrogate(text.charAt(i + 1))) {
+                int cp = ((c - 0xD800) << 10) + (text.charAt(++i) - 0xDC00) + 0x10000;
+                buffer[p++] = (byte) (0xF0 | (cp >> 18));
+                buffer[p++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                buffer[p++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                buffer[p++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (isHighSurrogate(c) || isLowSurrogate(c)) {
+                buffer[p++] = '?';
+            } else {
+                buffer[p++] = (byte) (0xE0 | (c >> 12));
+                buffer[p++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[p++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return p;
+    }
+
+    public static @Nonnull String decode(@Nonnull byte[] buffer, int offset, int length) {
+        char[] chars = new char[length];
+        int n = 0;
+        int end = offset + length;
+        for (int p = offset; p < end; ) {
+            int b = buffer[p++];
+            if (b >= 0) {
+                chars[n++] = (char) b;
+                continue;
+            }
+            int extra;
+            int cp;
+            if ((b & 0xE0) == 0xC0) {
+                extra = 1;
+                cp = b & 0x1F;
+            } else if ((b & 0xF0) == 0xE0) {
+                extra = 2;
+                cp = b & 0x0F;
+            } else if ((b & 0xF8) == 0xF0) {
+                extra = 3;
+                cp = b & 0x07;
+            } else {
+                chars[n++] = '\uFFFD';
+                continue;
+            }
+            if (p + extra > end) {
+                chars[n++] = '\uFFFD';
+                break;
+            }
+            boolean valid = true;
+            for (int i = 0; i < extra; i++) {
+                int next = buffer[p + i];
+                if ((next & 0xC0) != 0x80) {
+                    valid = false;
+                    break;
+                }
+                cp = (cp << 6) | (next & 0x3F);
+            }
+            if (!valid) {
+                chars[n++] = '\uFFFD';
+                continue;
+            }
+            p += extra;
+            if (cp > 0x10FFFF) {
+                chars[n++] = '\uFFFD';
+            } else if (cp >= 0x10000) {
+                chars[n++] = (char) (0xD800 + ((cp - 0x10000) >> 10));
+                chars[n++] = (char) (0xDC00 + ((cp - 0x10000) & 0x3FF));
+            } else {
+                chars[n++] = (char) cp;
+            }
+        }
+        return new String(chars, 0, n);
+    }
+
+    // surrogate checks are kept local, so the class relies only on basic GWT emulation
+
+    private static boolean isHighSurrogate(char c) {
+        return c >= 0xD800 && c <= 0xDBFF;
+    }
+
+    private static boolean isLowSurrogate(char c) {
+        return c >= 0xDC00 && c <= 0xDFFF;
+    }
+}
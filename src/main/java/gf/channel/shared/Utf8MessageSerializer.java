@@ -0,0 +1,32 @@
+package gf.channel.shared;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Byte serializer on top of a text serializer: messages are encoded as UTF-8.
+ */
+public class Utf8MessageSerializer implements ByteMessageSerializer {
+    private final MessageSerializer serializer;
+
+    public Utf8MessageSerializer(@Nonnull MessageSerializer serializer) {
+        this.serializer = serializer;
+    }
+
+    public @Nonnull MessageSerializer getMessageSerializer() {
+        return serializer;
+    }
+
+    @Override
+    public @Nonnull byte[] toBytes(@Nullable Object object) {
+        String text = serializer.toString(object);
+        byte[] data = new byte[Utf8.encodedLength(text)];
+        Utf8.encode(text, data, 0);
+        return data;
+    }
+
+    @Override
+    public @Nullable Object fromBytes(@Nonnull byte[] data, int offset, int length) {
+        return serializer.fromString(Utf8.decode(data, offset, length));
+    }
+}
@@ -0,0 +1,26 @@
+package gf.channel.server;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Access to virtual threads of Java 21+, Java 21 version of the multi-release jar.
+ */
+public final class VirtualThreads {
+    private VirtualThreads() {}
+
+    public static boolean isSupported() {
+        return true;
+    }
+
+    /**
+     * Executor starting a virtual thread per task
+     * @param namePrefix thread names are prefix followed by a counter
+     * @return never null on this runtime
+     */
+    public static @Nullable ExecutorService newExecutor(@Nonnull String namePrefix) {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(namePrefix, 0).factory());
+    }
+}
@@ -0,0 +1,82 @@
+package gf.channel.server;
+
+import gf.channel.shared.DefaultStringSerializer;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ChannelEventsTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testEvents() throws Exception {
+        assertTrue(ChannelEvents.ENABLED);
+        AbstractSocketServerConnector connector = new AbstractSocketServerConnector() {
+            @Override
+            protected String createConnectionId() {
+                return "conn";
+            }
+
+            @Override
+            protected void socketSend(@Nullable Object connection, @Nonnull String text) {
+            }
+
+            @Override
+            protected void socketSend(@Nullable Object connection, @Nonnull byte[] data, int offset, int length) {
+            }
+
+            @Override
+            protected void socketClose(@Nullable Object connection) {
+            }
+        };
+        connector.setMessageSerializer(new DefaultStringSerializer());
+        connector.setMaxQueueLength(2);
+        Object socket = new Object();
+
+        Path file = folder.newFile("channel.jfr").toPath();
+        try (Recording recording = new Recording()) {
+            for (String name : new String[] {"Connect", "Disconnect", "FrameRead", "FrameWrite", "QueueFull", "ProtocolMismatch"})
+                recording.enable("gf.channel." + name).withThreshold(Duration.ZERO);
+            recording.start();
+
+            connector.service(socket, "N");
+            connector.service(socket, "S\nconn\n0\n0\nin\n");
+            for (int i = 0; i < 3; i++)
+                connector.post("conn", String.valueOf(i));
+            connector.service(socket, "X");
+
+            recording.stop();
+            recording.dump(file);
+        }
+
+        List<String> names = new ArrayList<>();
+        RecordedEvent disconnect = null;
+        for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+            names.add(event.getEventType().getName());
+            if (event.getEventType().getName().equals("gf.channel.Disconnect"))
+                disconnect = event;
+        }
+        assertTrue(names.toString(), names.contains("gf.channel.Connect"));
+        assertTrue(names.contains("gf.channel.FrameRead"));
+        assertTrue(names.contains("gf.channel.FrameWrite"));
+        assertTrue(names.contains("gf.channel.QueueFull"));
+        assertTrue(names.contains("gf.channel.ProtocolMismatch"));
+        assertTrue(disconnect != null);
+        assertEquals("QUEUE_FULL", disconnect.getString("cause"));
+        assertEquals("conn", disconnect.getString("connectionId"));
+    }
+}
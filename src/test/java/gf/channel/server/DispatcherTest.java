@@ -0,0 +1,82 @@
+package gf.channel.server;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DispatcherTest {
+    @Test
+    public void testOrderPerConnection() throws InterruptedException {
+        for (Dispatcher dispatcher : new Dispatcher[] {
+                Dispatcher.fixedPool(4, 10000), Dispatcher.forkJoin(4, 10000), Dispatcher.virtualThreads(10000)}) {
+            final int connections = 8;
+            final int messages = 1000;
+            final List<List<Integer>> received = new ArrayList<>();
+            final CountDownLatch done = new CountDownLatch(connections * messages);
+            for (int c = 0; c < connections; c++)
+                received.add(Collections.synchronizedList(new ArrayList<Integer>()));
+
+            for (int i = 0; i < messages; i++) {
+                for (int c = 0; c < connections; c++) {
+                    final List<Integer> list = received.get(c);
+                    final int n = i;
+                    assertTrue(dispatcher.offer("conn" + c, () -> {
+                        list.add(n);
+                        done.countDown();
+                    }));
+                }
+            }
+
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            for (List<Integer> list : received) {
+                for (int i = 0; i < messages; i++)
+                    assertEquals(i, (int) list.get(i));
+            }
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void testMailboxCapacity() throws InterruptedException {
+        Dispatcher dispatcher = Dispatcher.fixedPool(1, 2);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        dispatcher.execute("conn", () -> {
+            try {
+                blocked.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(dispatcher.offer("conn", () -> {}));
+        assertTrue(dispatcher.offer("conn", () -> {}));
+        assertFalse(dispatcher.offer("conn", () -> {}));
+        // lifecycle events are never rejected, other connections have their own mailboxes
+        dispatcher.execute("conn", done::countDown);
+        assertTrue(dispatcher.offer("other", () -> {}));
+
+        blocked.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        // drained mailboxes are removed
+        for (int i = 0; i < 100 && dispatcher.getMailboxCount() > 0; i++)
+            Thread.sleep(10);
+        assertEquals(0, dispatcher.getMailboxCount());
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void testDirect() {
+        final List<String> calls = new ArrayList<>();
+        Dispatcher dispatcher = Dispatcher.direct();
+        assertTrue(dispatcher.offer("conn", () -> calls.add(Thread.currentThread().getName())));
+        assertEquals(Collections.singletonList(Thread.currentThread().getName()), calls);
+    }
+}
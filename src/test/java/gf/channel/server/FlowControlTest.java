@@ -0,0 +1,377 @@
+package gf.channel.server;
+
+import gf.channel.shared.DefaultStringSerializer;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FlowControlTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Object socket = new Object();
+    private final List<Boolean> changes = new ArrayList<>();
+    private final List<Object> closed = new ArrayList<>();
+    private final List<String> sent = new ArrayList<>();
+    /** Connections closed by the connector and whether the handler was notified holding their monitors */
+    private final List<Object> closedConnections = new ArrayList<>();
+    private final List<Boolean> disconnectedHoldingLock = new ArrayList<>();
+    private AbstractSocketServerConnector connector;
+    private int connectionCount;
+
+    @Before
+    public void setUp() {
+        connector = new AbstractSocketServerConnector() {
+            @Override
+            protected String createConnectionId() {
+                return connectionCount++ == 0 ? "conn" : "conn" + connectionCount;
+            }
+
+            @Override
+            protected void socketSend(@Nullable Object connection, @Nonnull String text) {
+                sent.add(text);
+            }
+
+            @Override
+            protected void socketSend(@Nullable Object connection, @Nonnull byte[] data, int offset, int length) {
+            }
+
+            @Override
+            protected void socketClose(@Nullable Object connection) {
+                closed.add(connection);
+            }
+
+            @Override
+            protected void closeConnection(@Nonnull Connection conn, @Nonnull ConnectorMetrics.DisconnectCause cause) {
+                closedConnections.add(conn);
+                super.closeConnection(conn, cause);
+            }
+        };
+        connector.setMessageSerializer(new DefaultStringSerializer());
+        connector.setHighWatermark(3);
+        connector.setLowWatermark(1);
+        connector.setHandler(new ServerConnectorHandler() {
+            @Override
+            public void onConnected(ServerConnector connector, String connectionId) {
+            }
+
+            @Override
+            public void onDisconnected(ServerConnector connector, String connectionId) {
+                disconnectedHoldingLock.add(Thread.holdsLock(closedConnections.get(closedConnections.size() - 1)));
+            }
+
+            @Override
+            public void onMessage(ServerConnector connector, String connectionId, Object message) {
+            }
+
+            @Override
+            public void onWritabilityChanged(ServerConnector connector, String connectionId, boolean writable) {
+                changes.add(writable);
+            }
+        });
+        connector.service(socket, "N");
+    }
+
+    @Test
+    public void testWatermarks() {
+        assertTrue(connector.isWritable("conn"));
+        connector.post("conn", "1");
+        connector.post("conn", "2");
+        assertTrue(connector.isWritable("conn"));
+        connector.post("conn", "3");
+        assertFalse(connector.isWritable("conn"));
+        connector.post("conn", "4");
+        assertEquals(Arrays.asList(false), changes);
+
+        // above low watermark: still not writable
+        connector.service(socket, "S\nconn\n2\n0\n");
+        assertFalse(connector.isWritable("conn"));
+        connector.service(socket, "S\nconn\n3\n0\n");
+        assertTrue(connector.isWritable("conn"));
+        assertEquals(Arrays.asList(false, true), changes);
+        assertTrue(closed.isEmpty());
+
+        assertFalse(connector.isWritable("unknown"));
+    }
+
+    @Test
+    public void testQueueLimit() {
+        // producer ignoring writability still gets the connection closed
+        connector.setMaxQueueLength(5);
+        for (int i = 0; i < 6; i++)
+            connector.post("conn", String.valueOf(i));
+        assertEquals(Arrays.asList(socket), closed);
+        assertFalse(connector.isWritable("conn"));
+    }
+
+    @Test
+    public void testQueueBytes() {
+        connector.setMaxQueueBytes(10);
+        connector.post("conn", "12345");
+        assertEquals(5, connector.getQueuedBytes("conn"));
+        assertEquals(5, connector.getQueuedBytes());
+        connector.post("conn", "67890");
+        assertTrue(closed.isEmpty());
+        connector.service(socket, "S\nconn\n1\n0\n");
+        assertEquals(5, connector.getQueuedBytes("conn"));
+
+        connector.post("conn", "abcdef");
+        assertEquals(Arrays.asList(socket), closed);
+        // memory of a closed connection is released
+        assertEquals(0, connector.getQueuedBytes());
+    }
+
+    @Test
+    public void testBudgetEvictsLargest() {
+        connector.setOutboundBudget(new OutboundBudget(10, OutboundBudget.OverflowPolicy.EVICT_LARGEST));
+        Object other = new Object();
+        connector.service(other, "N");
+        connector.post("conn", "123456");
+        connector.post("conn2", "12");
+        assertEquals(8, connector.getQueuedBytes());
+
+        // the largest queue is closed to fit the new message
+        connector.post("conn2", "1234");
+        assertEquals(Arrays.asList(socket), closed);
+        assertEquals(6, connector.getQueuedBytes());
+        assertEquals(6, connector.getQueuedBytes("conn2"));
+    }
+
+    @Test
+    public void testBudgetRejects() {
+        connector.setOutboundBudget(new OutboundBudget(10, OutboundBudget.OverflowPolicy.REJECT));
+        connector.post("conn", "123456");
+        connector.post("conn", "123456");
+        assertEquals(6, connector.getQueuedBytes());
+        assertTrue(closed.isEmpty());
+
+        connector.service(socket, "S\nconn\n1\n0\n");
+        assertEquals(0, connector.getQueuedBytes());
+        connector.post("conn", "123456");
+        assertEquals(6, connector.getQueuedBytes("conn"));
+    }
+
+    @Test
+    public void testDisconnectOutsideOfMonitor() {
+        // handler runs in the closing thread by default, it must not hold the connection monitor
+        connector.setMaxQueueLength(1);
+        connector.post("conn", "1");
+        connector.post("conn", "2");
+
+        connector.service(socket, "N");
+        connector.service(socket, "C\nconn2\n");
+
+        connector.service(socket, "N");
+        connector.service(socket, "S\nconn3\n5\n0\n");
+
+        connector.setMaxQueueLength(100);
+        connector.setOutboundBudget(new OutboundBudget(5, OutboundBudget.OverflowPolicy.EVICT_LARGEST));
+        connector.service(socket, "N");
+        connector.service(socket, "N");
+        connector.post("conn4", "1234");
+        connector.post("conn5", "1234");
+
+        assertEquals(4, closedConnections.size());
+        assertEquals(Arrays.asList(false, false, false, false), disconnectedHoldingLock);
+    }
+
+    @Test
+    public void testSpill() throws Exception {
+        File directory = folder.newFolder("spill");
+        try (SpillStore store = new SpillStore(directory, 1024)) {
+            connector.setSpillStore(store);
+            connector.setSpillThresholdBytes(20);
+            connector.setMaxQueueLength(3);
+            for (int i = 0; i < 6; i++)
+                connector.post("conn", "message" + i);
+
+            // written messages moved to disk, connection is kept
+            assertTrue(closed.isEmpty());
+            assertEquals(16, connector.getQueuedBytes("conn"));
+            assertEquals(32, store.getUsedBytes());
+
+            // reconnect-retry resends the whole queue from disk and memory
+            sent.clear();
+            connector.service(socket, "R\nconn\n1\n0\n");
+            assertEquals(Arrays.asList("S\n0\n1\nmessage1\nmessage2\nmessage3\nmessage4\nmessage5\n"), sent);
+            assertEquals(24, store.getUsedBytes());
+
+            connector.terminate("conn");
+            connector.service(socket, "CA\nconn\n");
+            assertEquals(0, store.getUsedBytes());
+            assertEquals(0, connector.getQueuedBytes());
+        }
+    }
+
+    @Test
+    public void testSpillLimits() throws Exception {
+        File directory = folder.newFolder("spill");
+        try (SpillStore store = new SpillStore(directory, 1024, 32)) {
+            DefaultConnectorMetrics metrics = (DefaultConnectorMetrics) connector.getMetrics();
+            connector.setSpillStore(store);
+            connector.setSpillThresholdBytes(20);
+            connector.setMaxQueueLength(3);
+
+            // client never confirms: connection is closed at its disk limit
+            connector.setMaxSpilledBytes(24);
+            for (int i = 0; i < 4; i++)
+                connector.post("conn", "message" + i);
+            assertTrue(closed.isEmpty());
+            assertEquals(16, store.getUsedBytes());
+            connector.post("conn", "message4");
+            assertEquals(1, closed.size());
+            assertEquals(1, metrics.getQueueFullCloses());
+            assertEquals(0, store.getUsedBytes());
+
+            // store limit is shared by all connections
+            connector.setMaxSpilledBytes(1024);
+            connector.service(socket, "N");
+            connector.service(socket, "N");
+            for (int i = 0; i < 4; i++) {
+                connector.post("conn2", "message" + i);
+                connector.post("conn3", "message" + i);
+            }
+            assertEquals(32, store.getUsedBytes());
+            connector.post("conn3", "message4");
+            assertEquals(2, closed.size());
+            assertEquals(2, metrics.getQueueFullCloses());
+            assertEquals(16, store.getUsedBytes());
+        }
+    }
+
+    @Test
+    public void testRestore() throws Exception {
+        File directory = folder.newFolder("journal");
+        try (JournalConnectionStore store = new JournalConnectionStore(directory, 1024)) {
+            connector.setConnectionStore(store);
+            connector.service(socket, "N");
+            connector.post("conn2", "1");
+            connector.post("conn2", "2");
+            connector.service(socket, "S\nconn2\n1\n0\nin\n");
+        }
+
+        // connector of the restarted server
+        setUp();
+        try (JournalConnectionStore store = new JournalConnectionStore(directory, 1024)) {
+            connector.setConnectionStore(store);
+            sent.clear();
+            connector.service(socket, "R\nconn2\n1\n1\n");
+            assertEquals(Arrays.asList("S\n1\n1\n2\n"), sent);
+            assertEquals(1, connector.getQueuedBytes("conn2"));
+
+            connector.post("conn2", "3");
+            connector.service(socket, "C\nconn2\n");
+            assertEquals(0, store.size());
+        }
+    }
+
+    @Test
+    public void testMetrics() {
+        DefaultConnectorMetrics metrics = (DefaultConnectorMetrics) connector.getMetrics();
+        assertEquals(1, metrics.getConnects());
+        assertEquals(1, metrics.getActiveConnections());
+
+        connector.post("conn", "1");
+        connector.post("conn", "2");
+        connector.service(socket, "S\nconn\n0\n0\nin\n");
+        assertEquals(1, metrics.getMessagesReceived());
+        assertTrue(metrics.getBytesReceived() > 0);
+        assertEquals(0, metrics.getDeliveredMessages());
+
+        // reconnect: both unconfirmed messages are sent again
+        connector.service(socket, "R\nconn\n0\n1\n");
+        assertEquals(2, metrics.getRetransmittedMessages());
+        connector.service(socket, "S\nconn\n1\n1\n");
+        assertEquals(1, metrics.getDeliveredMessages());
+        assertTrue(metrics.getDeliveryLatencyP99() >= 0);
+        assertTrue(metrics.getMessagesSent() >= 4);
+
+        connector.setMaxQueueLength(1);
+        connector.post("conn", "3");
+        assertEquals(1, metrics.getQueueFullCloses());
+        assertEquals(0, metrics.getActiveConnections());
+        assertEquals(1, metrics.getDisconnects());
+
+        connector.service(socket, "N");
+        connector.service(socket, "C\nconn2\n");
+        assertEquals(1, metrics.getDisconnects(ConnectorMetrics.DisconnectCause.CLIENT_CLOSE));
+        assertEquals(2, metrics.getConnects());
+        assertTrue(metrics.getQueueDepthHistogram().length > 2);
+
+        metrics.reset();
+        assertEquals(0, metrics.getConnects());
+        assertEquals(0, metrics.getRetransmittedMessages());
+    }
+
+    @Test
+    public void testListeners() {
+        final List<String> events = new ArrayList<>();
+        ConnectorListener listener = new ConnectorListener() {
+            @Override
+            public void received(@Nonnull ServerConnector connector, @Nonnull String connectionId, Object message) {
+                events.add("received " + message);
+            }
+
+            @Override
+            public void dispatched(@Nonnull ServerConnector connector, @Nonnull String connectionId, Object message) {
+                events.add("dispatched " + message);
+            }
+
+            @Override
+            public void queued(@Nonnull ServerConnector connector, @Nonnull String connectionId, long sequence) {
+                events.add("queued " + sequence);
+            }
+
+            @Override
+            public void written(@Nonnull ServerConnector connector, @Nonnull String connectionId,
+                                long fromSequence, long toSequence, int bytes) {
+                events.add("written " + fromSequence + "-" + toSequence);
+            }
+
+            @Override
+            public void acknowledged(@Nonnull ServerConnector connector, @Nonnull String connectionId,
+                                     long fromSequence, long toSequence) {
+                events.add("acknowledged " + fromSequence + "-" + toSequence);
+            }
+
+            @Override
+            public void retransmitted(@Nonnull ServerConnector connector, @Nonnull String connectionId,
+                                      long fromSequence, long toSequence) {
+                events.add("retransmitted " + fromSequence + "-" + toSequence);
+            }
+
+            @Override
+            public void dropped(@Nonnull ServerConnector connector, @Nonnull String connectionId,
+                                long fromSequence, long toSequence) {
+                events.add("dropped " + fromSequence + "-" + toSequence);
+            }
+        };
+        connector.addListener(listener);
+
+        connector.post("conn", "1");
+        connector.post("conn", "2");
+        connector.service(socket, "S\nconn\n1\n0\nin\n");
+        connector.service(socket, "R\nconn\n1\n1\n");
+        connector.service(socket, "C\nconn\n");
+        assertEquals(Arrays.asList("queued 0", "written 0-1", "queued 1", "written 1-2",
+                "received in", "acknowledged 0-1", "dispatched in",
+                "retransmitted 1-2", "dropped 1-2"), events);
+
+        assertTrue(connector.removeListener(listener));
+        connector.service(socket, "N");
+        connector.post("conn2", "3");
+        assertEquals(9, events.size());
+    }
+}
@@ -0,0 +1,110 @@
+package gf.channel.server;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HashedWheelTimerTest {
+    // 8 buckets of 5 ms: 40 ms per round
+    private final HashedWheelTimer timer = new HashedWheelTimer("test-timer", 5, TimeUnit.MILLISECONDS, 8);
+
+    @After
+    public void tearDown() {
+        timer.stop();
+    }
+
+    @Test
+    public void testSchedule() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        long start = System.nanoTime();
+        HashedWheelTimer.Timeout timeout = timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        }, 100, TimeUnit.MILLISECONDS);
+
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+        // delay spans several rounds of the wheel
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 100);
+        assertTrue(timeout.isExpired());
+        assertFalse(timeout.cancel());
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        final AtomicInteger executed = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(1);
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                executed.incrementAndGet();
+                done.countDown();
+            }
+        };
+        HashedWheelTimer.Timeout cancelledNow = timer.schedule(task, 20, TimeUnit.MILLISECONDS);
+        // long delay: still cancellable however late the test thread runs
+        HashedWheelTimer.Timeout cancelledLater = timer.schedule(task, 1, TimeUnit.MINUTES);
+        assertTrue(cancelledNow.cancel());
+
+        // scheduled timeouts are moved to the wheel in order: the probe runs after cancelledLater was moved
+        final CountDownLatch probe = new CountDownLatch(1);
+        timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                probe.countDown();
+            }
+        }, 0, TimeUnit.MILLISECONDS);
+        assertTrue(probe.await(2, TimeUnit.SECONDS));
+        assertTrue(cancelledLater.cancel());
+        assertFalse(cancelledLater.cancel());
+
+        timer.schedule(task, 30, TimeUnit.MILLISECONDS);
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        // cancelledNow would have expired before this one, had it not been cancelled
+        assertEquals(1, executed.get());
+        assertTrue(cancelledNow.isCancelled());
+        assertFalse(cancelledNow.isExpired());
+        assertTrue(cancelledLater.isCancelled());
+    }
+
+    @Test
+    public void testManyTimeouts() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1000);
+        for (int i = 0; i < 1000; i++) {
+            timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    latch.countDown();
+                }
+            }, i % 50, TimeUnit.MILLISECONDS);
+        }
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testFailedTask() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("test");
+            }
+        }, 0, TimeUnit.MILLISECONDS);
+        timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        }, 10, TimeUnit.MILLISECONDS);
+        // worker survives the failure
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+    }
+}
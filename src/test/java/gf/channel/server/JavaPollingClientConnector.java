@@ -1,7 +1,9 @@
 package gf.channel.server;
 
 import gf.channel.client.PollingClientConnector;
+import org.apache.http.HttpEntity;
 import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.entity.GzipCompressingEntity;
 import org.apache.http.client.methods.*;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
@@ -10,6 +12,7 @@ import org.apache.http.util.EntityUtils;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.nio.charset.StandardCharsets;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.ExecutorService;
@@ -21,6 +24,11 @@ import static org.junit.Assert.assertEquals;
  * Created by anton on 25/09/2015.
  */
 public class JavaPollingClientConnector extends PollingClientConnector {
+    private final static String TRANSPORT = "polling-client";
+
+    /** Gzip request bodies of at least this size, negative disables compression */
+    private int compressionThreshold = 1024;
+
     private ExecutorService executor = java.util.concurrent.Executors.newCachedThreadPool();
     private Timer timer = new Timer(true);
 
@@ -58,6 +66,8 @@ public class JavaPollingClientConnector extends PollingClientConnector {
             @Override
             public void run() {
                 try {
+                    // duration of the write event covers the request until response, including long poll
+                    Object writeEvent = ChannelEvents.beginFrameWrite();
                     CloseableHttpResponse res;
                     if ("GET".equals(method)) {
                         res = httpclient.execute(new HttpGet(url + "?" + paramLine));
@@ -65,21 +75,24 @@ public class JavaPollingClientConnector extends PollingClientConnector {
                         res = httpclient.execute(new HttpDelete(url + "?" + paramLine));
                     } else if ("POST".equals(method)) {
                         HttpPost post = new HttpPost(url + "?" + paramLine);
-                        post.setEntity(new StringEntity(text));
+                        post.setEntity(entity(text));
                         res = httpclient.execute(post);
                     } else if ("PUT".equals(method)) {
                         HttpPut post = new HttpPut(url + "?" + paramLine);
-                        post.setEntity(new StringEntity(text));
+                        post.setEntity(entity(text));
                         res = httpclient.execute(post);
                     } else
                         throw new RuntimeException("Invalid http method: "+method);
 
                     task.cancel();
+                    ChannelEvents.endFrameWrite(writeEvent, TRANSPORT, connId, text != null ? text.length() : 0, 0);
                     if (!aborted.get()) {
+                        Object readEvent = ChannelEvents.beginFrameRead();
                         String resText = res.getEntity() != null ? EntityUtils.toString(res.getEntity()) : null;
                         synchronized(JavaPollingClientConnector.this) {
                             onReadyStateChange(task, res.getStatusLine().getStatusCode(), resText);
                         }
+                        ChannelEvents.endFrameRead(readEvent, TRANSPORT, connId, resText != null ? resText.length() : 0, 0);
                     }
                 } catch (Exception ex) {
                     task.cancel();
@@ -93,6 +106,20 @@ public class JavaPollingClientConnector extends PollingClientConnector {
         return task;
     }
 
+    private HttpEntity entity(String text) {
+        StringEntity entity = new StringEntity(text, StandardCharsets.UTF_8);
+        return compressionThreshold >= 0 && text.length() >= compressionThreshold
+                ? new GzipCompressingEntity(entity) : entity;
+    }
+
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
     @Override
     protected synchronized void httpAbort(@Nonnull Object httpRequest) {
         ((TimerTask) httpRequest).cancel();
@@ -0,0 +1,176 @@
+package gf.channel.server;
+
+import gf.channel.client.SseClientConnector;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.*;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Server-Sent Events client connector for tests, stream is read by a blocking request
+ */
+public class JavaSseClientConnector extends SseClientConnector {
+    private final static String TRANSPORT = "sse-client";
+
+    private ExecutorService executor = java.util.concurrent.Executors.newCachedThreadPool();
+    private Timer timer = new Timer(true);
+
+    private CloseableHttpClient httpclient;
+
+    public JavaSseClientConnector(String path) {
+        super(path);
+        RequestConfig config = RequestConfig.custom()
+                .setConnectTimeout(60 * 1000)
+                .setConnectionRequestTimeout(60 * 1000)
+                .setSocketTimeout(60 * 1000).build();
+        httpclient = HttpClients.custom()
+                .setMaxConnTotal(100)
+                .setMaxConnPerRoute(100)
+                .setDefaultRequestConfig(config)
+                .build();
+    }
+
+    @Override
+    protected Object streamOpen(final String paramLine) {
+        final HttpGet get = new HttpGet(url + "?" + paramLine);
+        get.setHeader("Accept", "text/event-stream");
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try (CloseableHttpResponse res = httpclient.execute(get)) {
+                    if (res.getStatusLine().getStatusCode() != 200)
+                        throw new IllegalStateException("Stream status: " + res.getStatusLine());
+                    BufferedReader in = new BufferedReader(
+                            new InputStreamReader(res.getEntity().getContent(), StandardCharsets.UTF_8));
+                    StringBuilder data = new StringBuilder();
+                    String event = null;
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        if (line.isEmpty()) {
+                            // dispatch event
+                            if (data.length() > 0) {
+                                Object readEvent = ChannelEvents.beginFrameRead();
+                                synchronized (JavaSseClientConnector.this) {
+                                    if ("close".equals(event))
+                                        onStreamClose(get);
+                                    else
+                                        onStreamMessage(get, data.substring(0, data.length() - 1));
+                                }
+                                ChannelEvents.endFrameRead(readEvent, TRANSPORT, connId, data.length(), 0);
+                            }
+                            data.setLength(0);
+                            event = null;
+                        } else if (line.startsWith("data: ")) {
+                            data.append(line, 6, line.length()).append('\n');
+                        } else if (line.startsWith("event: ")) {
+                            event = line.substring(7);
+                        }
+                    }
+                } catch (Exception ex) {
+                    //ex.printStackTrace();
+                }
+                synchronized (JavaSseClientConnector.this) {
+                    onStreamError(get);
+                }
+            }
+        });
+        return get;
+    }
+
+    @Override
+    protected void streamAbort(@Nonnull Object stream) {
+        ((HttpGet) stream).abort();
+    }
+
+    @Override
+    protected Object httpSend(final String method, final @Nullable String paramLine,
+                              final @Nullable String text, int timeout) {
+        final AtomicBoolean aborted = new AtomicBoolean();
+        final TimerTask task = new TimerTask() {
+            @Override
+            public void run() {
+                aborted.set(true);
+                synchronized(JavaSseClientConnector.this) {
+                    onReadyStateChange(this, 408 /*timeout*/, null);
+                }
+            }
+        };
+
+        timer.schedule(task, timeout);
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Object writeEvent = ChannelEvents.beginFrameWrite();
+                    CloseableHttpResponse res;
+                    if ("GET".equals(method)) {
+                        res = httpclient.execute(new HttpGet(url + "?" + paramLine));
+                    } else if ("DELETE".equals(method)) {
+                        res = httpclient.execute(new HttpDelete(url + "?" + paramLine));
+                    } else if ("POST".equals(method)) {
+                        HttpPost post = new HttpPost(url + "?" + paramLine);
+                        post.setEntity(new StringEntity(text, StandardCharsets.UTF_8));
+                        res = httpclient.execute(post);
+                    } else
+                        throw new RuntimeException("Invalid http method: "+method);
+
+                    task.cancel();
+                    ChannelEvents.endFrameWrite(writeEvent, TRANSPORT, connId, text != null ? text.length() : 0, 0);
+                    String resText = res.getEntity() != null ? EntityUtils.toString(res.getEntity()) : null;
+                    if (!aborted.get()) {
+                        synchronized(JavaSseClientConnector.this) {
+                            onReadyStateChange(task, res.getStatusLine().getStatusCode(), resText);
+                        }
+                    }
+                } catch (Exception ex) {
+                    task.cancel();
+                    if (!aborted.get())
+                        synchronized(JavaSseClientConnector.this) {
+                            onReadyStateChange(task, 503, null);
+                        }
+                }
+            }
+        });
+        return task;
+    }
+
+    @Override
+    protected synchronized void httpAbort(@Nonnull Object httpRequest) {
+        ((TimerTask) httpRequest).cancel();
+        ((TimerTask) httpRequest).run();
+    }
+
+    @Override
+    protected void schedule(int delay, final @Nonnull Runnable task) {
+        timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                synchronized(JavaSseClientConnector.this) {
+                    task.run();
+                }
+            }
+        }, delay);
+    }
+
+    @Override
+    public synchronized void post(Object payload) {
+        super.post(payload);
+    }
+
+    @Override
+    public synchronized void close() {
+        super.close();
+    }
+}
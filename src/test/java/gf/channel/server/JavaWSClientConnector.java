@@ -6,9 +6,11 @@ import org.eclipse.jetty.websocket.api.annotations.*;
 import org.eclipse.jetty.websocket.client.ClientUpgradeRequest;
 import org.eclipse.jetty.websocket.client.WebSocketClient;
 import org.eclipse.jetty.websocket.common.WebSocketSession;
+import org.eclipse.jetty.websocket.common.extensions.compress.PerMessageDeflateExtension;
 
 import javax.annotation.Nonnull;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.Future;
@@ -21,6 +23,7 @@ import java.util.logging.Logger;
  */
 public class JavaWSClientConnector extends SocketClientConnector {
     private static Logger log = Logger.getLogger(JavaWSClientConnector.class.getName());
+    private final static String TRANSPORT = "websocket-client";
     private Session session;
     private Timer timer = new Timer(true);
 
@@ -34,7 +37,19 @@ public class JavaWSClientConnector extends SocketClientConnector {
         public void onMessage(String s) {
             synchronized (JavaWSClientConnector.this) {
                 log.finest("SOCKET: onMessage");
+                Object readEvent = ChannelEvents.beginFrameRead();
                 JavaWSClientConnector.this.onMessage(s);
+                ChannelEvents.endFrameRead(readEvent, TRANSPORT, connId, s.length(), 0);
+            }
+        }
+
+        @OnWebSocketMessage
+        public void onMessage(byte[] data, int offset, int length) {
+            synchronized (JavaWSClientConnector.this) {
+                log.finest("SOCKET: onMessage (binary)");
+                Object readEvent = ChannelEvents.beginFrameRead();
+                JavaWSClientConnector.this.onMessage(data, offset, length);
+                ChannelEvents.endFrameRead(readEvent, TRANSPORT, connId, length, 0);
             }
         }
 
@@ -43,6 +58,7 @@ public class JavaWSClientConnector extends SocketClientConnector {
             synchronized (JavaWSClientConnector.this) {
                 log.finest("SOCKET: onOpen");
                 JavaWSClientConnector.this.session = session;
+                ChannelEvents.connected(TRANSPORT, connId);
                 JavaWSClientConnector.this.onConnectionOpen();
             }
         }
@@ -51,6 +67,7 @@ public class JavaWSClientConnector extends SocketClientConnector {
         public void onClose(int i, String s) {
             synchronized (JavaWSClientConnector.this) {
                 log.finest("SOCKET: onClose");
+                ChannelEvents.disconnected(TRANSPORT, connId, "SOCKET_CLOSED", queue.size());
                 JavaWSClientConnector.this.onConnectionClose();
             }
         }
@@ -61,6 +78,8 @@ public class JavaWSClientConnector extends SocketClientConnector {
         final WebSocketClient client;
         try {
             client = new WebSocketClient();
+            // permessage-deflate is not installed by default in Jetty 9.2
+            client.getExtensionFactory().register("permessage-deflate", PerMessageDeflateExtension.class);
         } catch (Exception ex) {
             throw new UnsupportedOperationException(ex);
         }
@@ -72,6 +91,7 @@ public class JavaWSClientConnector extends SocketClientConnector {
                     client.start();
                     client.setConnectTimeout(connectTimeout);
                     ClientUpgradeRequest clientUpgradeRequest = new ClientUpgradeRequest();
+                    clientUpgradeRequest.addExtensions("permessage-deflate");
                     log.finest("SOCKET: Connecting to "+url);
                     Future<Session> connect = client.connect(new WebSocketConnection(),
                             new URI(url), clientUpgradeRequest);
@@ -106,14 +126,40 @@ public class JavaWSClientConnector extends SocketClientConnector {
     @Override
     protected synchronized void socketSend(String text) {
         try {
-            if (session != null && session.isOpen())
+            if (session != null && session.isOpen()) {
+                Object writeEvent = ChannelEvents.beginFrameWrite();
                 session.getRemote().sendString(text);
+                ChannelEvents.endFrameWrite(writeEvent, TRANSPORT, connId, text.length(), 0);
+            }
         } catch (Exception ex) {
             // TODO: close not supported
             log.log(Level.SEVERE, "SOCKET: Send", ex);
         }
     }
 
+    @Override
+    protected synchronized void socketSend(byte[] data, int offset, int length) {
+        try {
+            if (session != null && session.isOpen()) {
+                Object writeEvent = ChannelEvents.beginFrameWrite();
+                session.getRemote().sendBytes(ByteBuffer.wrap(data, offset, length));
+                ChannelEvents.endFrameWrite(writeEvent, TRANSPORT, connId, length, 0);
+            }
+        } catch (Exception ex) {
+            log.log(Level.SEVERE, "SOCKET: Send", ex);
+        }
+    }
+
+    @Override
+    public synchronized void post(Object payload) {
+        super.post(payload);
+    }
+
+    @Override
+    public synchronized void close() {
+        super.close();
+    }
+
     private TimerTask task;
 
     @Override
@@ -0,0 +1,165 @@
+package gf.channel.server;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class JournalConnectionStoreTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReplay() throws IOException {
+        File directory = folder.newFolder("journal");
+        try (JournalConnectionStore store = new JournalConnectionStore(directory, 1024)) {
+            store.created("a");
+            store.created("b");
+            store.enqueued("a", 0, new byte[] {'x'}, true);
+            store.enqueued("a", 1, new byte[] {'y'}, true);
+            store.enqueued("a", 2, new byte[] {0, (byte) 0xFF}, false);
+            store.acknowledged("a", 1, 5);
+            store.enqueued("b", 0, new byte[] {'z'}, true);
+            store.removed("b");
+        }
+
+        try (JournalConnectionStore store = new JournalConnectionStore(directory, 1024)) {
+            assertEquals(1, store.size());
+            assertNull(store.restore("b"));
+            StoredConnection a = store.restore("a");
+            assertEquals(1, a.getFirstSequence());
+            assertEquals(5, a.getReceivedCounter());
+            assertEquals(2, a.getMessages().size());
+            assertEquals("y", a.getMessages().get(0));
+            assertArrayEquals(new byte[] {0, (byte) 0xFF}, (byte[]) a.getMessages().get(1));
+
+            // state changes continue after restore
+            store.acknowledged("a", 3, 5);
+            store.enqueued("a", 3, new byte[] {'w'}, true);
+        }
+
+        try (JournalConnectionStore store = new JournalConnectionStore(directory, 1024)) {
+            StoredConnection a = store.restore("a");
+            assertEquals(3, a.getFirstSequence());
+            assertEquals(Arrays.<Object>asList("w"), a.getMessages());
+        }
+    }
+
+    @Test
+    public void testCompaction() throws IOException {
+        File directory = folder.newFolder("journal");
+        try (JournalConnectionStore store = new JournalConnectionStore(directory, 64)) {
+            store.created("a");
+            // confirmed messages are garbage, only the last one is live
+            for (int i = 0; i < 20; i++) {
+                store.enqueued("a", i, "message".getBytes("UTF-8"), true);
+                store.acknowledged("a", i, 0);
+                // 20 records of 24 bytes and acknowledgements do not fit into 5 segments without compaction
+                assertTrue(store.getSegmentCount() <= 5);
+            }
+            assertTrue(store.compactions > 1);
+            assertEquals(store.getSegmentCount(), directory.list().length);
+        }
+
+        try (JournalConnectionStore store = new JournalConnectionStore(directory, 64)) {
+            StoredConnection a = store.restore("a");
+            assertEquals(19, a.getFirstSequence());
+            assertEquals(Arrays.<Object>asList("message"), a.getMessages());
+        }
+    }
+
+    @Test
+    public void testIdleConnectionsCompaction() throws IOException {
+        File directory = folder.newFolder("journal");
+        try (JournalConnectionStore store = new JournalConnectionStore(directory, 256)) {
+            // counters of idle connections are live, rolling to a new segment does not rewrite them again
+            for (int i = 0; i < 100; i++)
+                store.created("c" + i);
+            int compactions = store.compactions;
+            assertTrue(compactions <= 1);
+
+            // repeated acknowledgements are garbage
+            for (int round = 0; round < 10; round++)
+                for (int i = 0; i < 100; i++)
+                    store.acknowledged("c" + i, 0, round);
+            assertTrue(store.compactions > compactions);
+            assertTrue(store.compactions < 10);
+        }
+
+        try (JournalConnectionStore store = new JournalConnectionStore(directory, 256)) {
+            assertEquals(100, store.size());
+            assertEquals(9, store.restore("c42").getReceivedCounter());
+        }
+    }
+
+    @Test
+    public void testIncrementalCompaction() throws IOException {
+        File directory = folder.newFolder("journal");
+        int round = 0;
+        try (JournalConnectionStore store = new JournalConnectionStore(directory, 1024)) {
+            for (int i = 0; i < 50; i++) {
+                store.created("c" + i);
+                store.enqueued("c" + i, 0, "message".getBytes("UTF-8"), true);
+            }
+            // repeated acknowledgements are garbage, compaction starts when the journal rolls
+            while (!store.isCompacting())
+                store.acknowledged("c0", 0, ++round);
+            // an append rewrites a few connections, the rest is still in old segments
+            store.enqueued("c1", 1, "second".getBytes("UTF-8"), true);
+            assertTrue(store.isCompacting());
+        }
+
+        // closed during compaction: old and rewritten records are replayed
+        try (JournalConnectionStore store = new JournalConnectionStore(directory, 1024)) {
+            assertEquals(50, store.size());
+            assertEquals(round, store.restore("c0").getReceivedCounter());
+            assertEquals(Arrays.<Object>asList("message", "second"), store.restore("c1").getMessages());
+            assertEquals(Arrays.<Object>asList("message"), store.restore("c49").getMessages());
+
+            int segments = store.getSegmentCount();
+            while (store.compactions == 0 || store.isCompacting())
+                store.acknowledged("c0", 0, ++round);
+            assertTrue(store.getSegmentCount() < segments);
+        }
+
+        try (JournalConnectionStore store = new JournalConnectionStore(directory, 1024)) {
+            assertEquals(50, store.size());
+            assertEquals(round, store.restore("c0").getReceivedCounter());
+            assertEquals(Arrays.<Object>asList("message", "second"), store.restore("c1").getMessages());
+            assertEquals(Arrays.<Object>asList("message"), store.restore("c49").getMessages());
+        }
+    }
+
+    @Test
+    public void testExpiry() throws IOException {
+        File directory = folder.newFolder("journal");
+        final AtomicLong now = new AtomicLong(1000);
+        try (JournalConnectionStore store = new JournalConnectionStore(directory, 1024, 1000, now::get)) {
+            store.created("a");
+            store.created("b");
+            now.set(1500);
+            store.acknowledged("a", 0, 1);
+        }
+
+        // clients of "b" did not return after restart
+        now.set(2200);
+        try (JournalConnectionStore store = new JournalConnectionStore(directory, 1024, 1000, now::get)) {
+            assertEquals(1, store.size());
+            assertNull(store.restore("b"));
+            assertEquals(1, store.restore("a").getReceivedCounter());
+
+            now.set(2600);
+            assertNull(store.restore("a"));
+            assertEquals(0, store.size());
+        }
+    }
+}
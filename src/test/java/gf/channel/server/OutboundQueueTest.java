@@ -0,0 +1,85 @@
+package gf.channel.server;
+
+import org.junit.Test;
+
+import java.util.Iterator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class OutboundQueueTest {
+    @Test
+    public void testAddAndAcknowledge() {
+        OutboundQueue<String> queue = new OutboundQueue<>(4);
+        assertTrue(queue.isEmpty());
+        assertEquals(0, queue.add("a"));
+        assertEquals(1, queue.add("b"));
+        assertEquals(2, queue.add("c"));
+        assertEquals(3, queue.size());
+
+        assertEquals(2, queue.acknowledge(2));
+        assertEquals(2, queue.getFirstSequence());
+        assertEquals(3, queue.getNextSequence());
+        assertEquals("c", queue.get(2));
+
+        // repeated acknowledge does nothing
+        assertEquals(0, queue.acknowledge(2));
+        assertEquals(1, queue.size());
+    }
+
+    @Test
+    public void testGrowWrapped() {
+        OutboundQueue<String> queue = new OutboundQueue<>(4);
+        for (int i = 0; i < 3; i++)
+            queue.add("m" + i);
+        queue.acknowledge(3);
+
+        // buffer wraps around before growing
+        for (int i = 3; i < 100; i++)
+            queue.add("m" + i);
+        assertEquals(97, queue.size());
+
+        for (long seq = 3; seq < 100; seq++)
+            assertEquals("m" + seq, queue.get(seq));
+
+        Iterator<String> it = queue.iterator(98);
+        assertEquals("m98", it.next());
+        assertEquals("m99", it.next());
+        assertFalse(it.hasNext());
+    }
+
+    @Test
+    public void testIterateAll() {
+        OutboundQueue<String> queue = new OutboundQueue<>(2);
+        queue.add("a");
+        queue.add("b");
+        queue.add("c");
+        queue.acknowledge(1);
+
+        StringBuilder sb = new StringBuilder();
+        for (String s : queue)
+            sb.append(s);
+        assertEquals("bc", sb.toString());
+    }
+
+    @Test
+    public void testOutOfRange() {
+        OutboundQueue<String> queue = new OutboundQueue<>();
+        queue.add("a");
+        queue.acknowledge(1);
+        try {
+            queue.get(0);
+            fail();
+        } catch (IndexOutOfBoundsException ex) {
+            // expected
+        }
+        try {
+            queue.acknowledge(2);
+            fail();
+        } catch (IndexOutOfBoundsException ex) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package gf.channel.server;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class QueueAccountingTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<QueuedConnection> connections = new ArrayList<>();
+    private final List<QueuedConnection> evicted = new ArrayList<>();
+    private final QueueAccounting<QueuedConnection> accounting = new QueueAccounting<>(connections, c -> {
+        evicted.add(c);
+        connections.remove(c);
+        accounting().release(c);
+    });
+
+    private QueueAccounting<QueuedConnection> accounting() {
+        return accounting;
+    }
+
+    private QueuedConnection connection(String connId) {
+        QueuedConnection conn = new QueuedConnection(4);
+        conn.connId = connId;
+        connections.add(conn);
+        return conn;
+    }
+
+    /** Reserve and queue a message as connectors do */
+    private boolean post(QueuedConnection conn, String message) {
+        if (!accounting.reserve(conn, message.length()))
+            return false;
+        conn.queue.add(message);
+        accounting.queued(conn, message.length());
+        accounting.updateWritable(conn);
+        return true;
+    }
+
+    @Test
+    public void testAcknowledgeReleasesBudget() {
+        QueuedConnection conn = connection("a");
+        post(conn, "12345");
+        post(conn, "123");
+        assertEquals(8, conn.queuedBytes);
+        assertEquals(8, accounting.getOutboundBudget().getUsed());
+
+        accounting.acknowledge(conn, 1, new DefaultConnectorMetrics());
+        assertEquals(1, conn.queue.getFirstSequence());
+        assertEquals(3, conn.queuedBytes);
+        assertEquals(3, accounting.getOutboundBudget().getUsed());
+
+        accounting.release(conn);
+        assertEquals(0, conn.queuedBytes);
+        assertEquals(0, accounting.getOutboundBudget().getUsed());
+    }
+
+    @Test
+    public void testEvictLargest() {
+        accounting.setOutboundBudget(new OutboundBudget(10, OutboundBudget.OverflowPolicy.EVICT_LARGEST));
+        QueuedConnection small = connection("small");
+        QueuedConnection large = connection("large");
+        assertTrue(post(small, "12"));
+        assertTrue(post(large, "123456"));
+
+        // the largest queue is evicted to make room
+        assertTrue(post(small, "1234"));
+        assertEquals(1, evicted.size());
+        assertEquals(large, evicted.get(0));
+        assertEquals(6, accounting.getOutboundBudget().getUsed());
+
+        // posting connection is the largest one: the message is dropped with the connection
+        assertFalse(post(small, "12345"));
+        assertEquals(small, evicted.get(1));
+        assertEquals(0, accounting.getOutboundBudget().getUsed());
+    }
+
+    @Test
+    public void testReject() {
+        accounting.setOutboundBudget(new OutboundBudget(10, OutboundBudget.OverflowPolicy.REJECT));
+        QueuedConnection conn = connection("a");
+        assertTrue(post(conn, "123456"));
+        assertFalse(post(conn, "123456"));
+        assertTrue(evicted.isEmpty());
+        assertEquals(6, accounting.getOutboundBudget().getUsed());
+    }
+
+    @Test
+    public void testIsFull() {
+        accounting.setMaxQueueLength(2);
+        accounting.setMaxQueueBytes(10);
+        QueuedConnection conn = connection("a");
+        post(conn, "12345");
+        assertFalse(accounting.isFull(conn, 5));
+        assertTrue(accounting.isFull(conn, 6));
+        post(conn, "1");
+        assertTrue(accounting.isFull(conn, 1));
+    }
+
+    @Test
+    public void testWatermarks() {
+        accounting.setHighWatermark(3);
+        accounting.setLowWatermark(1);
+        QueuedConnection conn = connection("a");
+        post(conn, "a");
+        post(conn, "b");
+        assertTrue(conn.writable);
+        post(conn, "c");
+        assertFalse(conn.writable);
+
+        // writable again only at low watermark
+        accounting.acknowledge(conn, 1, new DefaultConnectorMetrics());
+        assertFalse(accounting.updateWritable(conn));
+        assertFalse(conn.writable);
+        accounting.acknowledge(conn, 2, new DefaultConnectorMetrics());
+        assertTrue(accounting.updateWritable(conn));
+        assertTrue(conn.writable);
+    }
+
+    @Test
+    public void testSpillWrittenMessages() throws Exception {
+        File directory = folder.newFolder("spill");
+        try (SpillStore store = new SpillStore(directory, 64)) {
+            accounting.setSpillStore(store);
+            accounting.setSpillThresholdBytes(8);
+            QueuedConnection conn = connection("a");
+            post(conn, "1234");
+            post(conn, "5678");
+            assertTrue(accounting.spill(conn));
+            // nothing was written to client yet
+            assertEquals(0, conn.spilledSequence);
+
+            conn.flushedSequence = 2;
+            post(conn, "9");
+            assertTrue(accounting.spill(conn));
+            // written messages are spilled down to half of the threshold
+            assertEquals(2, conn.spilledSequence);
+            assertEquals(8, conn.spilledBytes);
+            assertEquals(1, conn.queuedBytes);
+            assertEquals(1, accounting.getOutboundBudget().getUsed());
+            assertEquals("1234", accounting.load(conn.queue.get(0)));
+            // spilled messages do not count to the queue length
+            accounting.setMaxQueueLength(2);
+            assertFalse(accounting.isFull(conn, 1));
+
+            accounting.release(conn);
+            assertEquals(0, store.getUsedBytes());
+            assertEquals(0, accounting.getOutboundBudget().getUsed());
+        }
+    }
+
+    @Test
+    public void testRestored() {
+        accounting.setHighWatermark(2);
+        QueuedConnection conn = connection("a");
+        conn.queue.add("123");
+        conn.queue.add(new byte[4]);
+        accounting.restored(conn);
+        assertEquals(7, conn.queuedBytes);
+        assertEquals(7, accounting.getOutboundBudget().getUsed());
+        assertFalse(conn.writable);
+    }
+}
@@ -0,0 +1,118 @@
+package gf.channel.server;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SpillStoreTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+    private SpillStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = folder.newFolder("spill");
+        store = new SpillStore(directory, 16);
+    }
+
+    @After
+    public void tearDown() {
+        store.close();
+    }
+
+    @Test
+    public void testSpillAndLoad() throws IOException {
+        SpillStore.Spilled text = store.spill("caf\u00e9");
+        SpillStore.Spilled bytes = store.spill(new byte[] {0, '\n', (byte) 0xFF});
+        assertEquals(8, store.getUsedBytes());
+        assertEquals("caf\u00e9", store.load(text));
+        assertArrayEquals(new byte[] {0, '\n', (byte) 0xFF}, (byte[]) store.load(bytes));
+    }
+
+    @Test
+    public void testRead() throws IOException {
+        SpillStore.Spilled bytes = store.spill(new byte[] {1, 2, 3});
+        byte[] dst = new byte[5];
+        assertEquals(3, store.read(bytes, dst, 1));
+        assertArrayEquals(new byte[] {0, 1, 2, 3, 0}, dst);
+
+        store.release(bytes);
+        store.close();
+        try {
+            store.read(bytes, dst, 0);
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void testUnmap() throws IOException {
+        File file = folder.newFile("mapped");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, 16);
+            buffer.put((byte) 1);
+            assertTrue(MappedBuffers.unmap(buffer));
+        }
+        assertTrue(file.delete());
+    }
+
+    @Test
+    public void testMaxBytes() throws IOException {
+        try (SpillStore limited = new SpillStore(folder.newFolder("limited"), 16, 10)) {
+            SpillStore.Spilled first = limited.spill("01234");
+            assertNotNull(limited.spill("56789"));
+            assertNull(limited.spill("a"));
+            limited.release(first);
+            assertNotNull(limited.spill("a"));
+            assertEquals(6, limited.getUsedBytes());
+        }
+    }
+
+    @Test
+    public void testSegmentsDeleted() throws IOException {
+        SpillStore.Spilled first = store.spill("0123456789");
+        SpillStore.Spilled second = store.spill("0123456789");
+        // larger than a segment
+        SpillStore.Spilled large = store.spill("0123456789012345678901234567890123456789");
+        assertEquals(3, store.getSegmentCount());
+
+        store.release(first);
+        store.release(second);
+        assertEquals(1, store.getSegmentCount());
+        assertEquals(1, directory.list().length);
+        assertEquals("0123456789012345678901234567890123456789", store.load(large));
+
+        // the segment being written is kept until the next one is started
+        store.release(large);
+        assertEquals(0, store.getUsedBytes());
+        assertEquals(1, store.getSegmentCount());
+        store.spill("0123456789012345");
+        assertEquals(1, store.getSegmentCount());
+
+        store.close();
+        assertEquals(0, directory.list().length);
+        try {
+            store.load(large);
+            fail();
+        } catch (IOException ex) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package gf.channel.server;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SubscriptionRegistryTest {
+    @Test
+    public void testSubscribe() {
+        SubscriptionRegistry<String> registry = new SubscriptionRegistry<>();
+        registry.subscribe("c1", "news");
+        registry.subscribe("c2", "news");
+        registry.subscribe("c1", "sport");
+        registry.subscribe("c1", "sport");
+
+        assertEquals(new HashSet<>(Arrays.asList("c1", "c2")), registry.getSubscribers("news"));
+        assertEquals(Collections.singleton("c1"), registry.getSubscribers("sport"));
+        assertEquals(new HashSet<>(Arrays.asList("news", "sport")), registry.getTopics("c1"));
+        assertTrue(registry.getSubscribers("weather").isEmpty());
+
+        registry.unsubscribe("c2", "news");
+        registry.unsubscribe("c2", "sport");
+        assertEquals(Collections.singleton("c1"), registry.getSubscribers("news"));
+        assertTrue(registry.getTopics("c2").isEmpty());
+    }
+
+    @Test
+    public void testUnsubscribeAll() {
+        SubscriptionRegistry<String> registry = new SubscriptionRegistry<>();
+        registry.subscribe("c1", "news");
+        registry.subscribe("c1", "sport");
+        registry.subscribe("c2", "sport");
+
+        registry.unsubscribeAll("c1");
+        assertTrue(registry.getSubscribers("news").isEmpty());
+        assertEquals(Collections.singleton("c2"), registry.getSubscribers("sport"));
+        assertTrue(registry.getTopics("c1").isEmpty());
+
+        // unknown connection
+        registry.unsubscribeAll("c3");
+    }
+}
@@ -4,6 +4,7 @@ import gf.channel.client.ClientConnector;
 import gf.channel.client.FallbackClientConnector;
 import gf.channel.server.servlet.AsyncPollingConnectionServlet;
 import gf.channel.server.servlet.JettyWSConnectionServlet;
+import gf.channel.server.servlet.SseConnectionServlet;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.servlet.ServletHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
@@ -56,6 +57,8 @@ public class TestFallbackConnector {
     private final static String WS_URL = "http://localhost:"+PORT+WS_PATH;
     private final static String POLL_PATH = "/rpc/poll";
     private final static String POLL_URL = "http://localhost:"+PORT+POLL_PATH;
+    private final static String SSE_PATH = "/rpc/sse";
+    private final static String SSE_URL = "http://localhost:"+PORT+SSE_PATH;
     private final static String WSBH_PATH = "/rpc/wsbh";
     private final static String WSBH_URL = "http://localhost:"+PORT+WSBH_PATH;
     private final static String POLLBH_PATH = "/rpc/pollbh";
@@ -78,6 +81,14 @@ public class TestFallbackConnector {
         }
     }
 
+    private static MySseServlet sseInstance;
+
+    public static class MySseServlet extends SseConnectionServlet {
+        public MySseServlet() {
+            sseInstance = this;
+        }
+    }
+
     public static class PollingBlackHoleServlet extends HttpServlet {
         @Override
         protected void service(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
@@ -115,6 +126,8 @@ public class TestFallbackConnector {
         servletHolder.setInitOrder(1);  // load on startup
         servletHolder = handler.addServletWithMapping(MyPollingServlet.class, POLL_PATH);
         servletHolder.setInitOrder(1);  // load on startup
+        servletHolder = handler.addServletWithMapping(MySseServlet.class, SSE_PATH);
+        servletHolder.setInitOrder(1);  // load on startup
         servletHolder = handler.addServletWithMapping(WsBlackHoleServlet.class, WSBH_PATH);
         servletHolder.setInitOrder(1);  // load on startup
         servletHolder = handler.addServletWithMapping(PollingBlackHoleServlet.class, POLLBH_PATH);
@@ -315,6 +328,99 @@ public class TestFallbackConnector {
     }
 
 
+    @Test
+    public void testSseConnect() throws Exception
+    {
+        // server-sent events used as polling transport, server handler echoes (message * 10)
+        final ServerConnectorHandler serverHandler = mock(ServerConnectorHandler.class);
+        wsInstance.setHandler(serverHandler);
+        sseInstance.setHandler(serverHandler);
+
+        final String[] connectionId = new String[2];
+        doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocationOnMock) throws Throwable {
+                if (invocationOnMock.getArguments()[0] == wsInstance)
+                    connectionId[0] = (String) invocationOnMock.getArguments()[1];
+                else
+                    connectionId[1] = (String) invocationOnMock.getArguments()[1];
+                return null;
+            }
+        }).when(serverHandler).onConnected(any(ServerConnector.class), anyString());
+        doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocationOnMock) throws Throwable {
+                ServerConnector conn = (ServerConnector) invocationOnMock.getArguments()[0];
+                String connId = (String) invocationOnMock.getArguments()[1];
+                Integer num = Integer.parseInt((String) invocationOnMock.getArguments()[2]);
+                conn.post(connId, ""+(num*10));
+                return null;
+            }
+        }).when(serverHandler).onMessage(any(ServerConnector.class), anyString(), any());
+
+        JavaWSClientConnector wsClient = new JavaWSClientConnector(WSBH_URL);
+        JavaSseClientConnector sseClient = new JavaSseClientConnector(SSE_URL);
+        FallbackClientConnector client = new FallbackClientConnector(wsClient, sseClient);
+        client.setTryConnectionInParallel(false);
+
+        ClientConnector.ConnectionHandler connectionHandler = mock(ClientConnector.ConnectionHandler.class);
+        ClientConnector.MessageHandler messageHandler = mock(ClientConnector.MessageHandler.class);
+        final List<String> results = new ArrayList<>();
+        doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocationOnMock) throws Throwable {
+                String msg = (String) invocationOnMock.getArguments()[0];
+                results.add(msg);
+                return null;
+            }
+        }).when(messageHandler).onMessage(any());
+        client.addConnectionHandler(connectionHandler);
+        client.addMessageHandler(messageHandler);
+
+        client.connect();
+
+        for (int i = 0; i < 10; i++)
+            client.post(String.valueOf(i));
+
+        // waiting for the end
+        for (int i = 0; i < 10; i++) {
+            Thread.sleep(1000);
+
+            if (client.getState() == ClientConnector.State.ready)
+                break;
+        }
+        assertEquals(ClientConnector.State.ready, client.getState());
+
+        client.close();
+
+        // waiting for the end
+        for (int i = 0; i < 10; i++) {
+            Thread.sleep(1000);
+
+            if (client.getState() == ClientConnector.State.closed)
+                break;
+        }
+        assertEquals(ClientConnector.State.closed, client.getState());
+
+        // server state flow
+        verify(serverHandler).onConnected(eq(sseInstance), eq(connectionId[1]));
+        verify(serverHandler, times(10)).onMessage(eq(sseInstance), eq(connectionId[1]), any());
+        verify(serverHandler).onDisconnected(eq(sseInstance), eq(connectionId[1]));
+
+        // client state flow
+        verify(connectionHandler).onStateChanged(ClientConnector.State.closed, ClientConnector.State.connecting);
+        verify(connectionHandler).onStateChanged(ClientConnector.State.connecting, ClientConnector.State.ready);
+        verify(connectionHandler).onStateChanged(ClientConnector.State.ready, ClientConnector.State.closing);
+        verify(connectionHandler).onStateChanged(ClientConnector.State.closing, ClientConnector.State.closed);
+
+        // client echo
+        assertEquals(10, results.size());
+
+        for (int i = 0; i < 10; i++)
+            assertEquals( ""+(i*10), results.get(i));
+    }
+
+
     @Test
     public void testEarlyClose() throws Exception
     {
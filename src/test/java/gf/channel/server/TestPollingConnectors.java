@@ -2,6 +2,16 @@ package gf.channel.server;
 
 import gf.channel.client.ClientConnector;
 import gf.channel.server.servlet.AsyncPollingConnectionServlet;
+import gf.channel.server.servlet.ResponseWriter;
+import org.apache.http.client.entity.GzipCompressingEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.servlet.ServletHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
@@ -12,14 +22,24 @@ import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nonnull;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.LogManager;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.AdditionalMatchers.or;
 import static org.mockito.Mockito.*;
 
@@ -47,9 +67,19 @@ public class TestPollingConnectors {
     private static MyPollingServlet instance;
 
     public static class MyPollingServlet extends AsyncPollingConnectionServlet {
+        /** Connections by id, lets tests check their monitors */
+        final Map<String, Object> connectionObjects = new ConcurrentHashMap<>();
+
         public MyPollingServlet() {
             instance = this;
         }
+
+        @Override
+        protected void respond(@Nonnull Connection conn, @Nonnull HttpServletRequest req,
+                               @Nonnull HttpServletResponse resp, @Nonnull ResponseWriter writer) throws IOException {
+            connectionObjects.put(conn.connId, conn);
+            super.respond(conn, req, resp, writer);
+        }
     }
 
 
@@ -381,4 +411,246 @@ public class TestPollingConnectors {
             assertEquals(""+i, results.get(i));
         }
     }
+
+
+    @Test
+    public void testCompression() throws Exception
+    {
+        // large messages are gzipped in both directions
+        instance.setCompressionThreshold(100);
+        try {
+            final StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 500; i++)
+                sb.append("{\"key\":").append(i).append('}');
+            final String payload = sb.toString();
+
+            final ServerConnectorHandler serverHandler = mock(ServerConnectorHandler.class);
+            instance.setHandler(serverHandler);
+            doAnswer(new Answer() {
+                @Override
+                public Object answer(InvocationOnMock invocationOnMock) throws Throwable {
+                    String connId = (String) invocationOnMock.getArguments()[1];
+                    instance.post(connId, invocationOnMock.getArguments()[2] + "!");
+                    return null;
+                }
+            }).when(serverHandler).onMessage(any(ServerConnector.class), anyString(), any());
+
+            JavaPollingClientConnector client = new JavaPollingClientConnector(URL);
+            client.setCompressionThreshold(100);
+            ClientConnector.MessageHandler messageHandler = mock(ClientConnector.MessageHandler.class);
+            final List<String> results = new ArrayList<>();
+            doAnswer(new Answer() {
+                @Override
+                public Object answer(InvocationOnMock invocationOnMock) throws Throwable {
+                    results.add((String) invocationOnMock.getArguments()[0]);
+                    return null;
+                }
+            }).when(messageHandler).onMessage(any());
+            client.addMessageHandler(messageHandler);
+
+            client.connect();
+            Thread.sleep(1000);
+            for (int i = 0; i < 3; i++)
+                client.post(payload + i);
+            Thread.sleep(1000);
+            client.close();
+
+            assertEquals(3, results.size());
+            for (int i = 0; i < 3; i++)
+                assertEquals(payload + i + "!", results.get(i));
+        } finally {
+            instance.setCompressionThreshold(1024);
+        }
+    }
+
+
+    @Test
+    public void testLongPollWakeUp() throws Exception
+    {
+        // message posted by server completes the waiting long poll, not its timeout
+        final ServerConnectorHandler serverHandler = mock(ServerConnectorHandler.class);
+        instance.setHandler(serverHandler);
+        final String[] connectionId = new String[1];
+        doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocationOnMock) throws Throwable {
+                connectionId[0] = (String) invocationOnMock.getArguments()[1];
+                return null;
+            }
+        }).when(serverHandler).onConnected(any(ServerConnector.class), anyString());
+
+        JavaPollingClientConnector client = new JavaPollingClientConnector(URL);
+        ClientConnector.MessageHandler messageHandler = mock(ClientConnector.MessageHandler.class);
+        final List<String> results = new ArrayList<>();
+        doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocationOnMock) throws Throwable {
+                synchronized (results) {
+                    results.add((String) invocationOnMock.getArguments()[0]);
+                }
+                return null;
+            }
+        }).when(messageHandler).onMessage(any());
+        client.addMessageHandler(messageHandler);
+
+        client.connect();
+        // client is waiting in long poll
+        Thread.sleep(1000);
+
+        instance.post(connectionId[0], "wake");
+        for (int i = 0; i < 20; i++) {
+            Thread.sleep(100);
+            synchronized (results) {
+                if (!results.isEmpty())
+                    break;
+            }
+        }
+        client.close();
+
+        // much less than long polling timeout
+        synchronized (results) {
+            assertEquals(1, results.size());
+            assertEquals("wake", results.get(0));
+        }
+    }
+
+
+    @Test
+    public void testCompressedRequestTooLarge() throws Exception
+    {
+        // small gzipped body inflating beyond the request limit closes the connection instead of exhausting the heap
+        final ServerConnectorHandler serverHandler = mock(ServerConnectorHandler.class);
+        instance.setHandler(serverHandler);
+
+        try (CloseableHttpClient http = HttpClients.createDefault()) {
+            String connId;
+            try (CloseableHttpResponse res = http.execute(new HttpGet(URL))) {
+                connId = EntityUtils.toString(res.getEntity()).split("\n")[0];
+            }
+
+            // empty messages pass the message size check
+            char[] lines = new char[8 * 1024 * 1024];
+            Arrays.fill(lines, '\n');
+            HttpPost post = new HttpPost(URL + "?cid=" + connId);
+            post.setEntity(new GzipCompressingEntity(new StringEntity("0\n0\n" + new String(lines), StandardCharsets.UTF_8)));
+            try (CloseableHttpResponse res = http.execute(post)) {
+                assertEquals(410, res.getStatusLine().getStatusCode());
+            }
+        }
+        verify(serverHandler).onDisconnected(any(ServerConnector.class), anyString());
+        verify(serverHandler, never()).onMessage(any(ServerConnector.class), anyString(), any());
+    }
+
+
+    @Test
+    public void testMalformedRequest() throws Exception
+    {
+        // malformed body closes the connection, none of its messages is accepted
+        final ServerConnectorHandler serverHandler = mock(ServerConnectorHandler.class);
+        instance.setHandler(serverHandler);
+
+        try (CloseableHttpClient http = HttpClients.createDefault()) {
+            String connId = connect(http);
+            HttpPost post = new HttpPost(URL + "?cid=" + connId);
+            post.setEntity(new StringEntity("0\nx\nmessage\n", StandardCharsets.UTF_8));
+            try (CloseableHttpResponse res = http.execute(post)) {
+                assertEquals(410, res.getStatusLine().getStatusCode());
+            }
+            post = new HttpPost(URL + "?cid=" + connId);
+            post.setEntity(new StringEntity("0\n0\nmessage\n", StandardCharsets.UTF_8));
+            try (CloseableHttpResponse res = http.execute(post)) {
+                assertEquals(410, res.getStatusLine().getStatusCode());
+            }
+        }
+        verify(serverHandler).onDisconnected(any(ServerConnector.class), anyString());
+        verify(serverHandler, never()).onMessage(any(ServerConnector.class), anyString(), any());
+    }
+
+
+    @Test
+    public void testDisconnectOutsideOfMonitor() throws Exception
+    {
+        // handler runs in the closing thread by default, it must not hold the connection monitor
+        final Map<String, Boolean> holdingLock = new ConcurrentHashMap<>();
+        final ServerConnectorHandler serverHandler = mock(ServerConnectorHandler.class);
+        instance.setHandler(serverHandler);
+        doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocationOnMock) throws Throwable {
+                String connId = (String) invocationOnMock.getArguments()[1];
+                Object conn = instance.connectionObjects.get(connId);
+                if (conn != null)
+                    holdingLock.put(connId, Thread.holdsLock(conn));
+                return null;
+            }
+        }).when(serverHandler).onDisconnected(any(ServerConnector.class), anyString());
+
+        long maxQueueBytes = instance.getMaxQueueBytes();
+        try (CloseableHttpClient http = HttpClients.createDefault()) {
+            // closed by client
+            String closedByClient = connect(http);
+            try (CloseableHttpResponse res = http.execute(new HttpDelete(URL + "?cid=" + closedByClient))) {
+                assertEquals(410, res.getStatusLine().getStatusCode());
+            }
+
+            // closed by server posting to a full queue
+            String closedByServer = connect(http);
+            instance.setMaxQueueBytes(4);
+            instance.post(closedByServer, "12345");
+
+            assertEquals(Boolean.FALSE, holdingLock.get(closedByClient));
+            assertEquals(Boolean.FALSE, holdingLock.get(closedByServer));
+        } finally {
+            instance.setMaxQueueBytes(maxQueueBytes);
+        }
+    }
+
+    @Test
+    public void testSpilledMessagesResent() throws Exception
+    {
+        // message spilled after it was written is repeated unchanged by the next response
+        instance.setHandler(mock(ServerConnectorHandler.class));
+        File directory = Files.createTempDirectory("spill").toFile();
+        long spillThresholdBytes = instance.getSpillThresholdBytes();
+        try (CloseableHttpClient http = HttpClients.createDefault(); SpillStore store = new SpillStore(directory, 1024)) {
+            instance.setSpillStore(store);
+            instance.setSpillThresholdBytes(1);
+            String connId = connect(http);
+
+            instance.post(connId, "first");
+            String[] written = poll(http, connId);
+            instance.post(connId, "second");
+            assertTrue(store.getUsedBytes() > 0);
+
+            String[] resent = poll(http, connId);
+            assertEquals(written[2], resent[2]);
+            assertEquals(4, resent.length);
+        } finally {
+            instance.setSpillStore(null);
+            instance.setSpillThresholdBytes(spillThresholdBytes);
+        }
+    }
+
+    /** Post counters without confirming messages, response lines */
+    private static String[] poll(CloseableHttpClient http, String connId) throws IOException {
+        HttpPost post = new HttpPost(URL + "?cid=" + connId);
+        post.setEntity(new StringEntity("0\n0\n", StandardCharsets.UTF_8));
+        try (CloseableHttpResponse res = http.execute(post)) {
+            return EntityUtils.toString(res.getEntity()).split("\n");
+        }
+    }
+
+    /** Create connection and post counters, the servlet remembers the connection object */
+    private static String connect(CloseableHttpClient http) throws IOException {
+        String connId;
+        try (CloseableHttpResponse res = http.execute(new HttpGet(URL))) {
+            connId = EntityUtils.toString(res.getEntity()).split("\n")[0];
+        }
+        HttpPost post = new HttpPost(URL + "?cid=" + connId);
+        post.setEntity(new StringEntity("0\n0\n", StandardCharsets.UTF_8));
+        try (CloseableHttpResponse res = http.execute(post)) {
+            EntityUtils.consume(res.getEntity());
+        }
+        return connId;
+    }
 }
@@ -15,6 +15,7 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
 import java.util.logging.LogManager;
@@ -381,4 +382,262 @@ public class TestWSConnectors {
             assertEquals(""+i, results.get(i));
         }
     }
+
+
+    @Test
+    public void testServerLingerSending() throws Exception
+    {
+        // messages are accumulated: 4 by batch limit, the rest by linger period
+        instance.setLingerMillis(200);
+        instance.setMaxBatchMessages(4);
+        try {
+            final ServerConnectorHandler serverHandler = mock(ServerConnectorHandler.class);
+            instance.setHandler(serverHandler);
+            final String[] connectionId = new String[1];
+            doAnswer(new Answer() {
+                @Override
+                public Object answer(InvocationOnMock invocationOnMock) throws Throwable {
+                    connectionId[0] = (String) invocationOnMock.getArguments()[1];
+                    for (int i = 0; i < 10; i++)
+                        instance.post(connectionId[0], "" + i);
+                    return null;
+                }
+            })
+                    .when(serverHandler)
+                    .onConnected(any(ServerConnector.class), anyString());
+
+            final JavaWSClientConnector client = new JavaWSClientConnector(URL);
+            ClientConnector.MessageHandler messageHandler = mock(ClientConnector.MessageHandler.class);
+            final List<String> results = new ArrayList<>();
+            doAnswer(new Answer() {
+                @Override
+                public Object answer(InvocationOnMock invocationOnMock) throws Throwable {
+                    String msg = (String) invocationOnMock.getArguments()[0];
+                    results.add(msg);
+                    return null;
+                }
+            }).when(messageHandler).onMessage(any());
+            client.addMessageHandler(messageHandler);
+
+            client.connect();
+
+            // waiting
+            for (int i = 0; i < 10; i++) {
+                Thread.sleep(500);
+
+                if (results.size() == 10)
+                    break;
+            }
+            instance.terminate(connectionId[0]);
+
+            for (int i = 0; i < 10; i++) {
+                Thread.sleep(500);
+
+                if (client.getState() == ClientConnector.State.closed)
+                    break;
+            }
+
+            assertEquals(10, results.size());
+            for (int i = 0; i < 10; i++)
+                assertEquals("" + i, results.get(i));
+        } finally {
+            instance.setLingerMillis(0);
+            instance.setMaxBatchMessages(100);
+        }
+    }
+
+
+    @Test
+    public void testBroadcast() throws Exception
+    {
+        final ServerConnectorHandler serverHandler = mock(ServerConnectorHandler.class);
+        instance.setHandler(serverHandler);
+        final List<String> connectionIds = new ArrayList<>();
+        doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocationOnMock) throws Throwable {
+                synchronized (connectionIds) {
+                    connectionIds.add((String) invocationOnMock.getArguments()[1]);
+                }
+                return null;
+            }
+        })
+                .when(serverHandler)
+                .onConnected(any(ServerConnector.class), anyString());
+
+        final List<JavaWSClientConnector> clients = new ArrayList<>();
+        final List<List<String>> results = new ArrayList<>();
+        for (int c = 0; c < 2; c++) {
+            JavaWSClientConnector client = new JavaWSClientConnector(URL);
+            ClientConnector.MessageHandler messageHandler = mock(ClientConnector.MessageHandler.class);
+            final List<String> clientResults = new ArrayList<>();
+            doAnswer(new Answer() {
+                @Override
+                public Object answer(InvocationOnMock invocationOnMock) throws Throwable {
+                    clientResults.add((String) invocationOnMock.getArguments()[0]);
+                    return null;
+                }
+            }).when(messageHandler).onMessage(any());
+            client.addMessageHandler(messageHandler);
+            client.connect();
+            clients.add(client);
+            results.add(clientResults);
+        }
+
+        // waiting for both connections
+        for (int i = 0; i < 10; i++) {
+            Thread.sleep(500);
+
+            if (clients.get(0).getState() == ClientConnector.State.ready
+                    && clients.get(1).getState() == ClientConnector.State.ready)
+                break;
+        }
+
+        String first;
+        synchronized (connectionIds) {
+            assertEquals(2, connectionIds.size());
+            first = connectionIds.get(0);
+        }
+        instance.broadcast("all");
+        instance.post(Arrays.asList(first, "unknown"), "one");
+
+        Thread.sleep(1000);
+
+        for (JavaWSClientConnector client : clients)
+            client.close();
+
+        for (int i = 0; i < 10; i++) {
+            Thread.sleep(500);
+
+            if (clients.get(0).getState() == ClientConnector.State.closed
+                    && clients.get(1).getState() == ClientConnector.State.closed)
+                break;
+        }
+
+        // both clients get the broadcast, only one of them gets the targeted message
+        int firstClient = results.get(0).size() == 2 ? 0 : 1;
+        assertEquals(Arrays.asList("all", "one"), results.get(firstClient));
+        assertEquals(Arrays.asList("all"), results.get(1 - firstClient));
+    }
+
+
+    @Test
+    public void testBinaryExchange() throws Exception
+    {
+        // server handler echoes (message * 10)
+        final ServerConnectorHandler serverHandler = mock(ServerConnectorHandler.class);
+        instance.setHandler(serverHandler);
+        final String[] connectionId = new String[1];
+        doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocationOnMock) throws Throwable {
+                connectionId[0] = (String) invocationOnMock.getArguments()[1];
+                return null;
+            }
+        }).when(serverHandler).onConnected(any(ServerConnector.class), anyString());
+        doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocationOnMock) throws Throwable {
+                String connId = (String) invocationOnMock.getArguments()[1];
+                Integer num = Integer.parseInt((String) invocationOnMock.getArguments()[2]);
+                instance.post(connId, ""+(num*10));
+                return null;
+            }
+        }).when(serverHandler).onMessage(any(ServerConnector.class), anyString(), any());
+
+        JavaWSClientConnector client = new JavaWSClientConnector(URL);
+        client.setBinary(true);
+        ClientConnector.ConnectionHandler connectionHandler = mock(ClientConnector.ConnectionHandler.class);
+        client.addConnectionHandler(connectionHandler);
+        ClientConnector.MessageHandler messageHandler = mock(ClientConnector.MessageHandler.class);
+        final List<String> results = new ArrayList<>();
+        doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocationOnMock) throws Throwable {
+                String msg = (String) invocationOnMock.getArguments()[0];
+                results.add(msg);
+                return null;
+            }
+        }).when(messageHandler).onMessage(any());
+        client.addMessageHandler(messageHandler);
+
+        client.connect();
+
+        for (int i = 0; i < 10; i++)
+            client.post(String.valueOf(i));
+
+        Thread.sleep(1000);
+
+        client.close();
+
+        // waiting for the end
+        for (int i = 0; i < 10; i++) {
+            Thread.sleep(500);
+
+            if (client.getState() == ClientConnector.State.closed)
+                break;
+        }
+
+        // server state flow
+        verify(serverHandler).onConnected(any(ServerConnector.class), eq(connectionId[0]));
+        verify(serverHandler, times(10)).onMessage(any(ServerConnector.class), eq(connectionId[0]), any());
+        verify(serverHandler).onDisconnected(any(ServerConnector.class), eq(connectionId[0]));
+
+        // client state flow
+        verify(connectionHandler).onStateChanged(ClientConnector.State.connecting, ClientConnector.State.ready);
+        verify(connectionHandler).onStateChanged(ClientConnector.State.closing, ClientConnector.State.closed);
+
+        // client echo
+        assertEquals(10, results.size());
+
+        for (int i = 0; i < 10; i++)
+            assertEquals( ""+(i*10), results.get(i));
+    }
+
+
+    @Test
+    public void testCompression() throws Exception
+    {
+        // large messages are deflated, small ones (control frames, acks) are sent as is
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 500; i++)
+            sb.append("{\"key\":").append(i).append('}');
+        final String payload = sb.toString();
+
+        final ServerConnectorHandler serverHandler = mock(ServerConnectorHandler.class);
+        instance.setHandler(serverHandler);
+        doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocationOnMock) throws Throwable {
+                String connId = (String) invocationOnMock.getArguments()[1];
+                instance.post(connId, invocationOnMock.getArguments()[2] + "!");
+                instance.post(connId, "small");
+                return null;
+            }
+        }).when(serverHandler).onMessage(any(ServerConnector.class), anyString(), any());
+
+        JavaWSClientConnector client = new JavaWSClientConnector(URL);
+        ClientConnector.MessageHandler messageHandler = mock(ClientConnector.MessageHandler.class);
+        final List<String> results = new ArrayList<>();
+        doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocationOnMock) throws Throwable {
+                results.add((String) invocationOnMock.getArguments()[0]);
+                return null;
+            }
+        }).when(messageHandler).onMessage(any());
+        client.addMessageHandler(messageHandler);
+
+        client.connect();
+        for (int i = 0; i < 5; i++)
+            client.post(payload + i);
+        Thread.sleep(1000);
+        client.close();
+
+        assertEquals(10, results.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(payload + i + "!", results.get(i * 2));
+            assertEquals("small", results.get(i * 2 + 1));
+        }
+    }
 }
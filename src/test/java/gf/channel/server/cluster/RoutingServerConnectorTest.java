@@ -0,0 +1,167 @@
+package gf.channel.server.cluster;
+
+import gf.channel.server.AbstractSocketServerConnector;
+import gf.channel.server.ServerConnector;
+import gf.channel.server.ServerConnectorHandler;
+import gf.channel.shared.DefaultStringSerializer;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RoutingServerConnectorTest {
+    private final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+    private final LoopbackBus bus = new LoopbackBus() {
+        @Override
+        public boolean send(@Nonnull String fromNodeId, @Nonnull String toNodeId, @Nonnull List<RoutedCommand> batch) {
+            batchSizes.add(batch.size());
+            return super.send(fromNodeId, toNodeId, batch);
+        }
+    };
+    private final List<String> sentA = new ArrayList<>();
+    private final List<String> sentB = new ArrayList<>();
+    private RoutingServerConnector nodeA;
+    private RoutingServerConnector nodeB;
+    private String connA;
+    private String connB;
+
+    @Before
+    public void setUp() {
+        nodeA = new RoutingServerConnector("a", connector("a", sentA), bus);
+        nodeB = new RoutingServerConnector("b", connector("b", sentB), bus);
+        ((AbstractSocketServerConnector) nodeA.getLocal()).service(new Object(), "N");
+        ((AbstractSocketServerConnector) nodeB.getLocal()).service(new Object(), "N");
+        connA = sentA.remove(0).split("\n")[1];
+        connB = sentB.remove(0).split("\n")[1];
+    }
+
+    private static AbstractSocketServerConnector connector(String nodeId, final List<String> sent) {
+        AbstractSocketServerConnector connector = new AbstractSocketServerConnector() {
+            @Override
+            protected void socketSend(@Nullable Object connection, @Nonnull String text) {
+                sent.add(text);
+            }
+
+            @Override
+            protected void socketSend(@Nullable Object connection, @Nonnull byte[] data, int offset, int length) {
+            }
+
+            @Override
+            protected void socketClose(@Nullable Object connection) {
+            }
+        };
+        connector.setMessageSerializer(new DefaultStringSerializer());
+        connector.setConnectionIdPrefix(RoutingServerConnector.connectionIdPrefix(nodeId));
+        return connector;
+    }
+
+    @Test
+    public void testRouting() {
+        assertTrue(connA.startsWith("a."));
+        nodeA.setLingerMillis(0);
+        nodeA.post(connA, "local");
+        nodeA.post(connB, "remote");
+        assertEquals(Arrays.asList("S\n0\n0\nlocal\n"), sentA);
+        assertEquals(Arrays.asList("S\n0\n0\nremote\n"), sentB);
+
+        sentB.clear();
+        nodeA.subscribe(connB, "topic");
+        nodeA.publish("topic", "published");
+        assertEquals(Arrays.asList("S\n0\n1\npublished\n"), sentB);
+
+        sentA.clear();
+        sentB.clear();
+        nodeB.setLingerMillis(0);
+        nodeB.broadcast("all");
+        assertEquals(Arrays.asList("S\n0\n1\nall\n"), sentA);
+        assertEquals(Arrays.asList("S\n0\n2\nall\n"), sentB);
+
+        sentB.clear();
+        nodeA.terminate(connB);
+        assertEquals(Arrays.asList("CR\n"), sentB);
+    }
+
+    @Test
+    public void testBatching() {
+        nodeA.setLingerMillis(60000);
+        nodeA.post(connB, "1");
+        nodeA.post(Arrays.asList(connA, connB), "2");
+        nodeA.post(connB, "3");
+        assertTrue(sentB.isEmpty());
+        assertEquals(Arrays.asList("S\n0\n0\n2\n"), sentA);
+
+        nodeA.flush();
+        assertEquals(Arrays.asList(3), batchSizes);
+        assertEquals(Arrays.asList("S\n0\n0\n1\n", "S\n0\n1\n2\n", "S\n0\n2\n3\n"), sentB);
+
+        nodeA.setMaxBatchCommands(2);
+        nodeA.post(connB, "4");
+        nodeA.post(connB, "5");
+        assertEquals(Arrays.asList(3, 2), batchSizes);
+    }
+
+    @Test(timeout = 10000)
+    public void testReentrantForwarding() throws Exception {
+        // each handler forwards back to the other node while a batch to it is being delivered
+        CyclicBarrier barrier = new CyclicBarrier(2);
+        forwardOnWritabilityChange(nodeA, connB, barrier);
+        forwardOnWritabilityChange(nodeB, connA, barrier);
+
+        Thread toB = new Thread(() -> nodeA.post(connB, "1"));
+        Thread toA = new Thread(() -> nodeB.post(connA, "2"));
+        toB.setDaemon(true);
+        toA.setDaemon(true);
+        toB.start();
+        toA.start();
+        toB.join();
+        toA.join();
+
+        assertEquals(Arrays.asList("S\n0\n0\n2\n", "S\n0\n1\nback\n"), sentA);
+        assertEquals(Arrays.asList("S\n0\n0\n1\n", "S\n0\n1\nback\n"), sentB);
+    }
+
+    private static void forwardOnWritabilityChange(RoutingServerConnector node, final String peer,
+                                                   final CyclicBarrier barrier) {
+        node.setLingerMillis(0);
+        AbstractSocketServerConnector local = (AbstractSocketServerConnector) node.getLocal();
+        local.setHighWatermark(1);
+        local.setLowWatermark(0);
+        local.setHandler(node);
+        node.setHandler(new ServerConnectorHandler() {
+            @Override
+            public void onConnected(ServerConnector connector, String connectionId) {
+            }
+
+            @Override
+            public void onDisconnected(ServerConnector connector, String connectionId) {
+            }
+
+            @Override
+            public void onMessage(ServerConnector connector, String connectionId, Object message) {
+            }
+
+            @Override
+            public void onWritabilityChanged(ServerConnector connector, String connectionId, boolean writable) {
+                if (writable)
+                    return;
+                try {
+                    // both nodes are delivering to each other
+                    barrier.await(5, TimeUnit.SECONDS);
+                } catch (Exception ex) {
+                    throw new IllegalStateException(ex);
+                }
+                connector.post(peer, "back");
+            }
+        });
+    }
+}
@@ -0,0 +1,26 @@
+package gf.channel.server.servlet;
+
+import org.eclipse.jetty.websocket.api.extensions.ExtensionConfig;
+import org.eclipse.jetty.websocket.server.WebSocketServerFactory;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ThresholdDeflateExtensionTest {
+    @Test
+    public void testThresholdPerFactory() {
+        WebSocketServerFactory small = new WebSocketServerFactory();
+        WebSocketServerFactory large = new WebSocketServerFactory();
+        ThresholdDeflateExtension.register(small, 100);
+        ThresholdDeflateExtension.register(large, 10000);
+
+        assertEquals(100, newExtension(small).getMinCompressSize());
+        assertEquals(10000, newExtension(large).getMinCompressSize());
+        // registering another factory does not change extensions of the first one
+        assertEquals(100, newExtension(small).getMinCompressSize());
+    }
+
+    private static ThresholdDeflateExtension newExtension(WebSocketServerFactory factory) {
+        return (ThresholdDeflateExtension) factory.getExtensionFactory().newInstance(new ExtensionConfig("permessage-deflate"));
+    }
+}
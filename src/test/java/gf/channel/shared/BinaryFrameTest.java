@@ -0,0 +1,130 @@
+package gf.channel.shared;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class BinaryFrameTest {
+    @Test
+    public void testFrame() {
+        BinaryFrameWriter out = new BinaryFrameWriter(4)
+                .writeString("S")
+                .writeString("conn-1")
+                .writeLong(300)
+                .writeLong(0)
+                .writeString("line 1\nline 2")
+                .writeString("")
+                .writeString("last");
+
+        // prefixed data is readable from any offset
+        byte[] data = new byte[out.size() + 3];
+        System.arraycopy(out.getBuffer(), 0, data, 3, out.size());
+        BinaryFrameReader frame = new BinaryFrameReader(data, 3, out.size());
+        assertEquals("S", frame.nextString());
+        assertEquals("conn-1", frame.nextString());
+        assertEquals(300, frame.nextLong());
+        assertEquals(0, frame.nextLong());
+        assertEquals("line 1\nline 2", frame.nextSlice().toString());
+        assertEquals("", frame.nextString());
+        frame.skip();
+        assertFalse(frame.hasNext());
+    }
+
+    @Test
+    public void testVarint() {
+        for (long value : new long[] {0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE, Long.MAX_VALUE}) {
+            BinaryFrameWriter out = new BinaryFrameWriter().writeLong(value);
+            BinaryFrameReader in = new BinaryFrameReader(out.toByteArray());
+            assertEquals(value, in.nextLong());
+            assertFalse(in.hasNext());
+        }
+        assertEquals(1, new BinaryFrameWriter().writeLong(127).size());
+        assertEquals(2, new BinaryFrameWriter().writeLong(128).size());
+    }
+
+    @Test
+    public void testUtf8() {
+        for (String s : Arrays.asList("ascii", "\u043a\u0438\u0440\u0438\u043b\u043b\u0438\u0446\u0430", "\u20ac sign", "emoji \ud83d\ude00 pair", "\u07ff\u0800\uffff")) {
+            byte[] expected = s.getBytes(StandardCharsets.UTF_8);
+            assertEquals(expected.length, Utf8.encodedLength(s));
+            byte[] encoded = new byte[expected.length];
+            assertEquals(expected.length, Utf8.encode(s, encoded, 0));
+            assertArrayEquals(expected, encoded);
+            assertEquals(s, Utf8.decode(encoded, 0, encoded.length));
+        }
+        // unpaired surrogate
+        byte[] encoded = new byte[Utf8.encodedLength("a\uD83Db")];
+        Utf8.encode("a\uD83Db", encoded, 0);
+        assertEquals("a?b", Utf8.decode(encoded, 0, encoded.length));
+        // malformed input
+        assertEquals("\ufffdx", Utf8.decode(new byte[] {(byte) 0xC3, 'x'}, 0, 2));
+    }
+
+    @Test
+    public void testMalformed() {
+        // string longer than frame
+        byte[] data = new BinaryFrameWriter().writeString("message").toByteArray();
+        try {
+            new BinaryFrameReader(data, 0, data.length - 1).nextString();
+            fail();
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+        // unterminated varint
+        try {
+            new BinaryFrameReader(new byte[] {(byte) 0x80, (byte) 0x80}).nextLong();
+            fail();
+        } catch (NumberFormatException ex) {
+            // expected
+        }
+        try {
+            new BinaryFrameWriter().writeLong(-1);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testMessageBytes() {
+        // raw serializer: message bytes are copied to the frame as is
+        ByteMessageSerializer raw = new ByteMessageSerializer() {
+            @Override
+            public byte[] toBytes(Object object) {
+                return (byte[]) object;
+            }
+
+            @Override
+            public Object fromBytes(byte[] data, int offset, int length) {
+                return Arrays.copyOfRange(data, offset, offset + length);
+            }
+        };
+        byte[] message = {0, '\n', (byte) 0xFF, (byte) 0x80};
+        BinaryFrameWriter out = new BinaryFrameWriter();
+        out.writeLong(1)
+                .writeMessage(raw.toBytes(message))
+                .writeMessage("text");
+        BinaryFrameReader frame = new BinaryFrameReader(out.toByteArray());
+        assertEquals(1, frame.nextLong());
+        assertArrayEquals(message, (byte[]) frame.nextMessage(raw));
+        assertEquals("text", frame.nextString());
+        assertFalse(frame.hasNext());
+
+        // adapter of a text serializer encodes UTF-8, readable by text frames as well
+        DefaultStringSerializer text = new DefaultStringSerializer();
+        Utf8MessageSerializer utf8 = new Utf8MessageSerializer(text);
+        byte[] encoded = utf8.toBytes("caf\u00e9 \u20ac");
+        assertArrayEquals(text.toString("caf\u00e9 \u20ac").getBytes(StandardCharsets.UTF_8), encoded);
+        out = new BinaryFrameWriter();
+        out.writeMessage(encoded);
+        frame = new BinaryFrameReader(out.toByteArray());
+        assertEquals("caf\u00e9 \u20ac", frame.nextMessage(utf8));
+        assertEquals(text.toString("caf\u00e9 \u20ac") + "\n", new TextFrameWriter().writeMessage(encoded).toString());
+    }
+}
@@ -0,0 +1,73 @@
+package gf.channel.shared;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class TextFrameReaderTest {
+    @Test
+    public void testFrame() {
+        TextFrameReader frame = new TextFrameReader("S\nconn-1\n12\n3\nfirst\n\nthird\n");
+        assertEquals("S", frame.nextString());
+        assertEquals("conn-1", frame.nextString());
+        assertEquals(12, frame.nextLong());
+        assertEquals(3, frame.nextLong());
+        assertEquals("first", frame.nextSlice().toString());
+        assertEquals("", frame.nextSlice().toString());
+        frame.skip();
+        assertFalse(frame.hasNext());
+    }
+
+    @Test
+    public void testWindowsLines() {
+        TextFrameReader frame = new TextFrameReader("H\r\nconn\r\n7\r\n");
+        assertEquals("H", frame.nextString());
+        assertEquals("conn", frame.nextString());
+        assertEquals(7, frame.nextLong());
+        assertFalse(frame.hasNext());
+    }
+
+    @Test
+    public void testSameAsSplit() {
+        for (String text : Arrays.asList("", "\n", "\n\n", "one", "one\n", "\none", "a\r", "a\r\r\n",
+                "a\n\r\n", "a\n\nb\n\n\n", "\r\n\r\nx\r\n", "S\nid\n0\n0\n")) {
+            List<String> lines = new ArrayList<>();
+            TextFrameReader frame = new TextFrameReader(text);
+            while (frame.hasNext())
+                lines.add(frame.nextString());
+
+            List<String> expected = text.isEmpty() ? new ArrayList<String>() : Arrays.asList(text.split("\\r?\\n"));
+            assertEquals("Text: " + text.replace("\r", "\\r").replace("\n", "\\n"), expected, lines);
+        }
+    }
+
+    @Test
+    public void testSlice() {
+        TextFrameReader frame = new TextFrameReader("skip\nmessage text\n");
+        frame.skip();
+        CharSequence slice = frame.nextSlice();
+        assertEquals(12, slice.length());
+        assertEquals('m', slice.charAt(0));
+        assertEquals("text", slice.subSequence(8, 12).toString());
+        assertFalse(frame.hasNext());
+    }
+
+    @Test
+    public void testInvalidNumber() {
+        for (String text : Arrays.asList("12a", "-", "", "99999999999999999999")) {
+            try {
+                new TextFrameReader(text + "\nx").nextLong();
+                fail(text);
+            } catch (NumberFormatException ex) {
+                // expected
+            }
+        }
+        assertEquals(-5, new TextFrameReader("-5").nextLong());
+    }
+}